@@ -23,13 +23,35 @@ import com.alextherapeutics.diga.model.*;
 import de.tk.opensource.secon.SeconException;
 import jakarta.xml.bind.JAXBException;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
 
 /**
  * Main entry point to perform code validation and invoicing against the DiGA API.
@@ -41,6 +63,10 @@ import org.apache.commons.io.IOUtils;
  *
  * <p>There is also a test version of each of the main methods for sending test requests.
  *
+ * <p>The main methods also have asynchronous versions, f.e {@link #validateDigaCodeAsync(String)},
+ * which run the request on the {@link Executor} configured for this client and return a {@link
+ * CompletableFuture} instead of blocking the calling thread.
+ *
  * <p>You can create this class in two ways:
  *
  * <p>- Create a client using a {@link DigaApiClientSettings} object, which will create a working
@@ -54,11 +80,15 @@ import org.apache.commons.io.IOUtils;
  * use default classes for some values, you can do so, just instantiate them yourself (they are
  * public). Look at the private "initDefault" method in this class for inspiration on how to do
  * that.
+ *
+ * <p>Close the client when it is no longer used, so that an executor it created itself, f.e for
+ * {@link DigaApiClientSettings#isUseVirtualThreads()}, is shut down. Executors you provide are not
+ * shut down.
  */
 @Slf4j
 @Builder
 @AllArgsConstructor
-public final class DigaApiClient {
+public final class DigaApiClient implements AutoCloseable {
   @NonNull private final DigaInformation digaInformation;
   @NonNull private DigaEncryptionFactory encryptionFactory;
   @NonNull private DigaHttpClient httpClient;
@@ -67,6 +97,60 @@ public final class DigaApiClient {
   @NonNull private DigaXmlRequestWriter xmlRequestWriter;
   @NonNull private DigaXmlRequestReader xmlRequestReader;
 
+  /**
+   * The executor which runs the asynchronous methods of this client. Optional, defaults to {@link
+   * ForkJoinPool#commonPool()}. Since the requests block on encryption and network I/O, it is
+   * recommended to provide a dedicated executor if you use the asynchronous methods under load, f.e
+   * {@link DigaExecutors#newVirtualThreadPerTaskExecutor()} on Java 21 or later.
+   */
+  private Executor executor;
+
+  /**
+   * The maximum number of concurrent requests sent to a single DiGA API endpoint by the batch
+   * methods, f.e {@link #validateDigaCodes(Collection)}. Defaults to 4.
+   */
+  @Builder.Default private int maxConcurrentRequestsPerEndpoint = 4;
+
+  /**
+   * A cache of successful code validation responses. Optional, defaults to no cache. If set, a code
+   * which was recently validated successfully is answered from the cache without sending a request
+   * to the API, see {@link com.alextherapeutics.diga.implementation.DigaCodeValidationLruCache}.
+   */
+  private DigaCodeValidationCache codeValidationCache;
+
+  /**
+   * Whether requests are encrypted while they are written to the HTTP request, instead of being
+   * encrypted into memory first. Defaults to false. The HTTP client has to support it, like {@link
+   * DigaOkHttpClient} does, otherwise the request is encrypted into memory when the client asks for
+   * it. Note that a streamed request body has no known length, so it is sent chunked.
+   */
+  @Builder.Default private boolean streamingEncryption = false;
+
+  /**
+   * Whether the encrypted request body is kept in the responses, see {@link
+   * AbstractDigaApiResponse#getRawXmlRequestBodyEncrypted()}, when using {@link
+   * #streamingEncryption}. Defaults to true. Without streaming encryption the encrypted body is
+   * always kept.
+   */
+  @Builder.Default private boolean retainEncryptedRequestBody = true;
+
+  /**
+   * Whether responses are decrypted and read while they are received, instead of being received and
+   * decrypted into memory first. Defaults to false. The HTTP client has to support it, like {@link
+   * DigaOkHttpClient} does, otherwise the response is received into memory first. Whether the
+   * decrypted XML is kept in the responses is up to the {@link DigaXmlRequestReader}, see {@link
+   * DigaXmlJaxbRequestReader#DigaXmlJaxbRequestReader(boolean)}.
+   */
+  @Builder.Default private boolean streamingDecryption = false;
+
+  // code validations currently being sent, by DiGA code. concurrent validations of the same code
+  // wait for the one in flight instead of sending the same request again
+  private final Map<String, CompletableFuture<DigaCodeValidationResponse>> codeValidationsInFlight =
+      new ConcurrentHashMap<>();
+
+  // the executor created by this client itself, which is shut down when the client is closed
+  private final AtomicReference<ExecutorService> ownedExecutor = new AtomicReference<>();
+
   /**
    * Create a working Diga API client with default class implementations.
    *
@@ -78,12 +162,42 @@ public final class DigaApiClient {
   public DigaApiClient(DigaApiClientSettings settings, DigaInformation digaInformation)
       throws DigaApiException {
     this.digaInformation = digaInformation;
+    if (settings.isUseVirtualThreads()) {
+      var virtualThreads = DigaExecutors.newVirtualThreadPerTaskExecutor();
+      ownedExecutor.set(virtualThreads);
+      this.executor = virtualThreads;
+    } else {
+      this.executor = settings.getExecutor();
+    }
+    this.maxConcurrentRequestsPerEndpoint = settings.getMaxConcurrentRequestsPerEndpoint();
+    this.codeValidationCache = settings.getCodeValidationCache();
+    this.streamingEncryption = settings.isStreamingEncryption();
+    this.retainEncryptedRequestBody = settings.isRetainEncryptedRequestBody();
+    this.streamingDecryption = settings.isStreamingDecryption();
     initDefault(settings);
   }
 
+  /**
+   * Shut down the executor created by this client, if any. Requests already running complete, new
+   * asynchronous requests are answered with an error. An executor provided to the client is not
+   * shut down, since it may be shared.
+   */
+  @Override
+  public void close() {
+    var owned = ownedExecutor.getAndSet(null);
+    if (owned != null) {
+      owned.shutdown();
+    }
+  }
+
   /**
    * Attempt to validate a patient's DiGA code against the API.
    *
+   * <p>If the same code is already being validated, f.e because a user submitted it twice, no new
+   * request is sent. Instead this waits for the request in flight and returns a copy of its
+   * response. If a {@link DigaCodeValidationCache} is configured, codes which were recently
+   * validated successfully are answered with a copy of the cached response.
+   *
    * @param digaCode - the full code (16 letters) as a String object.
    * @return a {@link DigaCodeValidationResponse} object containing information on the response from
    *     the API. This response may contain errors, in which case there are error messages in the
@@ -94,11 +208,7 @@ public final class DigaApiClient {
    */
   public DigaCodeValidationResponse validateDigaCode(String digaCode)
       throws DigaXmlWriterException, DigaCodeValidationException {
-    if (DigaUtils.isDigaTestCode(digaCode)) {
-      log.error("A test code was entered: {}", digaCode);
-      throw new DigaCodeValidationException("A test code was entered");
-    }
-    return performCodeValidation(codeParser.parseCodeForValidation(digaCode));
+    return performCoalescedCodeValidation(digaCode, parseCodeForValidation(digaCode));
   }
 
   /**
@@ -123,7 +233,7 @@ public final class DigaApiClient {
    */
   public DigaInvoiceResponse invoiceDiga(DigaInvoice invoice)
       throws DigaCodeValidationException, DigaXmlWriterException {
-    var billingInformation = codeParser.parseCodeForBilling(invoice.getValidatedDigaCode());
+    var billingInformation = parseCodeForBilling(invoice);
     return performDigaInvoicing(invoice, billingInformation, DigaProcessCode.BILLING);
   }
 
@@ -152,6 +262,105 @@ public final class DigaApiClient {
     return this.invoiceDiga(invoice);
   }
 
+  /**
+   * Asynchronously validate a patient's DiGA code against the API. See {@link
+   * #validateDigaCode(String)}.
+   *
+   * @param digaCode - the full code (16 letters) as a String object.
+   * @return a future which completes with the {@link DigaCodeValidationResponse}. The future
+   *     completes exceptionally with a {@link DigaCodeValidationException} or a {@link
+   *     DigaXmlWriterException} in the cases where {@link #validateDigaCode(String)} would throw
+   *     them.
+   */
+  public CompletableFuture<DigaCodeValidationResponse> validateDigaCodeAsync(String digaCode) {
+    return supplyAsync(() -> validateDigaCode(digaCode));
+  }
+
+  /**
+   * Validate many DiGA codes at once, f.e to re-validate codes after an outage of an insurance
+   * company's endpoint.
+   *
+   * <p>The codes are grouped by the DiGA API endpoint they are sent to, and each group is validated
+   * concurrently on the configured executor with at most {@link
+   * DigaApiClientBuilder#maxConcurrentRequestsPerEndpoint(int)} requests in flight per endpoint.
+   * Duplicate codes are only validated once.
+   *
+   * @param digaCodes - the full codes (16 letters each)
+   * @return A map from each given code to its {@link DigaCodeValidationResponse}, in the order the
+   *     codes were given. Codes which could not be validated, f.e because they are invalid or test
+   *     codes, get a response containing a {@link DigaApiExceptionError} with the exception that
+   *     {@link #validateDigaCode(String)} would have thrown.
+   */
+  public Map<String, DigaCodeValidationResponse> validateDigaCodes(Collection<String> digaCodes) {
+    return validateDigaCodesAsync(digaCodes).join();
+  }
+
+  /**
+   * Asynchronously validate many DiGA codes at once. See {@link #validateDigaCodes(Collection)}.
+   *
+   * @param digaCodes - the full codes (16 letters each)
+   * @return a future which completes with a map from each given code to its {@link
+   *     DigaCodeValidationResponse}, in the order the codes were given.
+   */
+  public CompletableFuture<Map<String, DigaCodeValidationResponse>> validateDigaCodesAsync(
+      Collection<String> digaCodes) {
+    var uniqueCodes = new LinkedHashSet<>(digaCodes);
+    var responses = new ConcurrentHashMap<String, DigaCodeValidationResponse>();
+    var codesByEndpoint = new HashMap<String, Queue<Map.Entry<String, DigaCodeInformation>>>();
+    for (var digaCode : uniqueCodes) {
+      try {
+        var codeInformation = parseCodeForValidation(digaCode);
+        codesByEndpoint
+            .computeIfAbsent(codeInformation.getEndpoint(), e -> new ConcurrentLinkedQueue<>())
+            .add(Map.entry(digaCode, codeInformation));
+      } catch (DigaCodeValidationException e) {
+        responses.put(digaCode, buildCodeValidationResponseFromException(e));
+      }
+    }
+    var workers = new ArrayList<CompletableFuture<Void>>();
+    for (var codes : codesByEndpoint.values()) {
+      var workerCount = Math.min(getMaxConcurrentRequestsPerEndpoint(), codes.size());
+      for (int i = 0; i < workerCount; i++) {
+        workers.add(supplyAsync(() -> validateQueuedCodes(codes, responses)));
+      }
+    }
+    return CompletableFuture.allOf(workers.toArray(CompletableFuture[]::new))
+        .thenApply(
+            done -> {
+              var orderedResponses = new LinkedHashMap<String, DigaCodeValidationResponse>();
+              uniqueCodes.forEach(code -> orderedResponses.put(code, responses.get(code)));
+              return orderedResponses;
+            });
+  }
+
+  /**
+   * Asynchronously send an Invoice for a DiGA prescription. See {@link #invoiceDiga(DigaInvoice)}.
+   *
+   * @param invoice - individual invoice details
+   * @return a future which completes with the {@link DigaInvoiceResponse}. The future completes
+   *     exceptionally with a {@link DigaCodeValidationException} or a {@link
+   *     DigaXmlWriterException} in the cases where {@link #invoiceDiga(DigaInvoice)} would throw
+   *     them.
+   */
+  public CompletableFuture<DigaInvoiceResponse> invoiceDigaAsync(DigaInvoice invoice) {
+    return supplyAsync(() -> invoiceDiga(invoice));
+  }
+
+  /**
+   * Asynchronously send an Invoice correction for a DiGA prescription. See {@link
+   * #digaInvoiceCorrection(DigaCorrectionInvoice)}.
+   *
+   * @param invoice - individual corrected invoice details
+   * @return a future which completes with the {@link DigaInvoiceResponse}. The future completes
+   *     exceptionally with a {@link DigaCodeValidationException} or a {@link
+   *     DigaXmlWriterException} in the cases where {@link
+   *     #digaInvoiceCorrection(DigaCorrectionInvoice)} would throw them.
+   */
+  public CompletableFuture<DigaInvoiceResponse> digaInvoiceCorrectionAsync(
+      DigaCorrectionInvoice invoice) {
+    return supplyAsync(() -> digaInvoiceCorrection(invoice));
+  }
+
   /**
    * Send a test invoice correction to the specified insurance company. Note that currently the DiGA
    * APIs do not seem to respond with 'valid' to test requests, even using valid test codes. If you
@@ -243,41 +452,326 @@ public final class DigaApiClient {
     return performDigaInvoicing(invoice, billingInformation, DigaProcessCode.BILLING_TEST);
   }
 
+  /**
+   * Send a code validation request again which failed after it was encrypted, f.e because the
+   * endpoint was down. The same encrypted request is sent, so the XML request is not created or
+   * encrypted again. See {@link #resendCodeValidation(DigaResendRequest)}.
+   *
+   * @param failedResponse - the response of the failed request
+   * @return a new {@link DigaCodeValidationResponse}, which may contain errors like the response of
+   *     {@link #validateDigaCode(String)}
+   * @throws IllegalArgumentException if the response can not be sent again, see {@link
+   *     DigaResendRequest#fromResponse(AbstractDigaApiResponse)}
+   */
+  public DigaCodeValidationResponse resendCodeValidation(
+      @NonNull DigaCodeValidationResponse failedResponse) {
+    return resendCodeValidation(DigaResendRequest.fromResponse(failedResponse));
+  }
+
+  /**
+   * Send an already encrypted code validation request again, f.e one you persisted after it failed.
+   *
+   * <p>Note that the insurance companies may reject a request which is sent again a long time
+   * later, since the request contains the time it was created.
+   *
+   * @param request - the encrypted request and where to send it
+   * @return a new {@link DigaCodeValidationResponse}, which may contain errors like the response of
+   *     {@link #validateDigaCode(String)}
+   * @throws IllegalArgumentException if the request is not a code validation request
+   */
+  public DigaCodeValidationResponse resendCodeValidation(@NonNull DigaResendRequest request) {
+    if (request.getProcessCode() != DigaProcessCode.CODE_VALIDATION
+        && request.getProcessCode() != DigaProcessCode.CODE_VALIDATION_TEST) {
+      throw new IllegalArgumentException(
+          "Not a code validation request: " + request.getProcessCode());
+    }
+    try {
+      return resend(request, xmlRequestReader::readCodeValidationResponse);
+    } catch (DigaHttpClientException | DigaDecryptionException | DigaXmlReaderException e) {
+      log.error("Failed to resend code validation to {}", request.getEndpoint(), e);
+      var response = buildCodeValidationResponseFromException(e);
+      addResendDetailsToResponse(response, request);
+      response.setRawXmlRequestBodyEncrypted(resendableContent(e, request.getEncryptedContent()));
+      return response;
+    }
+  }
+
+  /**
+   * Send an invoice again which failed after it was encrypted, f.e because the endpoint was down.
+   * The same encrypted invoice is sent, so the XRechnung invoice is not created or encrypted again.
+   * See {@link #resendInvoice(DigaResendRequest)}.
+   *
+   * @param failedResponse - the response of the failed invoice
+   * @return a new {@link DigaInvoiceResponse}, which may contain errors like the response of {@link
+   *     #invoiceDiga(DigaInvoice)}
+   * @throws IllegalArgumentException if the response can not be sent again, see {@link
+   *     DigaResendRequest#fromResponse(AbstractDigaApiResponse)}
+   */
+  public DigaInvoiceResponse resendInvoice(@NonNull DigaInvoiceResponse failedResponse) {
+    return resendInvoice(DigaResendRequest.fromResponse(failedResponse));
+  }
+
+  /**
+   * Send an already encrypted invoice again, f.e one you persisted after it failed.
+   *
+   * @param request - the encrypted invoice and where to send it. Set the raw XML request body to
+   *     get the generated invoice in the response.
+   * @return a new {@link DigaInvoiceResponse}, which may contain errors like the response of {@link
+   *     #invoiceDiga(DigaInvoice)}
+   * @throws IllegalArgumentException if the request is not an invoice
+   */
+  public DigaInvoiceResponse resendInvoice(@NonNull DigaResendRequest request) {
+    if (request.getProcessCode() != DigaProcessCode.BILLING
+        && request.getProcessCode() != DigaProcessCode.BILLING_TEST) {
+      throw new IllegalArgumentException("Not an invoice: " + request.getProcessCode());
+    }
+    var generatedInvoice =
+        request.getRawXmlRequestBody() == null
+            ? ""
+            : IOUtils.toString(request.getRawXmlRequestBody(), "UTF-8");
+    DigaInvoiceResponse response;
+    try {
+      response = resend(request, xmlRequestReader::readBillingReport);
+    } catch (DigaHttpClientException | DigaDecryptionException | DigaXmlReaderException e) {
+      log.error("Failed to resend invoice to {}", request.getEndpoint(), e);
+      response = buildInvoiceResponseFromException(e);
+      addResendDetailsToResponse(response, request);
+      response.setRawXmlRequestBodyEncrypted(resendableContent(e, request.getEncryptedContent()));
+    }
+    response.setGeneratedInvoice(generatedInvoice);
+    return response;
+  }
+
+  /**
+   * Replace the health insurance company certificates used to encrypt requests and to trust the API
+   * endpoints, f.e when a new key list (annahme-pkcs.key) is published, without creating a new
+   * client. Requests already in flight complete with the previous certificates.
+   *
+   * <p>The encryption factory and the HTTP client have to support reloading, like the default
+   * implementations do. Both read the new certificates before either of them uses them, so a failed
+   * reload keeps the previous certificates everywhere.
+   *
+   * @param healthInsurancePublicKeyStore - the new keystore (PKCS12) with the insurance company
+   *     certificates
+   * @param password - the password of the keystore
+   * @throws DigaApiException if the keystore could not be read, the certificates could not be used
+   *     or the encryption factory or HTTP client does not support reloading
+   */
+  public void reloadHealthInsuranceCertificates(
+      @NonNull InputStream healthInsurancePublicKeyStore, @NonNull String password)
+      throws DigaApiException {
+    try {
+      var certificates = KeyStore.getInstance("PKCS12");
+      certificates.load(healthInsurancePublicKeyStore, password.toCharArray());
+      var reloadEncryption =
+          encryptionFactory.prepareHealthInsuranceCertificatesReload(certificates);
+      var reloadHttp = httpClient.prepareHealthInsuranceCertificatesReload(certificates);
+      reloadEncryption.run();
+      reloadHttp.run();
+    } catch (IOException
+        | GeneralSecurityException
+        | DigaHttpClientException
+        | UnsupportedOperationException e) {
+      log.error("Failed to reload the health insurance company certificates", e);
+      throw new DigaApiException(e);
+    }
+  }
+
+  private <T extends AbstractDigaApiResponse> T resend(
+      DigaResendRequest request, ResponseBodyReader<T> reader)
+      throws DigaHttpClientException, DigaDecryptionException, DigaXmlReaderException {
+    var httpApiRequest =
+        DigaApiHttpRequest.builder()
+            .encryptedContent(request.getEncryptedContent())
+            .url(DigaUtils.buildPostDigaEndpoint(request.getEndpoint()))
+            .senderIK(digaInformation.getManufacturingCompanyIk())
+            .recipientIK(request.getClearingCenterIk())
+            .processCode(request.getProcessCode())
+            .build();
+    T response;
+    if (streamingDecryption) {
+      response =
+          httpClient.post(
+              httpApiRequest,
+              (httpResponse, encryptedBody) ->
+                  readResentResponse(httpResponse, decryptAsStream(encryptedBody), reader));
+    } else {
+      var httpResponse = httpClient.post(httpApiRequest);
+      var decrypted =
+          encryptionFactory
+              .newDecryption()
+              .decryptionTarget(httpResponse.getEncryptedBody())
+              .build()
+              .decrypt()
+              .toByteArray();
+      response = readResentResponse(httpResponse, new ByteArrayInputStream(decrypted), reader);
+    }
+    addResendDetailsToResponse(response, request);
+    return response;
+  }
+
+  private <T extends AbstractDigaApiResponse> T readResentResponse(
+      DigaApiHttpResponse httpResponse, InputStream decryptedBody, ResponseBodyReader<T> reader)
+      throws DigaDecryptionException, DigaXmlReaderException {
+    try (decryptedBody) {
+      var response = reader.read(decryptedBody);
+      response.setHttpStatusCode(httpResponse.getStatusCode());
+      return response;
+    } catch (IOException e) {
+      // closing the decrypting stream verifies the signature of the response
+      throw new DigaDecryptionException(e);
+    }
+  }
+
+  private void addResendDetailsToResponse(
+      AbstractDigaApiResponse response, DigaResendRequest request) {
+    response.setRawXmlRequestBody(request.getRawXmlRequestBody());
+    response.setRawXmlRequestBodyEncrypted(request.getEncryptedContent());
+    response.setProcessCode(request.getProcessCode());
+    response.setReceivingInsuranceCompanyEndpoint(request.getEndpoint());
+    response.setReceivingClearingCenterIk(request.getClearingCenterIk());
+    response.setReceivingInsuranceCompanyIk(request.getInsuranceCompanyIk());
+    response.setReceivingInsuranceCompanyName(request.getInsuranceCompanyName());
+  }
+
+  DigaCodeInformation parseCodeForValidation(String digaCode) throws DigaCodeValidationException {
+    if (DigaUtils.isDigaTestCode(digaCode)) {
+      log.error("A test code was entered: {}", digaCode);
+      throw new DigaCodeValidationException("A test code was entered");
+    }
+    return codeParser.parseCodeForValidation(digaCode);
+  }
+
+  // one of the workers validating the codes of an endpoint. the number of workers per endpoint
+  // limits the concurrent requests to it
+  private Void validateQueuedCodes(
+      Queue<Map.Entry<String, DigaCodeInformation>> codes,
+      Map<String, DigaCodeValidationResponse> responses) {
+    Map.Entry<String, DigaCodeInformation> next;
+    while ((next = codes.poll()) != null) {
+      try {
+        responses.put(
+            next.getKey(), performCoalescedCodeValidation(next.getKey(), next.getValue()));
+      } catch (DigaXmlWriterException e) {
+        log.error("Failed to create code validation request for DiGA code {}", next.getKey(), e);
+        responses.put(next.getKey(), buildCodeValidationResponseFromException(e));
+      }
+    }
+    return null;
+  }
+
+  private DigaCodeValidationResponse performCoalescedCodeValidation(
+      String digaCode, DigaCodeInformation codeInformation) throws DigaXmlWriterException {
+    if (codeValidationCache != null) {
+      var cached = codeValidationCache.get(digaCode);
+      if (cached != null) {
+        log.debug("Using cached validation of DiGA code {}", digaCode);
+        return cached.copy();
+      }
+    }
+    var validation = new CompletableFuture<DigaCodeValidationResponse>();
+    var inFlight = codeValidationsInFlight.putIfAbsent(digaCode, validation);
+    if (inFlight != null) {
+      log.debug("Waiting for validation of DiGA code {} already in flight", digaCode);
+      return awaitCodeValidation(inFlight).copy();
+    }
+    try {
+      var response = performCodeValidation(codeInformation);
+      // the cache and the waiting callers share a snapshot which is only ever handed out as a copy
+      var snapshot = response.copy();
+      if (codeValidationCache != null && isSuccessfulCodeValidation(snapshot)) {
+        codeValidationCache.put(digaCode, snapshot);
+      }
+      validation.complete(snapshot);
+      return response;
+    } catch (Throwable e) {
+      validation.completeExceptionally(e);
+      throw e;
+    } finally {
+      codeValidationsInFlight.remove(digaCode, validation);
+    }
+  }
+
+  // only a validated code may be reused, errors f.e from a timeout have to be retried
+  private static boolean isSuccessfulCodeValidation(DigaCodeValidationResponse response) {
+    return !response.isHasError()
+        && response.getValidatedDigaveid() != null
+        && response.getDayOfServiceProvision() != null;
+  }
+
+  private DigaCodeValidationResponse awaitCodeValidation(
+      CompletableFuture<DigaCodeValidationResponse> validation) throws DigaXmlWriterException {
+    try {
+      return validation.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof DigaXmlWriterException) {
+        throw (DigaXmlWriterException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  // run a blocking call on the configured executor. checked exceptions thrown by the call
+  // complete the future exceptionally as they are, so callers can inspect the cause
+  private <T> CompletableFuture<T> supplyAsync(Callable<T> call) {
+    var future = new CompletableFuture<T>();
+    try {
+      getExecutor()
+          .execute(
+              () -> {
+                try {
+                  future.complete(call.call());
+                } catch (Exception e) {
+                  future.completeExceptionally(e);
+                }
+              });
+    } catch (RejectedExecutionException e) {
+      log.error("Executor rejected an asynchronous DiGA API request", e);
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  Executor getExecutor() {
+    return executor == null ? ForkJoinPool.commonPool() : executor;
+  }
+
+  int getMaxConcurrentRequestsPerEndpoint() {
+    return Math.max(1, maxConcurrentRequestsPerEndpoint);
+  }
+
   private DigaCodeValidationResponse performCodeValidation(DigaCodeInformation codeInformation)
       throws DigaXmlWriterException {
     var xmlRequest = xmlRequestWriter.createCodeValidationRequest(codeInformation);
-    var encryptRequestAttempt =
-        encryptionFactory
-            .newEncryption()
-            .encryptionTarget(xmlRequest)
-            .recipientAlias(
-                DigaUtils.ikNumberWithPrefix(codeInformation.getClearingCenterIKNumber()))
-            .build();
+    EncryptedRequestBody encryptedXmlBody = null;
+    DigaProcessCode processCode = null;
     try {
-      var encryptedXmlBody = encryptRequestAttempt.encrypt().toByteArray();
+      encryptedXmlBody = encryptRequestBody(xmlRequest, codeInformation);
+      processCode =
+          DigaUtils.isDigaTestCode(codeInformation.getFullDigaCode())
+              ? DigaProcessCode.CODE_VALIDATION_TEST
+              : DigaProcessCode.CODE_VALIDATION;
       var httpApiRequest =
-          DigaApiHttpRequest.builder()
+          encryptedXmlBody
+              .addTo(DigaApiHttpRequest.builder())
               .url(DigaUtils.buildPostDigaEndpoint(codeInformation.getEndpoint()))
               .senderIK(digaInformation.getManufacturingCompanyIk())
               .recipientIK(codeInformation.getClearingCenterIKNumber())
-              .encryptedContent(encryptedXmlBody)
-              .processCode(
-                  DigaUtils.isDigaTestCode(codeInformation.getFullDigaCode())
-                      ? DigaProcessCode.CODE_VALIDATION_TEST
-                      : DigaProcessCode.CODE_VALIDATION)
-              .build();
-      var httpResponse = httpClient.post(httpApiRequest);
-      var decryptResponseBodyAttempt =
-          encryptionFactory
-              .newDecryption()
-              .decryptionTarget(httpResponse.getEncryptedBody())
+              .processCode(processCode)
               .build();
       var response =
-          xmlRequestReader.readCodeValidationResponse(
-              new ByteArrayInputStream(decryptResponseBodyAttempt.decrypt().toByteArray()));
-      response.setHttpStatusCode(httpResponse.getStatusCode());
+          streamingDecryption
+              ? httpClient.post(
+                  httpApiRequest,
+                  (httpResponse, encryptedBody) ->
+                      readCodeValidationResponse(httpResponse, decryptAsStream(encryptedBody)))
+              : readCodeValidationResponse(httpClient.post(httpApiRequest));
       response.setRawXmlRequestBody(xmlRequest);
-      response.setRawXmlRequestBodyEncrypted(encryptedXmlBody);
+      response.setRawXmlRequestBodyEncrypted(encryptedXmlBody.getEncryptedContent());
+      response.setProcessCode(processCode);
       addReceiverDetailsToResponse(response, codeInformation);
       return response;
     } catch (DigaHttpClientException
@@ -285,22 +779,61 @@ public final class DigaApiClient {
         | DigaDecryptionException
         | DigaXmlReaderException e) {
       log.error("Failed to validate DiGA code {}", codeInformation.getFullDigaCode(), e);
-      return buildCodeValidationResponseFromException(xmlRequest, e, codeInformation);
+      var response = buildCodeValidationResponseFromException(xmlRequest, e, codeInformation);
+      // keep what is needed to send the same encrypted request again, see resendCodeValidation
+      response.setRawXmlRequestBodyEncrypted(
+          encryptedXmlBody == null
+              ? null
+              : resendableContent(e, encryptedXmlBody.getEncryptedContent()));
+      response.setProcessCode(processCode);
+      return response;
     }
   }
 
+  private DigaCodeValidationResponse readCodeValidationResponse(DigaApiHttpResponse httpResponse)
+      throws DigaDecryptionException, DigaXmlReaderException {
+    var decryptResponseBodyAttempt =
+        encryptionFactory.newDecryption().decryptionTarget(httpResponse.getEncryptedBody()).build();
+    return readCodeValidationResponse(
+        httpResponse, new ByteArrayInputStream(decryptResponseBodyAttempt.decrypt().toByteArray()));
+  }
+
+  private DigaCodeValidationResponse readCodeValidationResponse(
+      DigaApiHttpResponse httpResponse, InputStream decryptedBody)
+      throws DigaDecryptionException, DigaXmlReaderException {
+    try (decryptedBody) {
+      var response = xmlRequestReader.readCodeValidationResponse(decryptedBody);
+      response.setHttpStatusCode(httpResponse.getStatusCode());
+      return response;
+    } catch (IOException e) {
+      // closing the decrypting stream verifies the signature of the response
+      throw new DigaDecryptionException(e);
+    }
+  }
+
+  private InputStream decryptAsStream(InputStream encryptedBody) throws DigaDecryptionException {
+    return encryptionFactory
+        .newDecryption()
+        .decryptionSource(encryptedBody)
+        .build()
+        .decryptAsStream();
+  }
+
   private DigaInvoiceResponse performDigaInvoicing(
       DigaInvoice invoice, DigaBillingInformation billingInformation, DigaProcessCode processCode)
       throws DigaXmlWriterException {
-    var xmlInvoice =
-        invoice instanceof DigaCorrectionInvoice correctionInvoice
-            ? xmlRequestWriter.createInvoiceCorrectionRequest(correctionInvoice, billingInformation)
-            : xmlRequestWriter.createBillingRequest(invoice, billingInformation);
+    var xmlInvoice = createXmlInvoice(invoice, billingInformation);
     if (!billingInformation.getBuyerInvoicingMethod().equals(DigaInvoiceMethod.API)) {
       return buildManualInvoicingResponse(billingInformation, xmlInvoice);
     }
+    EncryptedRequestBody encryptedXmlInvoice = null;
     try {
-      return performDigaInvoicingAgainstApi(billingInformation, xmlInvoice, processCode);
+      encryptedXmlInvoice = encryptRequestBody(xmlInvoice, billingInformation);
+      var response =
+          performDigaInvoicingAgainstApi(
+              billingInformation, xmlInvoice, encryptedXmlInvoice, processCode);
+      response.setProcessCode(processCode);
+      return response;
     } catch (DigaHttpClientException
         | DigaDecryptionException
         | DigaEncryptionException
@@ -310,37 +843,139 @@ public final class DigaApiClient {
           invoice.getInvoiceId(),
           invoice.getValidatedDigaCode(),
           e);
-      return buildInvoiceResponseFromException(xmlInvoice, e, billingInformation);
+      return buildInvoiceResponseFromException(
+          xmlInvoice,
+          encryptedXmlInvoice == null ? null : encryptedXmlInvoice.getEncryptedContent(),
+          e,
+          billingInformation,
+          processCode);
     }
   }
 
   private DigaInvoiceResponse performDigaInvoicingAgainstApi(
-      DigaBillingInformation billingInformation, byte[] xmlInvoice, DigaProcessCode processCode)
-      throws DigaEncryptionException,
-          DigaHttpClientException,
-          DigaDecryptionException,
-          DigaXmlReaderException {
-    var encryptionAttempt =
-        encryptionFactory
-            .newEncryption()
-            .encryptionTarget(xmlInvoice)
-            .recipientAlias(
-                DigaUtils.ikNumberWithPrefix(billingInformation.getClearingCenterIKNumber()))
-            .build();
-    var encryptedXmlInvoice = encryptionAttempt.encrypt().toByteArray();
-    var httpApiRequest =
-        DigaApiHttpRequest.builder()
-            .encryptedContent(encryptedXmlInvoice)
-            .recipientIK(billingInformation.getClearingCenterIKNumber())
-            .processCode(processCode)
-            .url(DigaUtils.buildPostDigaEndpoint(billingInformation.getEndpoint()))
-            .senderIK(digaInformation.getManufacturingCompanyIk())
-            .build();
-    var httpResponse = httpClient.post(httpApiRequest);
+      DigaBillingInformation billingInformation,
+      byte[] xmlInvoice,
+      EncryptedRequestBody encryptedXmlInvoice,
+      DigaProcessCode processCode)
+      throws DigaHttpClientException, DigaDecryptionException, DigaXmlReaderException {
+    if (streamingDecryption) {
+      return httpClient.post(
+          buildInvoiceRequest(encryptedXmlInvoice, billingInformation, processCode),
+          (httpResponse, encryptedBody) ->
+              readInvoiceResponse(
+                  httpResponse,
+                  decryptAsStream(encryptedBody),
+                  xmlInvoice,
+                  encryptedXmlInvoice.getEncryptedContent(),
+                  billingInformation));
+    }
+    var httpResponse = postInvoice(encryptedXmlInvoice, billingInformation, processCode);
+    return readInvoiceResponse(
+        httpResponse, xmlInvoice, encryptedXmlInvoice.getEncryptedContent(), billingInformation);
+  }
+
+  private EncryptedRequestBody encryptRequestBody(
+      byte[] xmlRequest, AbstractDigaInsuranceInformation insuranceInformation)
+      throws DigaEncryptionException {
+    if (!streamingEncryption) {
+      return new EncryptedRequestBody(encryptXmlRequest(xmlRequest, insuranceInformation));
+    }
+    return new EncryptedRequestBody(
+        newEncryption(xmlRequest, insuranceInformation), retainEncryptedRequestBody);
+  }
+
+  // the stages of invoicing below are package-private so that they can be run separately, f.e by
+  // the DigaBulkInvoicer pipeline
+
+  DigaBillingInformation parseCodeForBilling(DigaInvoice invoice)
+      throws DigaCodeValidationException {
+    return codeParser.parseCodeForBilling(invoice.getValidatedDigaCode());
+  }
+
+  byte[] createXmlInvoice(DigaInvoice invoice, DigaBillingInformation billingInformation)
+      throws DigaXmlWriterException {
+    return invoice instanceof DigaCorrectionInvoice correctionInvoice
+        ? xmlRequestWriter.createInvoiceCorrectionRequest(correctionInvoice, billingInformation)
+        : xmlRequestWriter.createBillingRequest(invoice, billingInformation);
+  }
+
+  byte[] encryptXmlRequest(byte[] xmlRequest, AbstractDigaInsuranceInformation insuranceInformation)
+      throws DigaEncryptionException {
+    return newEncryption(xmlRequest, insuranceInformation).encrypt().toByteArray();
+  }
+
+  private DigaEncryption newEncryption(
+      byte[] xmlRequest, AbstractDigaInsuranceInformation insuranceInformation) {
+    return encryptionFactory
+        .newEncryption()
+        .encryptionTarget(xmlRequest)
+        .recipientAlias(
+            DigaUtils.ikNumberWithPrefix(insuranceInformation.getClearingCenterIKNumber()))
+        .build();
+  }
+
+  DigaApiHttpResponse postInvoice(
+      byte[] encryptedXmlInvoice,
+      DigaBillingInformation billingInformation,
+      DigaProcessCode processCode)
+      throws DigaHttpClientException {
+    return postInvoice(
+        new EncryptedRequestBody(encryptedXmlInvoice), billingInformation, processCode);
+  }
+
+  private DigaApiHttpResponse postInvoice(
+      EncryptedRequestBody encryptedXmlInvoice,
+      DigaBillingInformation billingInformation,
+      DigaProcessCode processCode)
+      throws DigaHttpClientException {
+    return httpClient.post(
+        buildInvoiceRequest(encryptedXmlInvoice, billingInformation, processCode));
+  }
+
+  private DigaApiHttpRequest buildInvoiceRequest(
+      EncryptedRequestBody encryptedXmlInvoice,
+      DigaBillingInformation billingInformation,
+      DigaProcessCode processCode) {
+    return encryptedXmlInvoice
+        .addTo(DigaApiHttpRequest.builder())
+        .recipientIK(billingInformation.getClearingCenterIKNumber())
+        .processCode(processCode)
+        .url(DigaUtils.buildPostDigaEndpoint(billingInformation.getEndpoint()))
+        .senderIK(digaInformation.getManufacturingCompanyIk())
+        .build();
+  }
+
+  DigaInvoiceResponse readInvoiceResponse(
+      DigaApiHttpResponse httpResponse,
+      byte[] xmlInvoice,
+      byte[] encryptedXmlInvoice,
+      DigaBillingInformation billingInformation)
+      throws DigaDecryptionException, DigaXmlReaderException {
     var decryptAttempt =
         encryptionFactory.newDecryption().decryptionTarget(httpResponse.getEncryptedBody()).build();
     var decrypted = decryptAttempt.decrypt().toByteArray();
-    var response = xmlRequestReader.readBillingReport(new ByteArrayInputStream(decrypted));
+    return readInvoiceResponse(
+        httpResponse,
+        new ByteArrayInputStream(decrypted),
+        xmlInvoice,
+        encryptedXmlInvoice,
+        billingInformation);
+  }
+
+  private DigaInvoiceResponse readInvoiceResponse(
+      DigaApiHttpResponse httpResponse,
+      InputStream decryptedReport,
+      byte[] xmlInvoice,
+      byte[] encryptedXmlInvoice,
+      DigaBillingInformation billingInformation)
+      throws DigaDecryptionException, DigaXmlReaderException {
+    DigaInvoiceResponse response;
+    try (decryptedReport) {
+      response = xmlRequestReader.readBillingReport(decryptedReport);
+    } catch (IOException e) {
+      // closing the decrypting stream verifies the signature of the response
+      throw new DigaDecryptionException(e);
+    }
     response.setHttpStatusCode(httpResponse.getStatusCode());
     response.setRawXmlRequestBody(xmlInvoice);
     response.setGeneratedInvoice(IOUtils.toString(xmlInvoice, "UTF-8"));
@@ -349,7 +984,7 @@ public final class DigaApiClient {
     return response;
   }
 
-  private DigaInvoiceResponse buildManualInvoicingResponse(
+  DigaInvoiceResponse buildManualInvoicingResponse(
       DigaBillingInformation billingInformation, byte[] xmlInvoice) {
     return DigaInvoiceResponse.builder()
         .requiresManualAction(true)
@@ -360,6 +995,7 @@ public final class DigaApiClient {
         .receivingInsuranceCompanyEndpoint(billingInformation.getEndpoint())
         .receivingInsuranceCompanyIk(billingInformation.getInsuranceCompanyIKNumber())
         .receivingInsuranceCompanyName(billingInformation.getInsuranceCompanyName())
+        .receivingClearingCenterIk(billingInformation.getClearingCenterIKNumber())
         .build();
   }
 
@@ -368,6 +1004,7 @@ public final class DigaApiClient {
     response.setReceivingInsuranceCompanyEndpoint(insuranceInformation.getEndpoint());
     response.setReceivingInsuranceCompanyIk(insuranceInformation.getInsuranceCompanyIKNumber());
     response.setReceivingInsuranceCompanyName(insuranceInformation.getInsuranceCompanyName());
+    response.setReceivingClearingCenterIk(insuranceInformation.getClearingCenterIKNumber());
   }
 
   private void initDefault(DigaApiClientSettings settings) throws DigaApiException {
@@ -377,31 +1014,59 @@ public final class DigaApiClient {
           IOUtils.toByteArray(settings.getHealthInsurancePublicKeyStoreFile());
       healthInsuranceDirectory =
           DigaHealthInsuranceDirectoryFromXml.getInstance(settings.getHealthInsuranceMappingFile());
+      // load the keystores once for both the encryption factory and the http client
+      var keyMaterial =
+          DigaKeyMaterial.load(
+              privateKeyStoreBytes,
+              settings.getPrivateKeyStorePassword(),
+              healthInsurancePublicKeyStoreBytes,
+              settings.getHealthInsurancePublicKeyStorePassword());
       encryptionFactory =
-          DigaSeconEncryptionFactory.builder()
-              .privateKeyBytes(privateKeyStoreBytes)
-              .privateKeyAlias(settings.getPrivateKeyAlias())
-              .privateKeyPassword(settings.getPrivateKeyStorePassword())
-              .publicKeysBytes(healthInsurancePublicKeyStoreBytes)
-              .publicKeyDirectoryPassword(settings.getHealthInsurancePublicKeyStorePassword())
-              .build();
+          settings.isPreloadHealthInsuranceCertificates() || settings.isVerifyResponseSignatures()
+              ? DigaIndexedEncryptionFactory.builder()
+                  .privateKeyAlias(settings.getPrivateKeyAlias())
+                  .keyMaterial(keyMaterial)
+                  .healthInsuranceDirectory(healthInsuranceDirectory)
+                  .verifyResponseSignatures(settings.isVerifyResponseSignatures())
+                  .cryptoWorkerPool(settings.getCryptoWorkerPool())
+                  .securityProviders(settings.getSecurityProviders())
+                  .build()
+              : DigaSeconEncryptionFactory.builder()
+                  .privateKeyAlias(settings.getPrivateKeyAlias())
+                  .keyMaterial(keyMaterial)
+                  .cryptoWorkerPool(settings.getCryptoWorkerPool())
+                  .securityProviders(settings.getSecurityProviders())
+                  .build();
       httpClient =
           DigaOkHttpClient.builder()
-              .keyStoreFileContent(privateKeyStoreBytes)
-              .certificatesFileContent(healthInsurancePublicKeyStoreBytes)
-              .keyStorePassword(settings.getPrivateKeyStorePassword())
-              .certificatesPassword(settings.getHealthInsurancePublicKeyStorePassword())
+              .keyMaterial(keyMaterial)
+              .defaultEndpointSettings(settings.getEndpointBulkheadSettings())
               .build();
       codeParser = new DigaCodeDefaultParser(healthInsuranceDirectory);
-      xmlRequestWriter =
-          DigaXmlJaxbRequestWriter.builder().digaInformation(digaInformation).build();
-      xmlRequestReader = new DigaXmlJaxbRequestReader();
-    } catch (SeconException | JAXBException | DigaHttpClientException | IOException e) {
+      xmlRequestWriter = newXmlRequestWriter(settings.getXmlRequestWriterType(), digaInformation);
+      xmlRequestReader = new DigaXmlJaxbRequestReader(settings.isRetainRawXmlResponseBody());
+    } catch (SeconException
+        | JAXBException
+        | DigaHttpClientException
+        | IOException
+        | GeneralSecurityException e) {
       log.error("DigA API client initialization failed", e);
       throw new DigaApiException(e);
     }
   }
 
+  private static DigaXmlRequestWriter newXmlRequestWriter(
+      DigaXmlRequestWriterType type, DigaInformation digaInformation) throws JAXBException {
+    switch (type) {
+      case TEMPLATE:
+        return DigaXmlTemplateRequestWriter.builder().digaInformation(digaInformation).build();
+      case STAX:
+        return DigaXmlStaxRequestWriter.builder().digaInformation(digaInformation).build();
+      default:
+        return DigaXmlJaxbRequestWriter.builder().digaInformation(digaInformation).build();
+    }
+  }
+
   private DigaCodeValidationResponse buildCodeValidationResponseFromException(
       byte[] xmlRequest, Throwable error, DigaCodeInformation information) {
     var response =
@@ -414,16 +1079,102 @@ public final class DigaApiClient {
     return response;
   }
 
-  private DigaInvoiceResponse buildInvoiceResponseFromException(
-      byte[] xmlRequest, Throwable error, DigaBillingInformation information) {
+  DigaCodeValidationResponse buildCodeValidationResponseFromException(Throwable error) {
+    return DigaCodeValidationResponse.builder()
+        .hasError(true)
+        .errors(Collections.singletonList(new DigaApiExceptionError(error)))
+        .build();
+  }
+
+  DigaInvoiceResponse buildInvoiceResponseFromException(Throwable error) {
+    return DigaInvoiceResponse.builder()
+        .hasError(true)
+        .errors(Collections.singletonList(new DigaApiExceptionError(error)))
+        .generatedInvoice("")
+        .build();
+  }
+
+  // the encrypted request and process code are kept so the same request can be sent again, see
+  // resendInvoice, unless the request already reached the API
+  DigaInvoiceResponse buildInvoiceResponseFromException(
+      byte[] xmlRequest,
+      byte[] encryptedXmlRequest,
+      Throwable error,
+      DigaBillingInformation information,
+      DigaProcessCode processCode) {
     var response =
         DigaInvoiceResponse.builder()
             .hasError(true)
             .errors(Collections.singletonList(new DigaApiExceptionError(error)))
             .rawXmlRequestBody(xmlRequest)
             .generatedInvoice(IOUtils.toString(xmlRequest, "UTF-8"))
+            .rawXmlRequestBodyEncrypted(resendableContent(error, encryptedXmlRequest))
+            .processCode(processCode)
             .build();
     addReceiverDetailsToResponse(response, information);
     return response;
   }
+
+  // only a request which failed to be sent may be sent again. decryption and reading errors happen
+  // after the API answered, so the insurance company already has the request
+  private static byte[] resendableContent(Throwable error, byte[] encryptedContent) {
+    return error instanceof DigaHttpClientException ? encryptedContent : null;
+  }
+
+  // reads a decrypted response body, f.e DigaXmlRequestReader::readBillingReport
+  @FunctionalInterface
+  private interface ResponseBodyReader<T> {
+    T read(InputStream decryptedBody) throws DigaXmlReaderException;
+  }
+
+  // the encrypted body of a request. with streaming encryption, the body is encrypted while it is
+  // written to the HTTP request and a copy is only kept if asked for
+  private static final class EncryptedRequestBody {
+    private final byte[] encryptedContent;
+    private final DigaEncryption encryption;
+    private final ByteArrayOutputStream retainedContent;
+    // a retained copy is only complete if the encryption finished
+    private volatile boolean written;
+
+    private EncryptedRequestBody(byte[] encryptedContent) {
+      this.encryptedContent = encryptedContent;
+      this.encryption = null;
+      this.retainedContent = null;
+    }
+
+    private EncryptedRequestBody(DigaEncryption encryption, boolean retainContent) {
+      this.encryptedContent = null;
+      this.encryption = encryption;
+      this.retainedContent = retainContent ? new ByteArrayOutputStream() : null;
+    }
+
+    private DigaApiHttpRequest.DigaApiHttpRequestBuilder addTo(
+        DigaApiHttpRequest.DigaApiHttpRequestBuilder builder) {
+      if (encryption == null) {
+        return builder.encryptedContent(encryptedContent);
+      }
+      return builder.encryptedContentWriter(
+          output -> {
+            try {
+              written = false;
+              if (retainedContent == null) {
+                encryption.encryptTo(output);
+              } else {
+                retainedContent.reset();
+                encryption.encryptTo(new TeeOutputStream(output, retainedContent));
+              }
+              written = true;
+            } catch (DigaEncryptionException e) {
+              throw new IOException("Failed to encrypt the request body", e);
+            }
+          });
+    }
+
+    private byte[] getEncryptedContent() {
+      if (encryption == null) {
+        return encryptedContent;
+      }
+      return retainedContent == null || !written ? null : retainedContent.toByteArray();
+    }
+  }
 }
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga;
+
+import com.alextherapeutics.diga.model.DigaCodeValidationResponse;
+import com.alextherapeutics.diga.model.DigaInvoice;
+import com.alextherapeutics.diga.model.DigaInvoiceResponse;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A {@link Flow.Processor} which sends the items of a publisher to the DiGA API using a {@link
+ * DigaApiClient} and publishes the responses, f.e to use the client in a reactive application.
+ *
+ * <p>Create one with {@link #invoicing(DigaApiClient, int)} or {@link
+ * #codeValidation(DigaApiClient, int)}. The requests are run on the executor of the client, with at
+ * most {@link DigaApiClient.DigaApiClientBuilder#maxConcurrentRequestsPerEndpoint(int)} requests in
+ * flight per endpoint. At most "maxOutstandingItems" items are requested from the publisher before
+ * their responses have been delivered, so a slow subscriber slows down the publisher instead of
+ * filling up memory.
+ *
+ * <p>The responses are published in the same order as the items were received. If an item can not
+ * be sent, f.e because its DiGA code is invalid, a response containing a {@link
+ * com.alextherapeutics.diga.model.DigaApiExceptionError} is published instead. The processor
+ * supports a single subscriber.
+ *
+ * @param <T> the type of the items sent to the API
+ * @param <R> the type of the responses
+ */
+@Slf4j
+public final class DigaApiFlowProcessor<T, R> implements Flow.Processor<T, R> {
+  private final EndpointResolver<T> endpointResolver;
+  private final RequestSender<T, R> requestSender;
+  private final Function<Throwable, R> errorResponse;
+  private final Executor executor;
+  private final int maxConcurrentRequestsPerEndpoint;
+  private final int maxOutstandingItems;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final AtomicInteger drainRequests = new AtomicInteger();
+  // the items received but not yet delivered, in the order they were received
+  private final ArrayDeque<Slot<R>> slots = new ArrayDeque<>();
+  private final Map<String, EndpointQueue<T, R>> endpoints = new HashMap<>();
+  private Flow.Subscription upstream;
+  private Flow.Subscriber<? super R> downstream;
+  private long demand;
+  private long requestedFromUpstream;
+  private boolean upstreamDone;
+  private Throwable error;
+  private boolean cancelled;
+  private boolean terminated;
+
+  DigaApiFlowProcessor(
+      EndpointResolver<T> endpointResolver,
+      RequestSender<T, R> requestSender,
+      Function<Throwable, R> errorResponse,
+      Executor executor,
+      int maxConcurrentRequestsPerEndpoint,
+      int maxOutstandingItems) {
+    if (maxOutstandingItems < 1) {
+      throw new IllegalArgumentException("maxOutstandingItems must be at least 1");
+    }
+    this.endpointResolver = endpointResolver;
+    this.requestSender = requestSender;
+    this.errorResponse = errorResponse;
+    this.executor = executor;
+    this.maxConcurrentRequestsPerEndpoint = maxConcurrentRequestsPerEndpoint;
+    this.maxOutstandingItems = maxOutstandingItems;
+  }
+
+  /**
+   * Create a processor which sends invoices, see {@link DigaApiClient#invoiceDiga(DigaInvoice)}.
+   *
+   * @param client - the client used to send the invoices
+   * @param maxOutstandingItems - the maximum number of invoices received but not yet delivered
+   * @return
+   */
+  public static DigaApiFlowProcessor<DigaInvoice, DigaInvoiceResponse> invoicing(
+      DigaApiClient client, int maxOutstandingItems) {
+    return new DigaApiFlowProcessor<>(
+        invoice -> client.parseCodeForBilling(invoice).getEndpoint(),
+        client::invoiceDiga,
+        client::buildInvoiceResponseFromException,
+        client.getExecutor(),
+        client.getMaxConcurrentRequestsPerEndpoint(),
+        maxOutstandingItems);
+  }
+
+  /**
+   * Create a processor which validates DiGA codes, see {@link
+   * DigaApiClient#validateDigaCode(String)}.
+   *
+   * @param client - the client used to validate the codes
+   * @param maxOutstandingItems - the maximum number of codes received but not yet delivered
+   * @return
+   */
+  public static DigaApiFlowProcessor<String, DigaCodeValidationResponse> codeValidation(
+      DigaApiClient client, int maxOutstandingItems) {
+    return new DigaApiFlowProcessor<>(
+        code -> client.parseCodeForValidation(code).getEndpoint(),
+        client::validateDigaCode,
+        client::buildCodeValidationResponseFromException,
+        client.getExecutor(),
+        client.getMaxConcurrentRequestsPerEndpoint(),
+        maxOutstandingItems);
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super R> subscriber) {
+    lock.lock();
+    var alreadySubscribed = downstream != null;
+    if (!alreadySubscribed) {
+      downstream = subscriber;
+    }
+    lock.unlock();
+    if (alreadySubscribed) {
+      subscriber.onSubscribe(new NoSubscription());
+      subscriber.onError(new IllegalStateException("The processor supports a single subscriber"));
+      return;
+    }
+    subscriber.onSubscribe(new DownstreamSubscription());
+    drain();
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    lock.lock();
+    var alreadySubscribed = upstream != null;
+    if (!alreadySubscribed) {
+      upstream = subscription;
+    }
+    lock.unlock();
+    if (alreadySubscribed) {
+      subscription.cancel();
+      return;
+    }
+    drain();
+  }
+
+  @Override
+  public void onNext(T item) {
+    var slot = new Slot<R>();
+    lock.lock();
+    try {
+      // an error set before the publisher is done comes from an invalid request of the subscriber
+      if (cancelled || terminated || error != null) {
+        return;
+      }
+      requestedFromUpstream--;
+      slots.add(slot);
+    } finally {
+      lock.unlock();
+    }
+    String endpoint;
+    try {
+      endpoint = endpointResolver.resolve(item);
+    } catch (Exception e) {
+      log.error("Failed to find the DiGA API endpoint of an item", e);
+      complete(null, slot, errorResponse.apply(e));
+      return;
+    }
+    var send = false;
+    lock.lock();
+    try {
+      var queue = endpoints.computeIfAbsent(endpoint, key -> new EndpointQueue<>());
+      if (queue.running < maxConcurrentRequestsPerEndpoint) {
+        queue.running++;
+        send = true;
+      } else {
+        queue.waiting.add(new PendingItem<>(item, slot));
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (send) {
+      send(endpoint, item, slot);
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    lock.lock();
+    upstreamDone = true;
+    if (error == null) {
+      error = throwable;
+    }
+    lock.unlock();
+    drain();
+  }
+
+  @Override
+  public void onComplete() {
+    lock.lock();
+    upstreamDone = true;
+    lock.unlock();
+    drain();
+  }
+
+  private void send(String endpoint, T item, Slot<R> slot) {
+    try {
+      executor.execute(
+          () -> {
+            R response;
+            try {
+              response = requestSender.send(item);
+            } catch (Exception e) {
+              log.error("Failed to send a request to DiGA API endpoint {}", endpoint, e);
+              response = errorResponse.apply(e);
+            }
+            complete(endpoint, slot, response);
+          });
+    } catch (RejectedExecutionException e) {
+      log.error("Executor rejected a request to DiGA API endpoint {}", endpoint, e);
+      complete(endpoint, slot, errorResponse.apply(e));
+    }
+  }
+
+  // store the response and start the next request waiting for the same endpoint
+  private void complete(String endpoint, Slot<R> slot, R response) {
+    PendingItem<T, R> next = null;
+    lock.lock();
+    try {
+      slot.response = response;
+      slot.done = true;
+      if (endpoint != null) {
+        var queue = endpoints.get(endpoint);
+        next = cancelled ? null : queue.waiting.poll();
+        if (next == null) {
+          queue.running--;
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (next != null) {
+      send(endpoint, next.item, next.slot);
+    }
+    drain();
+  }
+
+  // deliver the finished responses the subscriber has asked for and request more items from the
+  // publisher. only one thread drains at a time, so the subscriber is never called concurrently
+  private void drain() {
+    if (drainRequests.getAndIncrement() != 0) {
+      return;
+    }
+    do {
+      while (true) {
+        Flow.Subscriber<? super R> subscriber;
+        Flow.Subscription subscription;
+        R next = null;
+        var complete = false;
+        var cancelUpstream = false;
+        Throwable failure = null;
+        long request = 0;
+        lock.lock();
+        try {
+          subscriber = downstream;
+          subscription = upstream;
+          if (subscriber == null || cancelled || terminated) {
+            break;
+          }
+          if (error != null && (!upstreamDone || slots.isEmpty())) {
+            // an invalid request from the subscriber, or the publisher failed and everything
+            // received before has been delivered
+            terminated = true;
+            failure = error;
+            cancelUpstream = !upstreamDone;
+          } else if (demand > 0 && !slots.isEmpty() && slots.peek().done) {
+            next = slots.poll().response;
+            demand--;
+          } else if (upstreamDone && slots.isEmpty()) {
+            terminated = true;
+            complete = true;
+          }
+          if (!terminated && !upstreamDone && subscription != null) {
+            request = maxOutstandingItems - slots.size() - requestedFromUpstream;
+            if (request > 0) {
+              requestedFromUpstream += request;
+            }
+          }
+        } finally {
+          lock.unlock();
+        }
+        if (failure != null) {
+          if (subscription != null && cancelUpstream) {
+            subscription.cancel();
+          }
+          subscriber.onError(failure);
+          break;
+        }
+        if (complete) {
+          subscriber.onComplete();
+          break;
+        }
+        if (request > 0) {
+          subscription.request(request);
+        }
+        if (next == null) {
+          break;
+        }
+        subscriber.onNext(next);
+      }
+    } while (drainRequests.decrementAndGet() != 0);
+  }
+
+  private final class DownstreamSubscription implements Flow.Subscription {
+    @Override
+    public void request(long n) {
+      lock.lock();
+      if (n <= 0) {
+        // signalled right away, so the responses not yet delivered and the waiting items are
+        // dropped like when the subscription is cancelled
+        if (!terminated) {
+          error = new IllegalArgumentException("Requested a non-positive number of responses");
+          slots.clear();
+          endpoints.values().forEach(queue -> queue.waiting.clear());
+        }
+      } else {
+        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+      }
+      lock.unlock();
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      Flow.Subscription subscription;
+      lock.lock();
+      cancelled = true;
+      subscription = upstream;
+      slots.clear();
+      endpoints.values().forEach(queue -> queue.waiting.clear());
+      lock.unlock();
+      if (subscription != null) {
+        subscription.cancel();
+      }
+    }
+  }
+
+  private static final class NoSubscription implements Flow.Subscription {
+    @Override
+    public void request(long n) {}
+
+    @Override
+    public void cancel() {}
+  }
+
+  @FunctionalInterface
+  interface EndpointResolver<T> {
+    String resolve(T item) throws Exception;
+  }
+
+  @FunctionalInterface
+  interface RequestSender<T, R> {
+    R send(T item) throws Exception;
+  }
+
+  private static final class Slot<R> {
+    private R response;
+    private boolean done;
+  }
+
+  private static final class PendingItem<T, R> {
+    private final T item;
+    private final Slot<R> slot;
+
+    private PendingItem(T item, Slot<R> slot) {
+      this.item = item;
+      this.slot = slot;
+    }
+  }
+
+  private static final class EndpointQueue<T, R> {
+    private final ArrayDeque<PendingItem<T, R>> waiting = new ArrayDeque<>();
+    private int running;
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga;
+
+import com.alextherapeutics.diga.model.DigaApiHttpResponse;
+import java.io.InputStream;
+
+/**
+ * Handles a response from a DiGA API while its encrypted body is being received, f.e by decrypting
+ * it and reading the XML directly from the HTTP connection. See {@link
+ * DigaHttpClient#post(com.alextherapeutics.diga.model.DigaApiHttpRequest,
+ * DigaApiHttpResponseHandler)}.
+ *
+ * @param <T> the result of handling the response
+ */
+@FunctionalInterface
+public interface DigaApiHttpResponseHandler<T> {
+  /**
+   * Handle a response.
+   *
+   * @param response - the response information. Its encrypted body is not set if the body is
+   *     streamed.
+   * @param encryptedBody - the encrypted body of the response. It can only be read until this
+   *     method returns.
+   * @return
+   * @throws DigaDecryptionException if decrypting the body failed
+   * @throws DigaXmlReaderException if reading the decrypted body failed
+   */
+  T handle(DigaApiHttpResponse response, InputStream encryptedBody)
+      throws DigaDecryptionException, DigaXmlReaderException;
+}
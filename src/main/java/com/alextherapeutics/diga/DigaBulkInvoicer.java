@@ -0,0 +1,415 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga;
+
+import com.alextherapeutics.diga.model.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sends many invoices through a {@link DigaApiClient}, f.e at the end of the month.
+ *
+ * <p>Sending an invoice consists of creating the XML invoice, encrypting it, posting it to the API,
+ * decrypting the response and reading the billing report. Instead of running all of these steps for
+ * one invoice at a time, the bulk invoicer runs them as a pipeline of three stages with their own
+ * threads, connected by bounded queues:
+ *
+ * <p>- preparing: parse the DiGA code, create the XML invoice and encrypt it (CPU bound)
+ *
+ * <p>- sending: post the encrypted invoice to the API (network bound)
+ *
+ * <p>- reading: decrypt the response and read the billing report (CPU bound)
+ *
+ * <p>This way the CPU heavy stages run while the sending stage waits for the network. If a stage
+ * falls behind, the queue in front of it fills up and the stages before it wait until there is room
+ * again, so the number of invoices held in memory stays bounded.
+ *
+ * <p>The invoices waiting to be sent form an encrypt-ahead window: while one invoice is sent, the
+ * next ones are already written and encrypted. Besides the queue capacity, the window is bounded by
+ * {@link #encryptAheadBytes}, so that large invoices do not fill the memory.
+ */
+@Slf4j
+@Builder
+public final class DigaBulkInvoicer {
+  private static final InvoiceInProgress END_OF_STAGE = new InvoiceInProgress(-1, null);
+  // signing and encrypting adds the signature, the certificates and the CMS structure to the XML
+  private static final int ENCRYPTION_OVERHEAD_BYTES = 4096;
+
+  /** The client used to create, encrypt, send and read the invoices. */
+  @NonNull private final DigaApiClient apiClient;
+
+  /** The number of threads preparing invoices. Defaults to the number of available processors. */
+  @Builder.Default private final int preparingThreads = Runtime.getRuntime().availableProcessors();
+
+  /** The number of threads sending invoices to the API. Defaults to 8. */
+  @Builder.Default private final int sendingThreads = 8;
+
+  /**
+   * The number of threads reading the responses from the API. Defaults to half of the number of
+   * available processors.
+   */
+  @Builder.Default
+  private final int readingThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+  /** The maximum number of invoices waiting in the queue in front of each stage. Defaults to 32. */
+  @Builder.Default private final int queueCapacity = 32;
+
+  /**
+   * The maximum size in bytes of the encrypted invoices which have been prepared but not yet sent.
+   * Before encrypting an invoice, preparing reserves an estimate of its encrypted size, the size of
+   * the XML invoice plus 4 KiB, and waits when the budget is used up. Once encrypted, the estimate
+   * is replaced by the actual size. An invoice larger than the budget is still sent, on its own.
+   * Defaults to 64 MiB.
+   */
+  @Builder.Default private final int encryptAheadBytes = 64 * 1024 * 1024;
+
+  /**
+   * Send invoices for DiGA prescriptions. See {@link DigaApiClient#invoiceDiga(DigaInvoice)}.
+   *
+   * @param invoices - the invoices to send. These can also be {@link DigaCorrectionInvoice}s.
+   * @return A {@link DigaBulkInvoicingResult} with a summary and the responses to each invoice. If
+   *     an invoice could not be sent, f.e because its DiGA code is invalid, its response contains a
+   *     {@link DigaApiExceptionError} with the exception that {@link
+   *     DigaApiClient#invoiceDiga(DigaInvoice)} would have thrown.
+   * @throws InterruptedException if interrupted while waiting for the invoices to be handled
+   */
+  public DigaBulkInvoicingResult invoice(List<? extends DigaInvoice> invoices)
+      throws InterruptedException {
+    var start = Instant.now();
+    var responses = new AtomicReferenceArray<DigaInvoiceResponse>(invoices.size());
+    var nextInvoice = new AtomicInteger();
+    var toSend = new ArrayBlockingQueue<InvoiceInProgress>(queueCapacity);
+    var toRead = new ArrayBlockingQueue<InvoiceInProgress>(queueCapacity);
+    var encryptAheadWindow = new EncryptAheadWindow(encryptAheadBytes);
+
+    var preparing = newStageExecutor("preparing", preparingThreads);
+    var sending = newStageExecutor("sending", sendingThreads);
+    var reading = newStageExecutor("reading", readingThreads);
+    try {
+      var workers = new ArrayList<Future<?>>();
+      workers.addAll(
+          startStage(
+              preparing,
+              preparingThreads,
+              () -> {
+                int index;
+                while ((index = nextInvoice.getAndIncrement()) < invoices.size()) {
+                  var prepared = prepare(index, invoices.get(index), responses, encryptAheadWindow);
+                  if (prepared != null) {
+                    toSend.put(prepared);
+                  }
+                }
+              },
+              toSend,
+              sendingThreads));
+      workers.addAll(
+          startStage(
+              sending,
+              sendingThreads,
+              () -> {
+                InvoiceInProgress next;
+                while ((next = toSend.take()) != END_OF_STAGE) {
+                  boolean sent;
+                  try {
+                    sent = send(next, responses);
+                  } finally {
+                    encryptAheadWindow.release(next);
+                  }
+                  if (sent) {
+                    toRead.put(next);
+                  }
+                }
+              },
+              toRead,
+              readingThreads));
+      workers.addAll(
+          startStage(
+              reading,
+              readingThreads,
+              () -> {
+                InvoiceInProgress next;
+                while ((next = toRead.take()) != END_OF_STAGE) {
+                  read(next, responses);
+                }
+              },
+              null,
+              0));
+      for (var worker : workers) {
+        worker.get();
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("A bulk invoicing stage failed unexpectedly", e.getCause());
+    } finally {
+      preparing.shutdownNow();
+      sending.shutdownNow();
+      reading.shutdownNow();
+    }
+    return buildResult(
+        responses,
+        Duration.between(start, Instant.now()),
+        encryptAheadWindow.maxReservedBytes.get());
+  }
+
+  // the workers of a stage. when the last worker is done, it tells each worker of the next stage
+  // to stop after the invoices already in the queue
+  private List<Future<?>> startStage(
+      ExecutorService executor,
+      int threads,
+      StageWorker worker,
+      BlockingQueue<InvoiceInProgress> output,
+      int outputConsumers) {
+    var running = new AtomicInteger(threads);
+    var workers = new ArrayList<Future<?>>();
+    for (int i = 0; i < threads; i++) {
+      workers.add(
+          executor.submit(
+              () -> {
+                try {
+                  worker.run();
+                } finally {
+                  if (running.decrementAndGet() == 0 && output != null) {
+                    for (int j = 0; j < outputConsumers; j++) {
+                      output.put(END_OF_STAGE);
+                    }
+                  }
+                }
+                return null;
+              }));
+    }
+    return workers;
+  }
+
+  // returns the invoice if it should be sent to the API, otherwise its response is already set
+  private InvoiceInProgress prepare(
+      int index,
+      DigaInvoice invoice,
+      AtomicReferenceArray<DigaInvoiceResponse> responses,
+      EncryptAheadWindow encryptAheadWindow)
+      throws InterruptedException {
+    var inProgress = new InvoiceInProgress(index, invoice);
+    try {
+      inProgress.billingInformation = apiClient.parseCodeForBilling(invoice);
+      inProgress.xmlInvoice = apiClient.createXmlInvoice(invoice, inProgress.billingInformation);
+      if (!inProgress.billingInformation.getBuyerInvoicingMethod().equals(DigaInvoiceMethod.API)) {
+        responses.set(
+            index,
+            apiClient.buildManualInvoicingResponse(
+                inProgress.billingInformation, inProgress.xmlInvoice));
+        return null;
+      }
+      encryptAheadWindow.reserve(
+          inProgress, (long) inProgress.xmlInvoice.length + ENCRYPTION_OVERHEAD_BYTES);
+      inProgress.encryptedXmlInvoice =
+          apiClient.encryptXmlRequest(inProgress.xmlInvoice, inProgress.billingInformation);
+      encryptAheadWindow.adjust(inProgress);
+      return inProgress;
+    } catch (InterruptedException e) {
+      encryptAheadWindow.release(inProgress);
+      throw e;
+    } catch (Exception e) {
+      encryptAheadWindow.release(inProgress);
+      fail(inProgress, e, responses);
+      return null;
+    }
+  }
+
+  // returns whether the response should be read
+  private boolean send(
+      InvoiceInProgress inProgress, AtomicReferenceArray<DigaInvoiceResponse> responses) {
+    try {
+      inProgress.httpResponse =
+          apiClient.postInvoice(
+              inProgress.encryptedXmlInvoice,
+              inProgress.billingInformation,
+              DigaProcessCode.BILLING);
+      return true;
+    } catch (Exception e) {
+      fail(inProgress, e, responses);
+      return false;
+    }
+  }
+
+  private void read(
+      InvoiceInProgress inProgress, AtomicReferenceArray<DigaInvoiceResponse> responses) {
+    try {
+      var response =
+          apiClient.readInvoiceResponse(
+              inProgress.httpResponse,
+              inProgress.xmlInvoice,
+              inProgress.encryptedXmlInvoice,
+              inProgress.billingInformation);
+      response.setProcessCode(DigaProcessCode.BILLING);
+      responses.set(inProgress.index, response);
+    } catch (Exception e) {
+      fail(inProgress, e, responses);
+    }
+  }
+
+  private void fail(
+      InvoiceInProgress inProgress,
+      Exception e,
+      AtomicReferenceArray<DigaInvoiceResponse> responses) {
+    log.error(
+        "Failed to invoice DiGA API for invoice id {}, code {}",
+        inProgress.invoice.getInvoiceId(),
+        inProgress.invoice.getValidatedDigaCode(),
+        e);
+    responses.set(
+        inProgress.index,
+        inProgress.xmlInvoice == null
+            ? apiClient.buildInvoiceResponseFromException(e)
+            : apiClient.buildInvoiceResponseFromException(
+                inProgress.xmlInvoice,
+                inProgress.encryptedXmlInvoice,
+                e,
+                inProgress.billingInformation,
+                DigaProcessCode.BILLING));
+  }
+
+  private DigaBulkInvoicingResult buildResult(
+      AtomicReferenceArray<DigaInvoiceResponse> responses,
+      Duration duration,
+      long maxEncryptedAheadBytes) {
+    var responseList = new ArrayList<DigaInvoiceResponse>(responses.length());
+    int successful = 0;
+    int manual = 0;
+    int failed = 0;
+    for (int i = 0; i < responses.length(); i++) {
+      var response = responses.get(i);
+      responseList.add(response);
+      if (response.isHasError()) {
+        failed++;
+      } else if (response.isRequiresManualAction()) {
+        manual++;
+      } else {
+        successful++;
+      }
+    }
+    return DigaBulkInvoicingResult.builder()
+        .responses(responseList)
+        .successfulInvoices(successful)
+        .manualActionInvoices(manual)
+        .failedInvoices(failed)
+        .duration(duration)
+        .maxEncryptedAheadBytes(maxEncryptedAheadBytes)
+        .build();
+  }
+
+  private ExecutorService newStageExecutor(String stage, int threads) {
+    var threadNumber = new AtomicInteger();
+    ThreadFactory threadFactory =
+        runnable -> {
+          var thread =
+              new Thread(
+                  runnable, "diga-bulk-invoicing-" + stage + "-" + threadNumber.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        };
+    return Executors.newFixedThreadPool(threads, threadFactory);
+  }
+
+  @FunctionalInterface
+  private interface StageWorker {
+    void run() throws InterruptedException;
+  }
+
+  // the encrypted invoices prepared but not yet sent, bounded by a budget of bytes. an invoice
+  // larger than the budget reserves the whole budget, so it is sent on its own instead of never.
+  // an invoice reserves an estimate while it is encrypted, which is then adjusted to its actual
+  // size
+  private static class EncryptAheadWindow {
+    private final int budget;
+    private final Semaphore available;
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicLong maxReservedBytes = new AtomicLong();
+
+    private EncryptAheadWindow(int budget) {
+      this.budget = Math.max(1, budget);
+      this.available = new Semaphore(this.budget);
+    }
+
+    private void reserve(InvoiceInProgress inProgress, long estimatedBytes)
+        throws InterruptedException {
+      var permits = permits(estimatedBytes);
+      available.acquire(permits);
+      inProgress.reservedBytes = permits;
+    }
+
+    private void adjust(InvoiceInProgress inProgress) throws InterruptedException {
+      var permits = permits(inProgress.encryptedXmlInvoice.length);
+      if (permits > inProgress.reservedBytes) {
+        // give back the estimate before waiting for more, so that preparing threads holding
+        // estimates can not wait for each other
+        available.release(inProgress.reservedBytes);
+        inProgress.reservedBytes = 0;
+        available.acquire(permits);
+      } else {
+        available.release(inProgress.reservedBytes - permits);
+      }
+      inProgress.reservedBytes = permits;
+      inProgress.encryptedAheadBytes = inProgress.encryptedXmlInvoice.length;
+      var reserved = reservedBytes.addAndGet(inProgress.encryptedAheadBytes);
+      maxReservedBytes.accumulateAndGet(reserved, Math::max);
+    }
+
+    private void release(InvoiceInProgress inProgress) {
+      reservedBytes.addAndGet(-inProgress.encryptedAheadBytes);
+      available.release(inProgress.reservedBytes);
+      inProgress.encryptedAheadBytes = 0;
+      inProgress.reservedBytes = 0;
+    }
+
+    private int permits(long bytes) {
+      return (int) Math.min(budget, Math.max(1, bytes));
+    }
+  }
+
+  // an invoice moving through the stages. each stage fills in its results
+  private static class InvoiceInProgress {
+    private final int index;
+    private final DigaInvoice invoice;
+    private DigaBillingInformation billingInformation;
+    private byte[] xmlInvoice;
+    private byte[] encryptedXmlInvoice;
+    private DigaApiHttpResponse httpResponse;
+    private int reservedBytes;
+    private int encryptedAheadBytes;
+
+    private InvoiceInProgress(int index, DigaInvoice invoice) {
+      this.index = index;
+      this.invoice = invoice;
+    }
+  }
+}
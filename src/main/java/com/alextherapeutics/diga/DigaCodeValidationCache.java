@@ -0,0 +1,52 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga;
+
+import com.alextherapeutics.diga.model.DigaCodeValidationCacheStatistics;
+import com.alextherapeutics.diga.model.DigaCodeValidationResponse;
+
+/**
+ * A cache of successful code validation responses, so that validating the same code again, f.e when
+ * a user reconnects, does not send a new request to the API.
+ */
+public interface DigaCodeValidationCache {
+  /**
+   * Get the cached response of a DiGA code.
+   *
+   * @param digaCode - the full code (16 letters)
+   * @return The cached response, or null if there is none or it has expired
+   */
+  DigaCodeValidationResponse get(String digaCode);
+
+  /**
+   * Cache the response of a successful code validation. The client only puts responses without
+   * errors where the validated code and the day of service provision are set.
+   *
+   * @param digaCode - the full code (16 letters)
+   * @param response - the response to cache
+   */
+  void put(String digaCode, DigaCodeValidationResponse response);
+
+  /**
+   * Get the statistics of the cache so far.
+   *
+   * @return
+   */
+  DigaCodeValidationCacheStatistics getStatistics();
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga;
+
+import com.alextherapeutics.diga.model.DigaCryptoWorkerPoolStatistics;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Builder;
+
+/**
+ * A pool of threads dedicated to the CPU bound signing, encryption, decryption and verification of
+ * requests and responses, f.e as {@link
+ * com.alextherapeutics.diga.implementation.DigaSeconEncryptionFactory.DigaSeconEncryptionFactoryBuilder#cryptoWorkerPool(DigaCryptoWorkerPool)}.
+ *
+ * <p>Without a pool, encryption runs on the thread sending the request, f.e a thread of {@link
+ * com.alextherapeutics.diga.model.DigaApiClientSettings#getExecutor()} or a virtual thread. With
+ * many concurrent requests this means more threads compete for the processors than there are
+ * processors. The pool instead runs at most one encryption per processor and queues the rest, while
+ * the calling thread waits.
+ *
+ * <p>Tasks submitted from a thread of the pool run directly on that thread, so nested use cannot
+ * deadlock. Close the pool when it is no longer used.
+ */
+public final class DigaCryptoWorkerPool implements AutoCloseable {
+  // the pool whose worker runs on the current thread, if any
+  private static final ThreadLocal<DigaCryptoWorkerPool> WORKER = new ThreadLocal<>();
+
+  private final ThreadPoolExecutor executor;
+  private final int threads;
+  private final AtomicLong completedTasks = new AtomicLong();
+  private final AtomicLong failedTasks = new AtomicLong();
+  private final AtomicLong rejectedTasks = new AtomicLong();
+  private final AtomicLong totalServiceNanos = new AtomicLong();
+  private final AtomicLong maxServiceNanos = new AtomicLong();
+  private final AtomicLong totalQueueNanos = new AtomicLong();
+  private final AtomicInteger maxQueuedTasks = new AtomicInteger();
+
+  /**
+   * @param threads - the number of worker threads. Defaults to the number of available processors.
+   * @param queueCapacity - the maximum number of tasks waiting for a worker. Further tasks are
+   *     rejected. Defaults to 1024.
+   */
+  @Builder
+  public DigaCryptoWorkerPool(Integer threads, Integer queueCapacity) {
+    this.threads = threads != null ? threads : Runtime.getRuntime().availableProcessors();
+    if (this.threads < 1) {
+      throw new IllegalArgumentException("A crypto worker pool needs at least one thread");
+    }
+    var threadNumber = new AtomicInteger();
+    ThreadFactory threadFactory =
+        runnable -> {
+          var thread =
+              new Thread(
+                  () -> {
+                    WORKER.set(this);
+                    runnable.run();
+                  },
+                  "diga-crypto-" + threadNumber.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        };
+    this.executor =
+        new ThreadPoolExecutor(
+            this.threads,
+            this.threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity != null ? queueCapacity : 1024),
+            threadFactory);
+  }
+
+  /**
+   * Run a task on the pool and wait for its result.
+   *
+   * <p>If the caller is interrupted, a task which already started still runs to completion, so
+   * tasks should only compute their result and not write to streams the caller keeps using, f.e the
+   * body of a HTTP request.
+   *
+   * @param task - the task to run
+   * @param <T> - the result type
+   * @return The result of the task
+   * @throws ExecutionException if the task threw an exception. Its cause is the exception.
+   * @throws InterruptedException if interrupted while waiting for the task
+   * @throws RejectedExecutionException if the queue is full or the pool is closed
+   */
+  public <T> T run(Callable<T> task) throws ExecutionException, InterruptedException {
+    if (WORKER.get() == this) {
+      try {
+        return task.call();
+      } catch (Exception e) {
+        throw new ExecutionException(e);
+      }
+    }
+    var submitted = System.nanoTime();
+    var future =
+        new FutureTask<T>(
+            () -> {
+              var started = System.nanoTime();
+              totalQueueNanos.addAndGet(started - submitted);
+              try {
+                return task.call();
+              } catch (Exception | Error e) {
+                failedTasks.incrementAndGet();
+                throw e;
+              } finally {
+                var serviceNanos = System.nanoTime() - started;
+                totalServiceNanos.addAndGet(serviceNanos);
+                maxServiceNanos.accumulateAndGet(serviceNanos, Math::max);
+                completedTasks.incrementAndGet();
+              }
+            });
+    try {
+      executor.execute(future);
+    } catch (RejectedExecutionException e) {
+      rejectedTasks.incrementAndGet();
+      throw e;
+    }
+    maxQueuedTasks.accumulateAndGet(executor.getQueue().size(), Math::max);
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(false);
+      throw e;
+    }
+  }
+
+  /**
+   * A snapshot of the tasks run by the pool.
+   *
+   * @return
+   */
+  public DigaCryptoWorkerPoolStatistics getStatistics() {
+    var completed = completedTasks.get();
+    return DigaCryptoWorkerPoolStatistics.builder()
+        .threads(threads)
+        .activeTasks(executor.getActiveCount())
+        .queuedTasks(executor.getQueue().size())
+        .maxQueuedTasks(maxQueuedTasks.get())
+        .completedTasks(completed)
+        .failedTasks(failedTasks.get())
+        .rejectedTasks(rejectedTasks.get())
+        .averageQueueTime(average(totalQueueNanos.get(), completed))
+        .averageServiceTime(average(totalServiceNanos.get(), completed))
+        .maxServiceTime(Duration.ofNanos(maxServiceNanos.get()))
+        .build();
+  }
+
+  /** Stop the worker threads. Tasks already queued are still run. */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  private static Duration average(long totalNanos, long count) {
+    return count == 0 ? Duration.ZERO : Duration.ofNanos(totalNanos / count);
+  }
+}
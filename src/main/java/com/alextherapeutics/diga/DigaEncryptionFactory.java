@@ -20,6 +20,8 @@ package com.alextherapeutics.diga;
 
 import com.alextherapeutics.diga.model.DigaDecryption;
 import com.alextherapeutics.diga.model.DigaEncryption;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
 
 /** A factory for creating new encryption and decryption attempts. */
 public interface DigaEncryptionFactory {
@@ -36,4 +38,33 @@ public interface DigaEncryptionFactory {
    * @return A {@link DigaDecryption.DigaDecryptionBuilder} with some defaults configured.
    */
   DigaDecryption.DigaDecryptionBuilder newDecryption();
+
+  /**
+   * Replace the health insurance company certificates, f.e when a new key list is published,
+   * without creating a new factory. Encryptions and decryptions already created keep using the
+   * previous certificates. Not every factory supports this.
+   *
+   * @param healthInsuranceCertificates - the keystore with the new certificates
+   * @throws GeneralSecurityException if the certificates could not be read
+   * @throws UnsupportedOperationException if the factory does not support replacing certificates
+   */
+  default void reloadHealthInsuranceCertificates(KeyStore healthInsuranceCertificates)
+      throws GeneralSecurityException {
+    prepareHealthInsuranceCertificatesReload(healthInsuranceCertificates).run();
+  }
+
+  /**
+   * Read the new health insurance company certificates without using them yet, f.e to make sure
+   * every component can use them before any of them is switched over.
+   *
+   * @param healthInsuranceCertificates - the keystore with the new certificates
+   * @return An action that replaces the certificates and can not fail
+   * @throws GeneralSecurityException if the certificates could not be read
+   * @throws UnsupportedOperationException if the factory does not support replacing certificates
+   */
+  default Runnable prepareHealthInsuranceCertificatesReload(KeyStore healthInsuranceCertificates)
+      throws GeneralSecurityException {
+    throw new UnsupportedOperationException(
+        getClass().getSimpleName() + " does not support reloading certificates");
+  }
 }
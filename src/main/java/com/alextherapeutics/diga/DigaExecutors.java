@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors for running the blocking methods of the client, f.e as {@link
+ * DigaApiClient.DigaApiClientBuilder#executor(java.util.concurrent.Executor)}.
+ *
+ * <p>The client targets Java 17, so virtual threads (Java 21+) are looked up at runtime.
+ *
+ * <p>Notes on running the client on virtual threads: the client itself does not block inside
+ * synchronized blocks, so virtual threads are not pinned while waiting for the network or for
+ * limits, f.e in {@link com.alextherapeutics.diga.implementation.DigaOkHttpClient} or {@link
+ * com.alextherapeutics.diga.implementation.DigaAdaptiveConcurrencyHttpClient}, which use {@link
+ * java.util.concurrent.locks.ReentrantLock}s and semaphores. Encryption with SECON and XML
+ * reading/writing with JAXB are CPU bound and do not wait inside synchronized blocks either. OkHttp
+ * 4 uses short synchronized sections around its connection pool, which can pin a virtual thread
+ * briefly but do not wait for I/O.
+ */
+public final class DigaExecutors {
+  private DigaExecutors() {}
+
+  /**
+   * Whether the running Java version supports virtual threads.
+   *
+   * @return
+   */
+  public static boolean isVirtualThreadSupported() {
+    return Runtime.version().feature() >= 21;
+  }
+
+  /**
+   * Create an executor which runs each task on a new virtual thread, so that thousands of
+   * concurrent requests can be sent without sizing a thread pool. Requires Java 21 or later.
+   *
+   * @return A new virtual thread per task executor. Shut it down when the client is no longer used.
+   * @throws UnsupportedOperationException if the running Java version does not support virtual
+   *     threads
+   */
+  public static ExecutorService newVirtualThreadPerTaskExecutor() {
+    if (!isVirtualThreadSupported()) {
+      throw new UnsupportedOperationException(
+          "Virtual threads require Java 21 or later, running " + Runtime.version());
+    }
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+      throw new UnsupportedOperationException("Failed to create a virtual thread executor", e);
+    }
+  }
+}
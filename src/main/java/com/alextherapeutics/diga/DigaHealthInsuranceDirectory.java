@@ -19,6 +19,8 @@
 package com.alextherapeutics.diga;
 
 import com.alextherapeutics.diga.model.generatedxml.codevalidation.KrankenkasseninformationCtp;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Contains the information located in the health insurance data mapping file provided by gkv at
@@ -34,4 +36,15 @@ public interface DigaHealthInsuranceDirectory {
    */
   // TODO provide english mapping of this model
   KrankenkasseninformationCtp getInformation(String prefix);
+
+  /**
+   * Get the information of all health insurance companies in the directory, f.e to look up the
+   * certificates of all clearing centers at startup. The collection can not be modified.
+   * Directories which can not list their contents return an empty collection.
+   *
+   * @return
+   */
+  default Collection<KrankenkasseninformationCtp> getAllInformation() {
+    return List.of();
+  }
 }
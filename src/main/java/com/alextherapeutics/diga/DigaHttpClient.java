@@ -20,6 +20,8 @@ package com.alextherapeutics.diga;
 
 import com.alextherapeutics.diga.model.DigaApiHttpRequest;
 import com.alextherapeutics.diga.model.DigaApiHttpResponse;
+import java.io.ByteArrayInputStream;
+import java.security.KeyStore;
 
 /** A HTTP client that handles HTTP(S) communication with DiGA API endpoints. */
 public interface DigaHttpClient {
@@ -32,4 +34,54 @@ public interface DigaHttpClient {
    * @throws DigaHttpClientException if the request failed
    */
   DigaApiHttpResponse post(DigaApiHttpRequest request) throws DigaHttpClientException;
+
+  /**
+   * POST a DigaApiRequest and handle the response while its encrypted body is being received.
+   *
+   * <p>Clients which can stream the response body, like {@link
+   * com.alextherapeutics.diga.implementation.DigaOkHttpClient}, pass it to the handler directly
+   * from the HTTP connection, so the encrypted body is never held in memory. By default the
+   * response is received with {@link #post(DigaApiHttpRequest)} first.
+   *
+   * @param request
+   * @param responseHandler - handles the response, f.e by decrypting and reading its body
+   * @return The result of the response handler
+   * @throws DigaHttpClientException if the request failed
+   * @throws DigaDecryptionException if the response handler failed to decrypt the body
+   * @throws DigaXmlReaderException if the response handler failed to read the decrypted body
+   */
+  default <T> T post(DigaApiHttpRequest request, DigaApiHttpResponseHandler<T> responseHandler)
+      throws DigaHttpClientException, DigaDecryptionException, DigaXmlReaderException {
+    var response = post(request);
+    return responseHandler.handle(response, new ByteArrayInputStream(response.getEncryptedBody()));
+  }
+
+  /**
+   * Replace the trusted health insurance company certificates, f.e when a new key list is
+   * published, without creating a new client. Requests already being sent are not affected and open
+   * connections are kept. Not every client supports this.
+   *
+   * @param healthInsuranceCertificates - the keystore with the new certificates
+   * @throws DigaHttpClientException if the certificates could not be used
+   * @throws UnsupportedOperationException if the client does not support replacing certificates
+   */
+  default void reloadHealthInsuranceCertificates(KeyStore healthInsuranceCertificates)
+      throws DigaHttpClientException {
+    prepareHealthInsuranceCertificatesReload(healthInsuranceCertificates).run();
+  }
+
+  /**
+   * Build the trust material of the new health insurance company certificates without using it yet,
+   * f.e to make sure every component can use the certificates before any of them is switched over.
+   *
+   * @param healthInsuranceCertificates - the keystore with the new certificates
+   * @return An action that replaces the trusted certificates and can not fail
+   * @throws DigaHttpClientException if the certificates could not be used
+   * @throws UnsupportedOperationException if the client does not support replacing certificates
+   */
+  default Runnable prepareHealthInsuranceCertificatesReload(KeyStore healthInsuranceCertificates)
+      throws DigaHttpClientException {
+    throw new UnsupportedOperationException(
+        getClass().getSimpleName() + " does not support reloading certificates");
+  }
 }
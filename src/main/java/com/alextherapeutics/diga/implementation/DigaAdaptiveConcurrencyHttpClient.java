@@ -0,0 +1,262 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.DigaApiHttpResponseHandler;
+import com.alextherapeutics.diga.DigaDecryptionException;
+import com.alextherapeutics.diga.DigaHttpClient;
+import com.alextherapeutics.diga.DigaHttpClientException;
+import com.alextherapeutics.diga.DigaXmlReaderException;
+import com.alextherapeutics.diga.model.DigaAdaptiveLimitStatistics;
+import com.alextherapeutics.diga.model.DigaApiHttpRequest;
+import com.alextherapeutics.diga.model.DigaApiHttpResponse;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.HttpUrl;
+
+/**
+ * A HTTP client which limits the number of concurrent requests to each DiGA API endpoint (host) and
+ * adapts the limit to how the endpoint behaves, before passing the requests on to another {@link
+ * DigaHttpClient}.
+ *
+ * <p>The limit is adjusted using AIMD (additive increase, multiplicative decrease): when a request
+ * succeeds while the limit is in use, the limit grows by one for every "limit" such requests. When
+ * a request fails, or takes longer than the lowest recent latency of the endpoint times the latency
+ * tolerance, the limit is multiplied by the backoff ratio. The lowest recent latency is the lowest
+ * latency of the current and the previous window of {@link #latencyWindow} successful requests, so
+ * a single unusually fast response does not make all later requests count as slow. This way the
+ * limit of fast endpoints grows until they start to slow down, while fragile endpoints are quickly
+ * given fewer requests.
+ *
+ * <p>F.e:
+ *
+ * <pre>
+ * DigaApiClient.builder()
+ *     .httpClient(DigaAdaptiveConcurrencyHttpClient.builder().httpClient(okHttpClient).build())
+ *     ...
+ * </pre>
+ */
+@Slf4j
+@Builder
+public class DigaAdaptiveConcurrencyHttpClient implements DigaHttpClient {
+  /** The client that sends the requests. */
+  @NonNull private final DigaHttpClient httpClient;
+
+  /** The limit each endpoint starts with. Defaults to 4. */
+  @Builder.Default private final int initialLimit = 4;
+
+  /** The lowest limit of an endpoint. Defaults to 1. */
+  @Builder.Default private final int minLimit = 1;
+
+  /** The highest limit of an endpoint. Defaults to 64. */
+  @Builder.Default private final int maxLimit = 64;
+
+  /** The factor the limit is multiplied with when a request fails or is slow. Defaults to 0.9. */
+  @Builder.Default private final double backoffRatio = 0.9;
+
+  /**
+   * How many times slower than the lowest latency of an endpoint a request can be before it counts
+   * as slow. Defaults to 3.
+   */
+  @Builder.Default private final double latencyTolerance = 3;
+
+  /**
+   * The number of successful requests after which the lowest latency of an endpoint is measured
+   * anew. Defaults to 100.
+   */
+  @Builder.Default private final int latencyWindow = 100;
+
+  /**
+   * The maximum time a request waits for the limit of its endpoint before it is rejected. Defaults
+   * to 2 minutes.
+   */
+  @Builder.Default private final Duration maxWaitTime = Duration.ofMinutes(2);
+
+  private final Map<String, EndpointLimit> limits = new ConcurrentHashMap<>();
+
+  @Override
+  public DigaApiHttpResponse post(DigaApiHttpRequest request) throws DigaHttpClientException {
+    var limit = limitFor(request.getUrl());
+    var inFlight = limit.acquire();
+    var start = System.nanoTime();
+    var successful = false;
+    try {
+      var response = httpClient.post(request);
+      successful = true;
+      return response;
+    } finally {
+      limit.release(inFlight, successful, System.nanoTime() - start);
+    }
+  }
+
+  // only the http exchange is timed, up to when the response is handed to the handler, and only
+  // http failures count against the endpoint. decrypting and reading the response is local work
+  @Override
+  public <T> T post(DigaApiHttpRequest request, DigaApiHttpResponseHandler<T> responseHandler)
+      throws DigaHttpClientException, DigaDecryptionException, DigaXmlReaderException {
+    var limit = limitFor(request.getUrl());
+    var inFlight = limit.acquire();
+    var start = System.nanoTime();
+    var responded = new AtomicLong();
+    var successful = true;
+    try {
+      return httpClient.post(
+          request,
+          (response, encryptedBody) -> {
+            responded.set(System.nanoTime());
+            return responseHandler.handle(response, encryptedBody);
+          });
+    } catch (DigaHttpClientException e) {
+      successful = false;
+      throw e;
+    } finally {
+      var end = responded.get() == 0 ? System.nanoTime() : responded.get();
+      limit.release(inFlight, successful, end - start);
+    }
+  }
+
+  @Override
+  public Runnable prepareHealthInsuranceCertificatesReload(KeyStore healthInsuranceCertificates)
+      throws DigaHttpClientException {
+    return httpClient.prepareHealthInsuranceCertificatesReload(healthInsuranceCertificates);
+  }
+
+  /**
+   * Get the current limit of each endpoint a request has been sent to.
+   *
+   * @return The statistics of each endpoint, by host
+   */
+  public Map<String, DigaAdaptiveLimitStatistics> getLimitStatistics() {
+    var statistics = new TreeMap<String, DigaAdaptiveLimitStatistics>();
+    limits.forEach((host, limit) -> statistics.put(host, limit.statistics()));
+    return statistics;
+  }
+
+  private EndpointLimit limitFor(String url) {
+    var httpUrl = HttpUrl.parse(url);
+    var host = httpUrl == null ? url : httpUrl.host();
+    return limits.computeIfAbsent(host, EndpointLimit::new);
+  }
+
+  private final class EndpointLimit {
+    private final String host;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition belowLimit = lock.newCondition();
+    private double limit = Math.min(maxLimit, Math.max(minLimit, initialLimit));
+    private int inFlight;
+    private long windowMinLatencyNanos = Long.MAX_VALUE;
+    private long previousWindowMinLatencyNanos = Long.MAX_VALUE;
+    private int windowRequests;
+    private long successful;
+    private long failed;
+    private long rejected;
+
+    private EndpointLimit(String host) {
+      this.host = host;
+    }
+
+    // returns the number of requests in flight including this one
+    private int acquire() throws DigaHttpClientException {
+      lock.lock();
+      try {
+        var remaining = maxWaitTime.toNanos();
+        while (inFlight >= (int) limit) {
+          if (remaining <= 0) {
+            rejected++;
+            log.warn("Rejected request to DiGA API endpoint {} at limit {}", host, (int) limit);
+            throw new DigaHttpClientException(
+                new Exception(
+                    String.format(
+                        "Request to %s waited too long for the concurrency limit %d",
+                        host, (int) limit)));
+          }
+          remaining = belowLimit.awaitNanos(remaining);
+        }
+        return ++inFlight;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DigaHttpClientException(e);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void release(int inFlightAtStart, boolean wasSuccessful, long latencyNanos) {
+      lock.lock();
+      try {
+        inFlight--;
+        if (wasSuccessful) {
+          successful++;
+          windowMinLatencyNanos = Math.min(windowMinLatencyNanos, latencyNanos);
+          if (++windowRequests >= latencyWindow) {
+            previousWindowMinLatencyNanos = windowMinLatencyNanos;
+            windowMinLatencyNanos = Long.MAX_VALUE;
+            windowRequests = 0;
+          }
+        } else {
+          failed++;
+        }
+        var previousLimit = (int) limit;
+        if (!wasSuccessful || latencyNanos > minLatencyNanos() * latencyTolerance) {
+          limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (inFlightAtStart * 2 >= limit) {
+          // only grow the limit when it is actually used
+          limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        if ((int) limit != previousLimit) {
+          log.debug("Concurrency limit of DiGA API endpoint {} is now {}", host, (int) limit);
+        }
+        belowLimit.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private long minLatencyNanos() {
+      return Math.min(windowMinLatencyNanos, previousWindowMinLatencyNanos);
+    }
+
+    private DigaAdaptiveLimitStatistics statistics() {
+      lock.lock();
+      try {
+        return DigaAdaptiveLimitStatistics.builder()
+            .host(host)
+            .limit((int) limit)
+            .inFlightRequests(inFlight)
+            .minLatency(
+                minLatencyNanos() == Long.MAX_VALUE ? null : Duration.ofNanos(minLatencyNanos()))
+            .successfulRequests(successful)
+            .failedRequests(failed)
+            .rejectedRequests(rejected)
+            .build();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
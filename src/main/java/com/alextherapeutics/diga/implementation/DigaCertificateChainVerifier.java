@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import de.tk.opensource.secon.CertificateVerificationException;
+import de.tk.opensource.secon.Directory;
+import de.tk.opensource.secon.Verifier;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.Builder;
+import lombok.NonNull;
+
+/**
+ * A SECON {@link Verifier} which checks the certificate chain of the signer of a response, f.e an
+ * insurance company's data acceptance office, and remembers which chains were valid.
+ *
+ * <p>The chain is built by looking up the issuer of each certificate in the directory, until a self
+ * signed certificate is reached. Each certificate has to be signed by its issuer, the issuers have
+ * to be certificate authorities and all of them have to be valid at the time of verification. The
+ * directory only returns an issuer whose key verifies the signature of the certificate, like
+ * SECON's directories and {@link DigaIndexedCertificateDirectory} do, so the signatures are not
+ * checked again here.
+ *
+ * <p>Building and checking the chain means a signature check per certificate, which would be done
+ * for each response. Instead the result is cached by signer certificate, together with the time
+ * range in which the whole chain is valid, so verifying a known signer only compares two
+ * timestamps. Only valid chains are cached, the least recently used ones are evicted when the cache
+ * is full.
+ */
+public class DigaCertificateChainVerifier implements Verifier {
+  private static final int MAX_CHAIN_LENGTH = 8;
+
+  private final Directory directory;
+  private final int maxCacheSize;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final LinkedHashMap<X509Certificate, ValidChain> validChains;
+  private long hits;
+  private long misses;
+
+  /**
+   * @param directory - where the issuers of the signer certificates are looked up, f.e a {@link
+   *     DigaIndexedCertificateDirectory} of the health insurance company certificates. Its {@link
+   *     Directory#issuer(X509Certificate)} must only return a certificate which signed the given
+   *     one.
+   * @param maxCacheSize - optional. The maximum number of signer certificates whose valid chains
+   *     are cached. Defaults to 1024.
+   */
+  @Builder
+  public DigaCertificateChainVerifier(@NonNull Directory directory, Integer maxCacheSize) {
+    this.directory = directory;
+    this.maxCacheSize = maxCacheSize == null ? 1024 : maxCacheSize;
+    this.validChains =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<X509Certificate, ValidChain> eldest) {
+            return size() > DigaCertificateChainVerifier.this.maxCacheSize;
+          }
+        };
+  }
+
+  @Override
+  public void verify(X509Certificate certificate) throws Exception {
+    var now = System.currentTimeMillis();
+    lock.lock();
+    try {
+      var cached = validChains.get(certificate);
+      if (cached != null && cached.isValidAt(now)) {
+        hits++;
+        return;
+      }
+      misses++;
+    } finally {
+      lock.unlock();
+    }
+    var validChain = validateChain(certificate, now);
+    lock.lock();
+    try {
+      validChains.put(certificate, validChain);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The number of verifications answered from the cache so far.
+   *
+   * @return
+   */
+  public long getCacheHits() {
+    lock.lock();
+    try {
+      return hits;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The number of verifications which had to validate the certificate chain so far.
+   *
+   * @return
+   */
+  public long getCacheMisses() {
+    lock.lock();
+    try {
+      return misses;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private ValidChain validateChain(X509Certificate certificate, long now) throws Exception {
+    var chain = new ArrayList<X509Certificate>();
+    var current = certificate;
+    while (true) {
+      chain.add(current);
+      var issuer = directory.issuer(current);
+      if (issuer.isEmpty()) {
+        throw new CertificateVerificationException(
+            String.format(
+                "Issuer: %s not found for certificate: %s",
+                current.getIssuerX500Principal().getName(),
+                current.getSubjectX500Principal().getName()));
+      }
+      if (issuer.get().equals(current)) {
+        return validAt(chain, now);
+      }
+      if (issuer.get().getBasicConstraints() < 0) {
+        throw new CertificateVerificationException(
+            String.format(
+                "Issuer: %s of certificate: %s is not a certificate authority",
+                issuer.get().getSubjectX500Principal().getName(),
+                current.getSubjectX500Principal().getName()));
+      }
+      if (chain.size() == MAX_CHAIN_LENGTH) {
+        throw new CertificateVerificationException(
+            "Certificate chain is longer than "
+                + MAX_CHAIN_LENGTH
+                + " for certificate: "
+                + certificate.getSubjectX500Principal().getName());
+      }
+      current = issuer.get();
+    }
+  }
+
+  private static ValidChain validAt(List<X509Certificate> chain, long now)
+      throws CertificateVerificationException {
+    var notBefore = Long.MIN_VALUE;
+    var notAfter = Long.MAX_VALUE;
+    for (var certificate : chain) {
+      notBefore = Math.max(notBefore, certificate.getNotBefore().getTime());
+      notAfter = Math.min(notAfter, certificate.getNotAfter().getTime());
+    }
+    var validChain = new ValidChain(notBefore, notAfter);
+    if (!validChain.isValidAt(now)) {
+      var reason =
+          now < notBefore
+              ? new CertificateNotYetValidException()
+              : new CertificateExpiredException();
+      throw new CertificateVerificationException(
+          "A certificate in the chain of certificate: "
+              + chain.get(0).getSubjectX500Principal().getName()
+              + " is not valid now",
+          reason);
+    }
+    return validChain;
+  }
+
+  // the time range in which all certificates of a chain are valid, in milliseconds since the epoch
+  private static final class ValidChain {
+    private final long notBefore;
+    private final long notAfter;
+
+    private ValidChain(long notBefore, long notAfter) {
+      this.notBefore = notBefore;
+      this.notAfter = notAfter;
+    }
+
+    private boolean isValidAt(long time) {
+      return time >= notBefore && time <= notAfter;
+    }
+  }
+}
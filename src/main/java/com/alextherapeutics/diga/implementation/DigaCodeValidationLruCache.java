@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.DigaCodeValidationCache;
+import com.alextherapeutics.diga.model.DigaCodeValidationCacheStatistics;
+import com.alextherapeutics.diga.model.DigaCodeValidationResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.Builder;
+
+/**
+ * A code validation cache which keeps responses for a limited time and evicts the least recently
+ * used responses when it is full.
+ */
+public class DigaCodeValidationLruCache implements DigaCodeValidationCache {
+  private final int maxSize;
+  private final long timeToLiveNanos;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final LinkedHashMap<String, CachedResponse> responses;
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long expirations;
+
+  /**
+   * @param maxSize - optional. The maximum number of responses in the cache. Defaults to 10000.
+   * @param timeToLive - optional. How long a response is kept in the cache. Defaults to 15 minutes.
+   */
+  @Builder
+  public DigaCodeValidationLruCache(Integer maxSize, Duration timeToLive) {
+    this.maxSize = maxSize == null ? 10_000 : maxSize;
+    this.timeToLiveNanos = (timeToLive == null ? Duration.ofMinutes(15) : timeToLive).toNanos();
+    this.responses =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+            if (size() > DigaCodeValidationLruCache.this.maxSize) {
+              evictions++;
+              return true;
+            }
+            return false;
+          }
+        };
+  }
+
+  @Override
+  public DigaCodeValidationResponse get(String digaCode) {
+    lock.lock();
+    try {
+      var cached = responses.get(digaCode);
+      if (cached == null) {
+        misses++;
+        return null;
+      }
+      if (System.nanoTime() - cached.cachedAt > timeToLiveNanos) {
+        responses.remove(digaCode);
+        expirations++;
+        misses++;
+        return null;
+      }
+      hits++;
+      return cached.response;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void put(String digaCode, DigaCodeValidationResponse response) {
+    lock.lock();
+    try {
+      responses.put(digaCode, new CachedResponse(response, System.nanoTime()));
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public DigaCodeValidationCacheStatistics getStatistics() {
+    lock.lock();
+    try {
+      return DigaCodeValidationCacheStatistics.builder()
+          .size(responses.size())
+          .maxSize(maxSize)
+          .hits(hits)
+          .misses(misses)
+          .evictions(evictions)
+          .expirations(expirations)
+          .build();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static final class CachedResponse {
+    private final DigaCodeValidationResponse response;
+    private final long cachedAt;
+
+    private CachedResponse(DigaCodeValidationResponse response, long cachedAt) {
+      this.response = response;
+      this.cachedAt = cachedAt;
+    }
+  }
+}
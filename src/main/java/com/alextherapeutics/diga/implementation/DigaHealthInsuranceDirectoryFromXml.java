@@ -25,6 +25,8 @@ import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Unmarshaller;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -36,6 +38,7 @@ public class DigaHealthInsuranceDirectoryFromXml implements DigaHealthInsuranceD
   private final JAXBContext context;
   private final Unmarshaller unmarshaller;
   private final Map<String, KrankenkasseninformationCtp> prefixToInformationMap;
+  private final List<KrankenkasseninformationCtp> allInformation;
 
   private DigaHealthInsuranceDirectoryFromXml(InputStream xmlMappingFileContent)
       throws JAXBException {
@@ -47,6 +50,7 @@ public class DigaHealthInsuranceDirectoryFromXml implements DigaHealthInsuranceD
             .collect(
                 Collectors.toUnmodifiableMap(
                     KrankenkasseninformationCtp::getKostentraegerkuerzel, info -> info));
+    allInformation = List.copyOf(prefixToInformationMap.values());
   }
 
   public static DigaHealthInsuranceDirectoryFromXml getInstance(InputStream xmlMappingFileContent)
@@ -58,4 +62,9 @@ public class DigaHealthInsuranceDirectoryFromXml implements DigaHealthInsuranceD
   public KrankenkasseninformationCtp getInformation(String prefix) {
     return prefixToInformationMap.get(prefix);
   }
+
+  @Override
+  public Collection<KrankenkasseninformationCtp> getAllInformation() {
+    return allInformation;
+  }
 }
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.DigaUtils;
+import de.tk.opensource.secon.Directory;
+import java.math.BigInteger;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * A SECON {@link Directory} which reads all certificates of a keystore once, f.e the health
+ * insurance company certificates, and indexes them by IK, by subject, by issuer and serial number
+ * and by subject key identifier.
+ *
+ * <p>The keystore directory provided by SECON decodes certificates from the keystore on each lookup
+ * and scans all of them to find a certificate by subject or issuer. With a key list of all clearing
+ * centers this happens for each encrypted request and each verified response. This directory does
+ * it once when it is created and can not be changed afterwards. The signer of a response is looked
+ * up by issuer and serial number or by subject key identifier, which are both answered from an
+ * index.
+ *
+ * <p>Certificates are looked up by their alias with or without the IK prefix, ignoring case, so
+ * "IK123456789", "ik123456789" and "123456789" find the same certificate.
+ */
+public final class DigaIndexedCertificateDirectory implements Directory {
+  private static final String SUBJECT_KEY_IDENTIFIER_OID = "2.5.29.14";
+  private static final byte OCTET_STRING_TAG = 0x04;
+
+  private final Map<String, X509Certificate> certificatesByIk;
+  private final Map<X500Principal, List<X509Certificate>> certificatesBySubject;
+  private final Map<String, List<X509Certificate>> certificatesByIssuerAndSerialNumber;
+  private final Map<String, List<X509Certificate>> certificatesBySubjectKeyIdentifier;
+  private final List<X509Certificate> certificates;
+  private final AtomicLong lookupMisses = new AtomicLong();
+  private final Set<String> missedIks = ConcurrentHashMap.newKeySet();
+
+  private DigaIndexedCertificateDirectory(
+      Map<String, X509Certificate> certificatesByIk,
+      Map<X500Principal, List<X509Certificate>> certificatesBySubject,
+      Map<String, List<X509Certificate>> certificatesByIssuerAndSerialNumber,
+      Map<String, List<X509Certificate>> certificatesBySubjectKeyIdentifier,
+      List<X509Certificate> certificates) {
+    this.certificatesByIk = certificatesByIk;
+    this.certificatesBySubject = certificatesBySubject;
+    this.certificatesByIssuerAndSerialNumber = certificatesByIssuerAndSerialNumber;
+    this.certificatesBySubjectKeyIdentifier = certificatesBySubjectKeyIdentifier;
+    this.certificates = certificates;
+  }
+
+  /**
+   * Read and index all certificates of a keystore.
+   *
+   * @param keyStore - f.e the keystore with the health insurance company certificates
+   * @return
+   * @throws KeyStoreException if the keystore could not be read
+   */
+  public static DigaIndexedCertificateDirectory fromKeyStore(KeyStore keyStore)
+      throws KeyStoreException {
+    var certificatesByIk = new HashMap<String, X509Certificate>();
+    var certificatesBySubject = new HashMap<X500Principal, List<X509Certificate>>();
+    var certificatesByIssuerAndSerialNumber = new HashMap<String, List<X509Certificate>>();
+    var certificatesBySubjectKeyIdentifier = new HashMap<String, List<X509Certificate>>();
+    var certificates = new ArrayList<X509Certificate>();
+    for (var alias : Collections.list(keyStore.aliases())) {
+      if (keyStore.getCertificate(alias) instanceof X509Certificate certificate) {
+        certificatesByIk.putIfAbsent(ikOf(alias), certificate);
+        certificatesBySubject
+            .computeIfAbsent(certificate.getSubjectX500Principal(), subject -> new ArrayList<>())
+            .add(certificate);
+        certificatesByIssuerAndSerialNumber
+            .computeIfAbsent(
+                issuerAndSerialNumberOf(
+                    certificate.getIssuerX500Principal(), certificate.getSerialNumber()),
+                key -> new ArrayList<>())
+            .add(certificate);
+        var subjectKeyIdentifier =
+            keyIdentifierOf(certificate.getExtensionValue(SUBJECT_KEY_IDENTIFIER_OID));
+        if (subjectKeyIdentifier != null) {
+          certificatesBySubjectKeyIdentifier
+              .computeIfAbsent(subjectKeyIdentifier, key -> new ArrayList<>())
+              .add(certificate);
+        }
+        certificates.add(certificate);
+      }
+    }
+    return new DigaIndexedCertificateDirectory(
+        Map.copyOf(certificatesByIk),
+        immutableCopyOf(certificatesBySubject),
+        immutableCopyOf(certificatesByIssuerAndSerialNumber),
+        immutableCopyOf(certificatesBySubjectKeyIdentifier),
+        List.copyOf(certificates));
+  }
+
+  @Override
+  public Optional<X509Certificate> certificate(String identifier) {
+    var ik = ikOf(identifier);
+    var certificate = certificatesByIk.get(ik);
+    if (certificate == null) {
+      lookupMisses.incrementAndGet();
+      missedIks.add(ik);
+    }
+    return Optional.ofNullable(certificate);
+  }
+
+  @Override
+  public Optional<X509Certificate> certificate(X509CertSelector selector) {
+    var remainingCriteria = selector;
+    List<X509Certificate> candidates;
+    if (selector.getIssuer() != null && selector.getSerialNumber() != null) {
+      candidates =
+          certificatesByIssuerAndSerialNumber.getOrDefault(
+              issuerAndSerialNumberOf(selector.getIssuer(), selector.getSerialNumber()), List.of());
+    } else if (selector.getSubjectKeyIdentifier() != null) {
+      candidates = certificatesBySubjectKeyIdentifier(selector.getSubjectKeyIdentifier());
+      // the index already matched the key identifier, which the selector itself would only match
+      // if it is der encoded
+      remainingCriteria = (X509CertSelector) selector.clone();
+      remainingCriteria.setSubjectKeyIdentifier(null);
+    } else if (selector.getSubject() != null) {
+      candidates = certificatesBySubject.getOrDefault(selector.getSubject(), List.of());
+    } else {
+      candidates = certificates;
+    }
+    return candidates.stream().filter(remainingCriteria::match).findFirst();
+  }
+
+  @Override
+  public Optional<X509Certificate> issuer(X509Certificate certificate) {
+    return certificatesBySubject
+        .getOrDefault(certificate.getIssuerX500Principal(), List.of())
+        .stream()
+        .filter(candidate -> isSignedBy(certificate, candidate))
+        .findFirst();
+  }
+
+  /**
+   * Whether there is a certificate for an IK, without counting a miss if there is none.
+   *
+   * @param ik - with or without the IK prefix
+   * @return
+   */
+  public boolean contains(String ik) {
+    return certificatesByIk.containsKey(ikOf(ik));
+  }
+
+  /**
+   * The number of certificates in this directory.
+   *
+   * @return
+   */
+  public int size() {
+    return certificates.size();
+  }
+
+  /**
+   * The number of lookups by IK which did not find a certificate so far.
+   *
+   * @return
+   */
+  public long getLookupMisses() {
+    return lookupMisses.get();
+  }
+
+  /**
+   * The IKs (without prefix) which were looked up without finding a certificate so far.
+   *
+   * @return
+   */
+  public Set<String> getMissedIks() {
+    return Collections.unmodifiableSet(new TreeSet<>(missedIks));
+  }
+
+  private static String ikOf(String alias) {
+    return DigaUtils.ikNumberWithoutPrefix(alias.trim().toUpperCase(Locale.ROOT));
+  }
+
+  private static String issuerAndSerialNumberOf(X500Principal issuer, BigInteger serialNumber) {
+    return issuer.getName(X500Principal.CANONICAL) + "#" + serialNumber.toString(16);
+  }
+
+  // the key identifier of a certificate, as hex. the extension value is an octet string containing
+  // the der encoded octet string of the key identifier
+  private static String keyIdentifierOf(byte[] extensionValue) {
+    if (extensionValue == null) {
+      return null;
+    }
+    var keyIdentifier = unwrapOctetString(unwrapOctetString(extensionValue));
+    return keyIdentifier == null ? null : HexFormat.of().formatHex(keyIdentifier);
+  }
+
+  // selectors should have the der encoded key identifier, but secon passes it without encoding
+  private List<X509Certificate> certificatesBySubjectKeyIdentifier(byte[] subjectKeyIdentifier) {
+    var unwrapped = unwrapOctetString(subjectKeyIdentifier);
+    if (unwrapped != null) {
+      var candidates = certificatesBySubjectKeyIdentifier.get(HexFormat.of().formatHex(unwrapped));
+      if (candidates != null) {
+        return candidates;
+      }
+    }
+    return certificatesBySubjectKeyIdentifier.getOrDefault(
+        HexFormat.of().formatHex(subjectKeyIdentifier), List.of());
+  }
+
+  private static byte[] unwrapOctetString(byte[] value) {
+    if (value == null
+        || value.length < 2
+        || value[0] != OCTET_STRING_TAG
+        || value[1] != value.length - 2) {
+      return null;
+    }
+    return Arrays.copyOfRange(value, 2, value.length);
+  }
+
+  private static <K> Map<K, List<X509Certificate>> immutableCopyOf(
+      Map<K, List<X509Certificate>> certificates) {
+    var copy = new HashMap<K, List<X509Certificate>>();
+    certificates.forEach((key, values) -> copy.put(key, List.copyOf(values)));
+    return Map.copyOf(copy);
+  }
+
+  private static boolean isSignedBy(X509Certificate certificate, X509Certificate candidate) {
+    try {
+      certificate.verify(candidate.getPublicKey());
+      return true;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+}
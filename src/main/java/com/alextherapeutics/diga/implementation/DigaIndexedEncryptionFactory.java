@@ -0,0 +1,244 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.DigaCryptoWorkerPool;
+import com.alextherapeutics.diga.DigaEncryptionFactory;
+import com.alextherapeutics.diga.DigaHealthInsuranceDirectory;
+import com.alextherapeutics.diga.model.DigaCertificateCoverageReport;
+import com.alextherapeutics.diga.model.DigaDecryption;
+import com.alextherapeutics.diga.model.DigaEncryption;
+import com.alextherapeutics.diga.model.DigaKeyMaterial;
+import com.alextherapeutics.diga.model.DigaSecurityProviders;
+import com.alextherapeutics.diga.model.generatedxml.codevalidation.KrankenkasseninformationCtp;
+import de.tk.opensource.secon.*;
+import java.io.ByteArrayInputStream;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A {@link DigaEncryptionFactory} implemented using the {@link SECON} library, which reads the
+ * health insurance company certificates once into a {@link DigaIndexedCertificateDirectory} instead
+ * of looking them up in the keystore for each encryption.
+ *
+ * <p>If a health insurance directory is given, the certificate of each clearing center in it is
+ * looked up when the factory is created, so a key list which does not cover all clearing centers is
+ * noticed at startup instead of when the first request fails. See {@link #getCoverageReport()}.
+ *
+ * <p>If response signatures are verified, the certificate chain of each response signer is checked
+ * with a {@link DigaCertificateChainVerifier} over the indexed certificates.
+ */
+@Slf4j
+public class DigaIndexedEncryptionFactory implements DigaEncryptionFactory {
+  private final Identity identity;
+  private final DigaCryptoWorkerPool cryptoWorkerPool;
+  private final DigaSecurityProviders securityProviders;
+  private final DigaHealthInsuranceDirectory healthInsuranceDirectory;
+  private final boolean verifyResponseSignatures;
+
+  // replaced as a whole when the certificates are reloaded
+  private volatile Certificates certificates;
+
+  /**
+   * @param privateKeyBytes - the contents of the keystore (PKCS12) with your private key
+   * @param privateKeyAlias - the alias of your private key
+   * @param privateKeyPassword - the password of the keystore with your private key
+   * @param publicKeysBytes - the contents of the keystore (PKCS12) with the insurance company
+   *     certificates
+   * @param publicKeyDirectoryPassword - the password of the keystore with the insurance company
+   *     certificates
+   * @param keyMaterial - already loaded keystores, f.e shared with the HTTP client. If set, the
+   *     keystore contents and passwords are not used.
+   * @param cryptoWorkerPool - optional. Run encryption and decryption on this pool instead of the
+   *     calling thread.
+   * @param securityProviders - optional. The JCA providers for signing, key transport and content
+   *     encryption, see {@link DigaJcaSubscriber}. Defaults to BouncyCastle for all of them.
+   * @param healthInsuranceDirectory - optional. The clearing centers to look up certificates for at
+   *     startup.
+   * @param verifyResponseSignatures - optional. Whether decryptions fail if the signer certificate
+   *     of a response is not found or its certificate chain is not valid. Defaults to false.
+   * @throws SeconException if a keystore could not be read
+   */
+  @Builder
+  public DigaIndexedEncryptionFactory(
+      byte[] privateKeyBytes,
+      @NonNull String privateKeyAlias,
+      String privateKeyPassword,
+      byte[] publicKeysBytes,
+      String publicKeyDirectoryPassword,
+      DigaKeyMaterial keyMaterial,
+      DigaCryptoWorkerPool cryptoWorkerPool,
+      DigaSecurityProviders securityProviders,
+      DigaHealthInsuranceDirectory healthInsuranceDirectory,
+      boolean verifyResponseSignatures)
+      throws SeconException {
+    if (keyMaterial == null) {
+      Objects.requireNonNull(privateKeyBytes, "privateKeyBytes is required without keyMaterial");
+      Objects.requireNonNull(
+          privateKeyPassword, "privateKeyPassword is required without keyMaterial");
+      Objects.requireNonNull(publicKeysBytes, "publicKeysBytes is required without keyMaterial");
+      Objects.requireNonNull(
+          publicKeyDirectoryPassword, "publicKeyDirectoryPassword is required without keyMaterial");
+    }
+    this.identity =
+        keyMaterial != null
+            ? keyMaterial.identity(privateKeyAlias)
+            : SECON.identity(
+                SECON.keyStore(
+                    () -> new ByteArrayInputStream(privateKeyBytes),
+                    privateKeyPassword::toCharArray),
+                privateKeyAlias,
+                privateKeyPassword::toCharArray);
+    this.cryptoWorkerPool = cryptoWorkerPool;
+    this.securityProviders = securityProviders;
+    this.healthInsuranceDirectory = healthInsuranceDirectory;
+    this.verifyResponseSignatures = verifyResponseSignatures;
+    try {
+      this.certificates =
+          indexCertificates(
+              keyMaterial != null
+                  ? keyMaterial.getHealthInsuranceCertificates()
+                  : SECON.keyStore(
+                      () -> new ByteArrayInputStream(publicKeysBytes),
+                      publicKeyDirectoryPassword::toCharArray));
+    } catch (KeyStoreException e) {
+      throw new SeconException("Failed to read the health insurance company certificates", e);
+    }
+  }
+
+  @Override
+  public DigaEncryption.DigaEncryptionBuilder newEncryption() {
+    return DigaEncryption.builder()
+        .subscriber(certificates.subscriber)
+        .cryptoWorkerPool(cryptoWorkerPool);
+  }
+
+  @Override
+  public DigaDecryption.DigaDecryptionBuilder newDecryption() {
+    var current = certificates;
+    return DigaDecryption.builder()
+        .subscriber(current.subscriber)
+        .verifier(current.verifier)
+        .cryptoWorkerPool(cryptoWorkerPool);
+  }
+
+  /**
+   * Which clearing centers have a certificate, and which certificates were looked up without being
+   * found since the factory was created or the certificates were last reloaded.
+   *
+   * @return
+   */
+  public DigaCertificateCoverageReport getCoverageReport() {
+    var current = certificates;
+    return DigaCertificateCoverageReport.builder()
+        .certificates(current.directory.size())
+        .coveredClearingCenters(current.coveredClearingCenters)
+        .missingClearingCenters(current.missingClearingCenters)
+        .lookupMisses(current.directory.getLookupMisses())
+        .missedIks(current.directory.getMissedIks())
+        .build();
+  }
+
+  /**
+   * Index the new certificates and check their coverage of the clearing centers again. Encryptions
+   * and decryptions already created keep using the previous certificates.
+   *
+   * @param healthInsuranceCertificates - the new certificates
+   * @return
+   * @throws KeyStoreException if the certificates could not be read or the keystore is empty
+   */
+  @Override
+  public Runnable prepareHealthInsuranceCertificatesReload(KeyStore healthInsuranceCertificates)
+      throws KeyStoreException {
+    // an empty keystore would make every encryption fail, so keep the previous certificates
+    if (healthInsuranceCertificates.size() == 0) {
+      throw new KeyStoreException("The health insurance certificates keystore is empty");
+    }
+    var updated = indexCertificates(healthInsuranceCertificates);
+    return () -> {
+      certificates = updated;
+      log.info(
+          "Reloaded the health insurance company key list with {} certificates",
+          updated.directory.size());
+    };
+  }
+
+  private Certificates indexCertificates(KeyStore keyStore) throws KeyStoreException {
+    var directory = DigaIndexedCertificateDirectory.fromKeyStore(keyStore);
+    var subscriber =
+        securityProviders != null
+            ? new DigaJcaSubscriber(identity, directory, securityProviders)
+            : SECON.subscriber(identity, directory);
+
+    var covered = new TreeSet<String>();
+    var missing = new TreeSet<String>();
+    if (healthInsuranceDirectory != null) {
+      healthInsuranceDirectory.getAllInformation().stream()
+          .map(KrankenkasseninformationCtp::getIKAbrechnungsstelle)
+          .filter(Objects::nonNull)
+          .forEach(ik -> (directory.contains(ik) ? covered : missing).add(ik));
+    }
+    if (!missing.isEmpty()) {
+      log.warn(
+          "The health insurance company key list has no certificate for {} of {} clearing centers: {}",
+          missing.size(),
+          covered.size() + missing.size(),
+          missing);
+    }
+    // the verifier caches the chains of this directory, so it is replaced together with it
+    var verifier =
+        verifyResponseSignatures
+            ? DigaCertificateChainVerifier.builder().directory(directory).build()
+            : null;
+    return new Certificates(
+        directory,
+        subscriber,
+        verifier,
+        Collections.unmodifiableSet(covered),
+        Collections.unmodifiableSet(missing));
+  }
+
+  private static final class Certificates {
+    private final DigaIndexedCertificateDirectory directory;
+    private final Subscriber subscriber;
+    private final DigaCertificateChainVerifier verifier;
+    private final Set<String> coveredClearingCenters;
+    private final Set<String> missingClearingCenters;
+
+    private Certificates(
+        DigaIndexedCertificateDirectory directory,
+        Subscriber subscriber,
+        DigaCertificateChainVerifier verifier,
+        Set<String> coveredClearingCenters,
+        Set<String> missingClearingCenters) {
+      this.directory = directory;
+      this.subscriber = subscriber;
+      this.verifier = verifier;
+      this.coveredClearingCenters = coveredClearingCenters;
+      this.missingClearingCenters = missingClearingCenters;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.model.DigaJaxbPoolStatistics;
+import jakarta.xml.bind.JAXBException;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of JAXB marshallers or unmarshallers of one JAXB context, f.e {@link
+ * jakarta.xml.bind.Marshaller}.
+ *
+ * <p>Marshallers and unmarshallers are not thread-safe, but creating one for each request is slow.
+ * The pool creates them when they are first needed, up to its maximum size, and lends each of them
+ * to one thread at a time. Taking one from and returning one to the pool does not lock as long as
+ * one is idle, otherwise the thread waits until another thread returns one.
+ *
+ * @param <T> - the type of the pooled objects
+ */
+public final class DigaJaxbPool<T> {
+  private final int maxSize;
+  private final Factory<T> factory;
+  private final Semaphore permits;
+  private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger created = new AtomicInteger();
+  private final AtomicLong acquisitions = new AtomicLong();
+  private final AtomicLong waits = new AtomicLong();
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  /**
+   * @param maxSize - the maximum number of objects in the pool, f.e the number of threads creating
+   *     requests at the same time
+   * @param factory - creates a new object, f.e JAXBContext::createMarshaller
+   */
+  public DigaJaxbPool(int maxSize, Factory<T> factory) {
+    this.maxSize = Math.max(1, maxSize);
+    this.factory = factory;
+    this.permits = new Semaphore(this.maxSize);
+  }
+
+  /**
+   * Take an object from the pool, creating it if none is idle and the pool is not full, or waiting
+   * for one if it is. It has to be returned with {@link #release(Object)}.
+   *
+   * @return
+   * @throws JAXBException if a new object could not be created or the thread was interrupted while
+   *     waiting
+   */
+  public T acquire() throws JAXBException {
+    acquisitions.incrementAndGet();
+    if (!permits.tryAcquire()) {
+      waits.incrementAndGet();
+      var start = System.nanoTime();
+      try {
+        permits.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new JAXBException("Interrupted while waiting for a pooled JAXB object", e);
+      } finally {
+        var waited = System.nanoTime() - start;
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+      }
+    }
+    var pooled = idle.poll();
+    if (pooled != null) {
+      return pooled;
+    }
+    try {
+      var newObject = factory.create();
+      created.incrementAndGet();
+      return newObject;
+    } catch (JAXBException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Return an object taken with {@link #acquire()} to the pool.
+   *
+   * @param pooled
+   */
+  public void release(T pooled) {
+    idle.offer(pooled);
+    permits.release();
+  }
+
+  /**
+   * Get statistics of the use of the pool so far.
+   *
+   * @return
+   */
+  public DigaJaxbPoolStatistics getStatistics() {
+    var acquired = acquisitions.get();
+    return DigaJaxbPoolStatistics.builder()
+        .maxSize(maxSize)
+        .created(created.get())
+        .inUse(maxSize - permits.availablePermits())
+        .acquisitions(acquired)
+        .waits(waits.get())
+        .averageWaitTime(Duration.ofNanos(acquired == 0 ? 0 : totalWaitNanos.get() / acquired))
+        .maxWaitTime(Duration.ofNanos(maxWaitNanos.get()))
+        .build();
+  }
+
+  /**
+   * Creates the objects of a pool.
+   *
+   * @param <T>
+   */
+  @FunctionalInterface
+  public interface Factory<T> {
+    T create() throws JAXBException;
+  }
+}
@@ -0,0 +1,434 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.model.DigaSecurityProviders;
+import de.tk.opensource.secon.*;
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.PrivateKey;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAKey;
+import java.security.spec.PSSParameterSpec;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import javax.crypto.spec.PSource;
+import javax.security.auth.x500.X500Principal;
+import lombok.NonNull;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.RSAESOAEPparams;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cms.CMSAlgorithm;
+import org.bouncycastle.cms.CMSEnvelopedDataParser;
+import org.bouncycastle.cms.CMSEnvelopedDataStreamGenerator;
+import org.bouncycastle.cms.CMSSignedDataParser;
+import org.bouncycastle.cms.CMSSignedDataStreamGenerator;
+import org.bouncycastle.cms.CMSTypedStream;
+import org.bouncycastle.cms.KeyTransRecipientId;
+import org.bouncycastle.cms.RecipientInfoGenerator;
+import org.bouncycastle.cms.RecipientInformation;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.bouncycastle.cms.jcajce.JceCMSContentEncryptorBuilder;
+import org.bouncycastle.cms.jcajce.JceKeyTransEnvelopedRecipient;
+import org.bouncycastle.cms.jcajce.JceKeyTransRecipientInfoGenerator;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+/**
+ * A SECON {@link Subscriber} with configurable JCA security providers.
+ *
+ * <p>It writes and reads the same CMS messages as the subscriber of {@link
+ * SECON#subscriber(Identity, Directory, Directory...)}: the content is signed with the algorithm of
+ * your certificate, the content encryption key is encrypted with RSAES-OAEP (SHA-256) for
+ * recipients with 4096 bit keys and with PKCS #1 v1.5 otherwise, and the content is encrypted with
+ * AES-256-CBC. SECON always uses BouncyCastle for these operations, which is also the default here
+ * for every provider that is not set in {@link DigaSecurityProviders}.
+ *
+ * <p>Digests and the verification of response signatures use BouncyCastle, or the installed
+ * providers in their preference order if a signature provider is set, since signature providers
+ * like SunRsaSign do not offer digests.
+ */
+public final class DigaJcaSubscriber implements Subscriber {
+  private static final String DEFAULT_PROVIDER = "BC";
+  private static final ASN1ObjectIdentifier CONTENT_ENCRYPTION_ALGORITHM = CMSAlgorithm.AES256_CBC;
+  private static final AlgorithmIdentifier OAEP_HASH_ALGORITHM =
+      new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256, DERNull.INSTANCE);
+  private static final AlgorithmIdentifier KEY_TRANSPORT_ALGORITHM_RSAES_OAEP =
+      new AlgorithmIdentifier(
+          PKCSObjectIdentifiers.id_RSAES_OAEP,
+          new RSAESOAEPparams(
+              OAEP_HASH_ALGORITHM,
+              new AlgorithmIdentifier(PKCSObjectIdentifiers.id_mgf1, OAEP_HASH_ALGORITHM),
+              new AlgorithmIdentifier(
+                  PKCSObjectIdentifiers.id_pSpecified,
+                  new DEROctetString(PSource.PSpecified.DEFAULT.getValue()))));
+
+  private final Identity identity;
+  private final Directory directory;
+  private final DigaSecurityProviders providers;
+
+  /**
+   * @param identity - your private key and certificate
+   * @param directory - the certificates of the recipients and of the senders of responses
+   * @param providers - the security providers to use
+   */
+  public DigaJcaSubscriber(
+      @NonNull Identity identity,
+      @NonNull Directory directory,
+      @NonNull DigaSecurityProviders providers) {
+    this.identity = identity;
+    this.directory = directory;
+    this.providers = providers;
+  }
+
+  @Override
+  public SeconCallable<OutputStream> signAndEncryptTo(
+      Callable<OutputStream> output, X509Certificate recipient, X509Certificate... others) {
+    Objects.requireNonNull(recipient);
+    return callable(() -> signAndEncrypt(output.call(), concat(recipient, others)));
+  }
+
+  @Override
+  public SeconCallable<OutputStream> signAndEncryptTo(
+      Callable<OutputStream> output, String recipient, String... others) {
+    Objects.requireNonNull(recipient);
+    return callable(
+        () -> {
+          var certificates = new ArrayList<X509Certificate>();
+          for (var alias : concat(recipient, others)) {
+            certificates.add(
+                directory
+                    .certificate(alias)
+                    .orElseThrow(() -> seconException(CertificateNotFoundException.class, alias)));
+          }
+          return signAndEncrypt(output.call(), certificates);
+        });
+  }
+
+  @Override
+  public SeconCallable<InputStream> decryptAndVerifyFrom(
+      Callable<InputStream> input, Verifier verifier) {
+    return callable(() -> decryptAndVerify(input.call(), verifier));
+  }
+
+  private OutputStream signAndEncrypt(OutputStream target, List<X509Certificate> recipients)
+      throws Exception {
+    var envelopedGenerator = new CMSEnvelopedDataStreamGenerator();
+    for (var recipient : recipients) {
+      envelopedGenerator.addRecipientInfoGenerator(recipientInfoGenerator(recipient));
+    }
+    var contentEncryptor = new JceCMSContentEncryptorBuilder(CONTENT_ENCRYPTION_ALGORITHM);
+    if (providers.getContentEncryption() != null) {
+      contentEncryptor.setProvider(providers.getContentEncryption());
+    } else {
+      contentEncryptor.setProvider(DEFAULT_PROVIDER);
+    }
+    var encrypted = envelopedGenerator.open(target, contentEncryptor.build());
+
+    var certificate = identity.certificate();
+    var signedGenerator = new CMSSignedDataStreamGenerator();
+    signedGenerator.addSignerInfoGenerator(
+        new JcaSignerInfoGeneratorBuilder(digestCalculatorProvider())
+            .build(contentSigner(certificate), certificate));
+    signedGenerator.addCertificate(new JcaX509CertificateHolder(certificate));
+    var signed = signedGenerator.open(encrypted, true);
+    return new SignedAndEncryptedOutputStream(signed, encrypted, target);
+  }
+
+  private RecipientInfoGenerator recipientInfoGenerator(X509Certificate recipient)
+      throws Exception {
+    if (!(recipient.getPublicKey() instanceof RSAKey key)) {
+      throw new InvalidKeyException("Only RSA keys are supported");
+    }
+    var generator =
+        key.getModulus().bitLength() < 4096
+            ? new JceKeyTransRecipientInfoGenerator(recipient)
+            : new JceKeyTransRecipientInfoGenerator(recipient, KEY_TRANSPORT_ALGORITHM_RSAES_OAEP);
+    return providers.getKeyTransport() != null
+        ? generator.setProvider(providers.getKeyTransport())
+        : generator.setProvider(DEFAULT_PROVIDER);
+  }
+
+  private ContentSigner contentSigner(X509Certificate certificate) throws Exception {
+    var algorithm = certificate.getSigAlgName();
+    JcaContentSignerBuilder builder;
+    if (PKCSObjectIdentifiers.id_RSASSA_PSS.getId().equals(certificate.getSigAlgOID())) {
+      var parameters = AlgorithmParameters.getInstance(algorithm);
+      parameters.init(certificate.getSigAlgParams());
+      builder =
+          new JcaContentSignerBuilder(
+              algorithm, parameters.getParameterSpec(PSSParameterSpec.class));
+    } else {
+      builder = new JcaContentSignerBuilder(algorithm);
+    }
+    if (providers.getSignature() != null) {
+      builder.setProvider(providers.getSignature());
+    } else {
+      builder.setProvider(DEFAULT_PROVIDER);
+    }
+    return builder.build(identity.privateKey());
+  }
+
+  private DigestCalculatorProvider digestCalculatorProvider() throws Exception {
+    var builder = new JcaDigestCalculatorProviderBuilder();
+    if (providers.getSignature() == null) {
+      builder.setProvider(DEFAULT_PROVIDER);
+    }
+    return builder.build();
+  }
+
+  private InputStream decryptAndVerify(InputStream input, Verifier verifier) throws Exception {
+    var envelopedParser = new CMSEnvelopedDataParser(new BufferedInputStream(input));
+    if (!CONTENT_ENCRYPTION_ALGORITHM.getId().equals(envelopedParser.getEncryptionAlgOID())) {
+      throw new EncryptionAlgorithmIllegalException(
+          CONTENT_ENCRYPTION_ALGORITHM.getId(), envelopedParser.getEncryptionAlgOID());
+    }
+    InputStream decrypted = null;
+    for (RecipientInformation recipient : envelopedParser.getRecipientInfos()) {
+      if (recipient.getRID() instanceof KeyTransRecipientId id) {
+        var privateKey =
+            identity.privateKey(
+                selector(id.getIssuer(), id.getSerialNumber(), id.getSubjectKeyIdentifier()));
+        if (privateKey.isPresent()) {
+          decrypted =
+              recipient
+                  .getContentStream(keyTransportRecipient(privateKey.get()))
+                  .getContentStream();
+          break;
+        }
+      }
+    }
+    if (decrypted == null) {
+      throw seconException(PrivateKeyNotFoundException.class, null);
+    }
+    var signedParser =
+        new CMSSignedDataParser(digestCalculatorProvider(), new BufferedInputStream(decrypted));
+    return new VerifyingInputStream(
+        signedParser.getSignedContent(), signedParser, verifier, decrypted, input);
+  }
+
+  private JceKeyTransEnvelopedRecipient keyTransportRecipient(PrivateKey privateKey) {
+    var recipient = new JceKeyTransEnvelopedRecipient(privateKey);
+    if (providers.getKeyTransport() != null) {
+      recipient.setProvider(providers.getKeyTransport());
+    } else {
+      recipient.setProvider(DEFAULT_PROVIDER);
+    }
+    if (providers.getContentEncryption() != null) {
+      recipient.setContentProvider(providers.getContentEncryption());
+    } else {
+      recipient.setContentProvider(DEFAULT_PROVIDER);
+    }
+    return recipient;
+  }
+
+  private void verify(SignerInformation signer, CMSSignedDataParser parser, Verifier verifier)
+      throws Exception {
+    var sid = signer.getSID();
+    var certificate =
+        directory.certificate(
+            selector(sid.getIssuer(), sid.getSerialNumber(), sid.getSubjectKeyIdentifier()));
+    if (certificate.isPresent()) {
+      verifySignature(signer, certificate.get(), verifier);
+      return;
+    }
+    // the certificate is not in the directory, so verify the one sent along by its issuer
+    @SuppressWarnings("unchecked")
+    Collection<X509CertificateHolder> embedded = parser.getCertificates().getMatches(sid);
+    if (embedded.isEmpty()) {
+      throw new IllegalArgumentException(
+          "No certificates found for verification of signer: " + sid.getSerialNumber());
+    }
+    for (var holder : embedded) {
+      var embeddedCertificate = new JcaX509CertificateConverter().getCertificate(holder);
+      var issuer = directory.issuer(embeddedCertificate);
+      if (issuer.isEmpty()) {
+        throw seconException(
+            CertificateNotFoundException.class,
+            String.format(
+                "Issuer: %s not found for certificate: %s",
+                embeddedCertificate.getIssuerX500Principal().getName(),
+                embeddedCertificate.getSubjectX500Principal().getName()));
+      }
+      try {
+        embeddedCertificate.verify(issuer.get().getPublicKey());
+      } catch (GeneralSecurityException e) {
+        throw new CertificateVerificationException(
+            "Invalid issuer certificate for certificate: "
+                + embeddedCertificate.getSubjectX500Principal().getName(),
+            e);
+      }
+      verifySignature(signer, embeddedCertificate, verifier);
+    }
+  }
+
+  private void verifySignature(
+      SignerInformation signer, X509Certificate certificate, Verifier verifier) throws Exception {
+    var builder = new JcaSimpleSignerInfoVerifierBuilder();
+    if (providers.getSignature() == null) {
+      builder.setProvider(DEFAULT_PROVIDER);
+    }
+    if (!signer.verify(builder.build(certificate))) {
+      throw seconException(InvalidSignatureException.class, null);
+    }
+    verifier.verify(certificate);
+  }
+
+  private static X509CertSelector selector(X500Name issuer, BigInteger serialNumber, byte[] keyId)
+      throws IOException {
+    var selector = new X509CertSelector();
+    if (issuer != null) {
+      selector.setIssuer(new X500Principal(issuer.getEncoded()));
+    }
+    selector.setSerialNumber(serialNumber);
+    selector.setSubjectKeyIdentifier(keyId);
+    return selector;
+  }
+
+  @SafeVarargs
+  private static <T> List<T> concat(T first, T... others) {
+    var all = new ArrayList<T>(others.length + 1);
+    all.add(first);
+    for (var other : others) {
+      all.add(Objects.requireNonNull(other));
+    }
+    return all;
+  }
+
+  private static <V> SeconCallable<V> callable(Callable<V> callable) {
+    return () -> {
+      try {
+        return callable.call();
+      } catch (SeconException | RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new SeconException(e);
+      }
+    };
+  }
+
+  // most of SECON's exceptions can only be created by SECON itself, so callers can only tell the
+  // failures apart by their types if they are created through their hidden constructors
+  private static <T extends SeconException> T seconException(Class<T> type, String message) {
+    try {
+      var constructor =
+          message == null
+              ? type.getDeclaredConstructor()
+              : type.getDeclaredConstructor(String.class);
+      constructor.setAccessible(true);
+      return message == null ? constructor.newInstance() : constructor.newInstance(message);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      throw new IllegalStateException("Failed to create a " + type.getSimpleName(), e);
+    }
+  }
+
+  // closing the stream finishes the signed content, then the encrypted content, then the target
+  private static final class SignedAndEncryptedOutputStream extends FilterOutputStream {
+    private final OutputStream encrypted;
+    private final OutputStream target;
+
+    private SignedAndEncryptedOutputStream(
+        OutputStream signed, OutputStream encrypted, OutputStream target) {
+      super(signed);
+      this.encrypted = encrypted;
+      this.target = target;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try (target;
+          encrypted) {
+        out.close();
+      }
+    }
+  }
+
+  // the signature can only be verified after all of the content was read, so reading the rest of
+  // the content and verifying the signature happen when the stream is closed
+  private final class VerifyingInputStream extends FilterInputStream {
+    private final CMSTypedStream signedContent;
+    private final CMSSignedDataParser parser;
+    private final Verifier verifier;
+    private final InputStream decrypted;
+    private final InputStream input;
+    private boolean closed;
+
+    private VerifyingInputStream(
+        CMSTypedStream signedContent,
+        CMSSignedDataParser parser,
+        Verifier verifier,
+        InputStream decrypted,
+        InputStream input) {
+      super(signedContent.getContentStream());
+      this.signedContent = signedContent;
+      this.parser = parser;
+      this.verifier = verifier;
+      this.decrypted = decrypted;
+      this.input = input;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try (input;
+          decrypted) {
+        signedContent.drain();
+        for (var signer : parser.getSignerInfos()) {
+          verify(signer, parser, verifier);
+        }
+      } catch (IOException | RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException(e);
+      }
+    }
+  }
+}
@@ -18,66 +18,207 @@
 
 package com.alextherapeutics.diga.implementation;
 
+import com.alextherapeutics.diga.DigaApiHttpResponseHandler;
+import com.alextherapeutics.diga.DigaDecryptionException;
 import com.alextherapeutics.diga.DigaHttpClient;
 import com.alextherapeutics.diga.DigaHttpClientException;
 import com.alextherapeutics.diga.DigaUtils;
+import com.alextherapeutics.diga.DigaXmlReaderException;
 import com.alextherapeutics.diga.model.DigaApiHttpRequest;
 import com.alextherapeutics.diga.model.DigaApiHttpResponse;
+import com.alextherapeutics.diga.model.DigaEndpointBulkheadSettings;
+import com.alextherapeutics.diga.model.DigaEndpointBulkheadStatistics;
+import com.alextherapeutics.diga.model.DigaKeyMaterial;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.CertificateException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import lombok.Builder;
-import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import nl.altindag.ssl.SSLFactory;
+import nl.altindag.ssl.util.SSLFactoryUtils;
 import okhttp3.*;
+import okio.BufferedSink;
 
 /**
  * Default HTTP client using OkHttp configured to trust the insurance company certificates and
  * provide yuor own certificate with each request.
+ *
+ * <p>Each DiGA API endpoint (host) is isolated from the others by a bulkhead: a limit of concurrent
+ * requests, a limit of requests waiting for one of them and its own connection pool, see {@link
+ * DigaEndpointBulkheadSettings}. This way a slow endpoint, f.e one serving many insurance
+ * companies, can not hold up requests to all other endpoints.
+ *
+ * <p>When posting with a {@link DigaApiHttpResponseHandler}, the encrypted body of the response is
+ * passed to the handler directly from the connection instead of being read into memory first.
+ *
+ * <p>The trusted health insurance company certificates can be replaced while the client is in use,
+ * see {@link #reloadHealthInsuranceCertificates(KeyStore)}. Open connections are kept, new
+ * connections trust the new certificates.
  */
 @Slf4j
 public class DigaOkHttpClient implements DigaHttpClient {
+  private static final List<String> RESPONSE_INFORMATION_PARTS =
+      List.of("iksender", "ikempfaenger", "verfahren");
+
   private final byte[] keyStoreFileContent;
   private final String keyStorePassword;
   private final byte[] certificatesFileContent;
   private final String certificatesPassword;
+  private final DigaKeyMaterial keyMaterial;
+  private final DigaEndpointBulkheadSettings defaultEndpointSettings;
+  private final Map<String, DigaEndpointBulkheadSettings> endpointSettings;
+  private final Map<String, EndpointBulkhead> bulkheads = new ConcurrentHashMap<>();
 
+  private DigaKeyMaterial keys;
+  private SSLFactory sslFactory;
   private OkHttpClient client;
 
+  /**
+   * Either the key material or the contents and passwords of both keystores have to be given.
+   *
+   * @param keyStoreFileContent - the contents of the keystore (PKCS12) with your private key
+   * @param keyStorePassword - the password of the keystore with your private key
+   * @param certificatesFileContent - the contents of the keystore (PKCS12) with the insurance
+   *     company certificates
+   * @param certificatesPassword - the password of the keystore with the insurance company
+   *     certificates
+   * @param keyMaterial - already loaded keystores, f.e shared with the encryption factory. If set,
+   *     the keystore contents and passwords are not used.
+   * @param defaultEndpointSettings - optional. The bulkhead settings used for endpoints without
+   *     their own settings. Defaults to {@link DigaEndpointBulkheadSettings} defaults.
+   * @param endpointSettings - optional. Bulkhead settings for specific endpoints, by host, f.e
+   *     diga.bitmarck-daten.de
+   * @throws DigaHttpClientException
+   */
   @Builder
   public DigaOkHttpClient(
-      @NonNull byte[] keyStoreFileContent,
-      @NonNull String keyStorePassword,
-      @NonNull byte[] certificatesFileContent,
-      @NonNull String certificatesPassword)
+      byte[] keyStoreFileContent,
+      String keyStorePassword,
+      byte[] certificatesFileContent,
+      String certificatesPassword,
+      DigaKeyMaterial keyMaterial,
+      DigaEndpointBulkheadSettings defaultEndpointSettings,
+      Map<String, DigaEndpointBulkheadSettings> endpointSettings)
       throws DigaHttpClientException {
+    if (keyMaterial == null) {
+      Objects.requireNonNull(
+          keyStoreFileContent, "keyStoreFileContent is required without keyMaterial");
+      Objects.requireNonNull(keyStorePassword, "keyStorePassword is required without keyMaterial");
+      Objects.requireNonNull(
+          certificatesFileContent, "certificatesFileContent is required without keyMaterial");
+      Objects.requireNonNull(
+          certificatesPassword, "certificatesPassword is required without keyMaterial");
+    }
     this.keyStoreFileContent = keyStoreFileContent;
     this.keyStorePassword = keyStorePassword;
     this.certificatesFileContent = certificatesFileContent;
     this.certificatesPassword = certificatesPassword;
+    this.keyMaterial = keyMaterial;
+    this.defaultEndpointSettings =
+        defaultEndpointSettings == null
+            ? DigaEndpointBulkheadSettings.builder().build()
+            : defaultEndpointSettings;
+    this.endpointSettings = endpointSettings == null ? Map.of() : Map.copyOf(endpointSettings);
     init();
   }
 
   @Override
   public DigaApiHttpResponse post(DigaApiHttpRequest request) throws DigaHttpClientException {
+    var bulkhead = bulkheadFor(request.getUrl());
+    bulkhead.acquire();
+    var successful = false;
     try {
-      var httpResponse = client.newCall(toOkHttpRequest(request)).execute();
+      var httpResponse = bulkhead.client.newCall(toOkHttpRequest(request)).execute();
+
+      if (httpResponse.code() != 200) {
+        throw new DigaHttpClientException(
+            new Exception(
+                String.format("Request returned with http status code %d", httpResponse.code())));
+      }
+      var response = parseResponse(httpResponse);
+      successful = true;
+      return response;
+    } catch (IOException e) {
+      log.error("Http request failed", e);
+      throw new DigaHttpClientException(e);
+    } finally {
+      bulkhead.release(successful);
+    }
+  }
 
+  @Override
+  public <T> T post(DigaApiHttpRequest request, DigaApiHttpResponseHandler<T> responseHandler)
+      throws DigaHttpClientException, DigaDecryptionException, DigaXmlReaderException {
+    var bulkhead = bulkheadFor(request.getUrl());
+    bulkhead.acquire();
+    var successful = false;
+    try (var httpResponse = bulkhead.client.newCall(toOkHttpRequest(request)).execute()) {
       if (httpResponse.code() != 200) {
         throw new DigaHttpClientException(
             new Exception(
                 String.format("Request returned with http status code %d", httpResponse.code())));
       }
-      return parseResponse(httpResponse);
+      var result = handleResponse(httpResponse, responseHandler);
+      successful = true;
+      return result;
     } catch (IOException e) {
       log.error("Http request failed", e);
       throw new DigaHttpClientException(e);
+    } finally {
+      bulkhead.release(successful);
+    }
+  }
+
+  /**
+   * Get statistics of the requests sent to each endpoint so far.
+   *
+   * @return The statistics of each endpoint a request has been sent to, by host
+   */
+  public Map<String, DigaEndpointBulkheadStatistics> getEndpointStatistics() {
+    var statistics = new TreeMap<String, DigaEndpointBulkheadStatistics>();
+    bulkheads.forEach((host, bulkhead) -> statistics.put(host, bulkhead.statistics()));
+    return statistics;
+  }
+
+  @Override
+  public Runnable prepareHealthInsuranceCertificatesReload(KeyStore healthInsuranceCertificates)
+      throws DigaHttpClientException {
+    SSLFactory updated;
+    try {
+      updated = buildSslFactory(keys.getPrivateKeyStore(), healthInsuranceCertificates, false);
+    } catch (RuntimeException e) {
+      log.error("Failed to reload the health insurance company certificates", e);
+      throw new DigaHttpClientException(e);
     }
+    return () -> {
+      // the ssl contexts of all endpoint clients share the swappable trust manager, so swapping it
+      // is enough. the session cache is kept so warm connections can be resumed
+      synchronized (this) {
+        SSLFactoryUtils.reload(sslFactory, updated, false);
+      }
+      log.info("Reloaded the trusted health insurance company certificates");
+    };
+  }
+
+  private EndpointBulkhead bulkheadFor(String url) {
+    var httpUrl = HttpUrl.parse(url);
+    var host = httpUrl == null ? url : httpUrl.host();
+    return bulkheads.computeIfAbsent(
+        host,
+        key ->
+            new EndpointBulkhead(key, endpointSettings.getOrDefault(key, defaultEndpointSettings)));
   }
 
   private DigaApiHttpResponse parseResponse(Response okHttpResponse) throws IOException {
@@ -92,7 +233,41 @@ public class DigaOkHttpClient implements DigaHttpClient {
       responseBuilder = parsePart(nextPart, responseBuilder);
     } while (nextPart != null);
     multiPartReader.close();
-    return responseBuilder.build();
+    var response = responseBuilder.build();
+    if (response.getEncryptedBody() == null) {
+      throw new IOException("Request returned without an encrypted body");
+    }
+    return response;
+  }
+
+  // the encrypted body is streamed to the handler if the other parts were sent before it, which is
+  // what the API endpoints do. otherwise it is read into memory until all parts are read
+  private <T> T handleResponse(Response okHttpResponse, DigaApiHttpResponseHandler<T> handler)
+      throws IOException, DigaDecryptionException, DigaXmlReaderException {
+    var responseBuilder = DigaApiHttpResponse.builder().statusCode(okHttpResponse.code());
+    if (okHttpResponse.body() == null) {
+      throw new IOException("Request returned with an empty body");
+    }
+    try (var multiPartReader = new MultipartReader(okHttpResponse.body())) {
+      var readParts = new HashSet<String>();
+      MultipartReader.Part nextPart;
+      while ((nextPart = multiPartReader.nextPart()) != null) {
+        var headers = nextPart.headers();
+        if (readParts.containsAll(RESPONSE_INFORMATION_PARTS)
+            && headerContainsFormDataName(headers, "nutzdaten")) {
+          return handler.handle(responseBuilder.build(), nextPart.body().inputStream());
+        }
+        RESPONSE_INFORMATION_PARTS.stream()
+            .filter(name -> headerContainsFormDataName(headers, name))
+            .forEach(readParts::add);
+        responseBuilder = parsePart(nextPart, responseBuilder);
+      }
+    }
+    var response = responseBuilder.build();
+    if (response.getEncryptedBody() == null) {
+      throw new IOException("Request returned without an encrypted body");
+    }
+    return handler.handle(response, new ByteArrayInputStream(response.getEncryptedBody()));
   }
 
   private Request toOkHttpRequest(DigaApiHttpRequest digaApiHttpRequest) {
@@ -108,29 +283,28 @@ public class DigaOkHttpClient implements DigaHttpClient {
             .addFormDataPart(
                 "nutzdaten",
                 "anfrage.cms",
-                RequestBody.create(
-                    digaApiHttpRequest.getEncryptedContent(),
-                    MediaType.parse("application/octet-stream")))
+                digaApiHttpRequest.getEncryptedContentWriter() == null
+                    ? RequestBody.create(
+                        digaApiHttpRequest.getEncryptedContent(),
+                        MediaType.parse("application/octet-stream"))
+                    : new StreamingEncryptedRequestBody(digaApiHttpRequest))
             .build();
     return new Request.Builder().url(digaApiHttpRequest.getUrl()).post(body).build();
   }
 
   private void init() throws DigaHttpClientException {
     try {
-      var krankenKasseTrustStore = KeyStore.getInstance("PKCS12");
-      krankenKasseTrustStore.load(
-          new ByteArrayInputStream(certificatesFileContent), certificatesPassword.toCharArray());
-      var clientStore = KeyStore.getInstance("PKCS12");
-      clientStore.load(
-          new ByteArrayInputStream(keyStoreFileContent), keyStorePassword.toCharArray());
-
-      var sslFactory =
-          SSLFactory.builder()
-              .withDefaultTrustMaterial()
-              .withSystemTrustMaterial()
-              .withTrustMaterial(krankenKasseTrustStore)
-              .withIdentityMaterial(clientStore, keyStorePassword.toCharArray())
-              .build();
+      keys =
+          keyMaterial != null
+              ? keyMaterial
+              : DigaKeyMaterial.load(
+                  keyStoreFileContent,
+                  keyStorePassword,
+                  certificatesFileContent,
+                  certificatesPassword);
+
+      sslFactory =
+          buildSslFactory(keys.getPrivateKeyStore(), keys.getHealthInsuranceCertificates(), true);
 
       client =
           new OkHttpClient.Builder()
@@ -138,12 +312,27 @@ public class DigaOkHttpClient implements DigaHttpClient {
                   sslFactory.getSslSocketFactory(), sslFactory.getTrustManager().orElseThrow())
               .hostnameVerifier(sslFactory.getHostnameVerifier())
               .build();
-    } catch (IOException | CertificateException | NoSuchAlgorithmException | KeyStoreException e) {
+    } catch (IOException | GeneralSecurityException e) {
       log.error("Failed to instantiate OkHttpClient", e);
       throw new DigaHttpClientException(e);
     }
   }
 
+  // swappable factories wrap their key and trust managers so they can be replaced on reload
+  private SSLFactory buildSslFactory(
+      KeyStore privateKeyStore, KeyStore healthInsuranceCertificates, boolean swappable) {
+    var builder =
+        SSLFactory.builder()
+            .withDefaultTrustMaterial()
+            .withSystemTrustMaterial()
+            .withTrustMaterial(healthInsuranceCertificates)
+            .withIdentityMaterial(privateKeyStore, keys.getPrivateKeyStorePassword().toCharArray());
+    if (swappable) {
+      builder.withSwappableIdentityMaterial().withSwappableTrustMaterial();
+    }
+    return builder.build();
+  }
+
   private boolean headerContainsFormDataName(Headers headers, String name) {
     var it = headers.iterator();
     var result = false;
@@ -175,4 +364,107 @@ public class DigaOkHttpClient implements DigaHttpClient {
     }
     return builder;
   }
+
+  // the concurrency limit, queue and connection pool of a single endpoint.
+  // okhttp's dispatcher limits only apply to asynchronous calls, so the limit of synchronous calls
+  // is enforced with a semaphore
+  private final class EndpointBulkhead {
+    private final String host;
+    private final DigaEndpointBulkheadSettings settings;
+    private final OkHttpClient client;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private EndpointBulkhead(String host, DigaEndpointBulkheadSettings settings) {
+      this.host = host;
+      this.settings = settings;
+      this.permits = new Semaphore(Math.max(1, settings.getMaxConcurrentRequests()), true);
+      this.client =
+          DigaOkHttpClient.this
+              .client
+              .newBuilder()
+              .connectionPool(
+                  new ConnectionPool(
+                      settings.getMaxIdleConnections(),
+                      settings.getKeepAliveDuration().toMillis(),
+                      TimeUnit.MILLISECONDS))
+              .build();
+    }
+
+    private void acquire() throws DigaHttpClientException {
+      if (permits.tryAcquire()) {
+        return;
+      }
+      if (queued.incrementAndGet() > settings.getMaxQueuedRequests()) {
+        queued.decrementAndGet();
+        throw reject("the queue is full");
+      }
+      try {
+        if (!permits.tryAcquire(settings.getMaxQueueWaitTime().toMillis(), TimeUnit.MILLISECONDS)) {
+          throw reject("the request waited too long in the queue");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DigaHttpClientException(e);
+      } finally {
+        queued.decrementAndGet();
+      }
+    }
+
+    private void release(boolean successful) {
+      permits.release();
+      completed.incrementAndGet();
+      if (!successful) {
+        failed.incrementAndGet();
+      }
+    }
+
+    private DigaHttpClientException reject(String reason) {
+      rejected.incrementAndGet();
+      log.warn("Rejected request to DiGA API endpoint {} because {}", host, reason);
+      return new DigaHttpClientException(
+          new Exception(String.format("Request to %s was rejected because %s", host, reason)));
+    }
+
+    private DigaEndpointBulkheadStatistics statistics() {
+      return DigaEndpointBulkheadStatistics.builder()
+          .host(host)
+          .settings(settings)
+          .activeRequests(
+              Math.max(1, settings.getMaxConcurrentRequests()) - permits.availablePermits())
+          .queuedRequests(queued.get())
+          .completedRequests(completed.get())
+          .failedRequests(failed.get())
+          .rejectedRequests(rejected.get())
+          .build();
+    }
+  }
+
+  // a request body which is encrypted while it is written, so the encrypted content is never
+  // buffered. it can only be written once, so okhttp will not retry it on connection failures
+  private static final class StreamingEncryptedRequestBody extends RequestBody {
+    private final DigaApiHttpRequest request;
+
+    private StreamingEncryptedRequestBody(DigaApiHttpRequest request) {
+      this.request = request;
+    }
+
+    @Override
+    public MediaType contentType() {
+      return MediaType.parse("application/octet-stream");
+    }
+
+    @Override
+    public boolean isOneShot() {
+      return true;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+      request.writeEncryptedContentTo(sink.outputStream());
+    }
+  }
 }
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.DigaApiHttpResponseHandler;
+import com.alextherapeutics.diga.DigaDecryptionException;
+import com.alextherapeutics.diga.DigaHttpClient;
+import com.alextherapeutics.diga.DigaHttpClientException;
+import com.alextherapeutics.diga.DigaUtils;
+import com.alextherapeutics.diga.DigaXmlReaderException;
+import com.alextherapeutics.diga.model.DigaApiHttpRequest;
+import com.alextherapeutics.diga.model.DigaApiHttpResponse;
+import com.alextherapeutics.diga.model.DigaRateLimit;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A HTTP client which limits the rate of requests to each recipient IK (the clearing center) and
+ * optionally the rate of all requests together, before passing the requests on to another {@link
+ * DigaHttpClient}.
+ *
+ * <p>By default a request waits until the rate limits allow it, or is rejected if it would have to
+ * wait longer than the max wait time. In non-blocking mode a request which is not allowed right
+ * away is rejected immediately, f.e to be retried later by the caller. Rejected requests throw a
+ * {@link DigaHttpClientException} without being sent.
+ *
+ * <p>F.e:
+ *
+ * <pre>
+ * DigaRateLimitedHttpClient.builder()
+ *     .httpClient(okHttpClient)
+ *     .defaultRecipientRateLimit(DigaRateLimit.builder().requestsPerSecond(5).burst(10).build())
+ *     .recipientRateLimits(Map.of("IK123456789", DigaRateLimit.builder().requestsPerSecond(1).build()))
+ *     .globalRateLimit(DigaRateLimit.builder().requestsPerSecond(50).build())
+ *     .build();
+ * </pre>
+ */
+@Slf4j
+public class DigaRateLimitedHttpClient implements DigaHttpClient {
+  private final DigaHttpClient httpClient;
+  private final DigaRateLimit defaultRecipientRateLimit;
+  private final Map<String, DigaRateLimit> recipientRateLimits = new HashMap<>();
+  private final TokenBucket globalBucket;
+  private final boolean nonBlocking;
+  private final long maxWaitNanos;
+
+  private final Map<String, TokenBucket> recipientBuckets = new ConcurrentHashMap<>();
+  private final AtomicLong rejectedRequests = new AtomicLong();
+
+  /**
+   * @param httpClient - the client that sends the requests
+   * @param defaultRecipientRateLimit - optional. The rate limit of recipient IKs without their own
+   *     rate limit. Defaults to no limit.
+   * @param recipientRateLimits - optional. Rate limits of specific recipient IKs, by IK with or
+   *     without the "IK" prefix.
+   * @param globalRateLimit - optional. The rate limit of all requests together. Defaults to no
+   *     limit.
+   * @param nonBlocking - whether requests which are not allowed right away are rejected instead of
+   *     waiting. Defaults to false.
+   * @param maxWaitTime - optional. The maximum time a request waits for the rate limits. Defaults
+   *     to 1 minute.
+   * @throws IllegalArgumentException if a rate limit does not allow any requests
+   */
+  @Builder
+  public DigaRateLimitedHttpClient(
+      @NonNull DigaHttpClient httpClient,
+      DigaRateLimit defaultRecipientRateLimit,
+      Map<String, DigaRateLimit> recipientRateLimits,
+      DigaRateLimit globalRateLimit,
+      boolean nonBlocking,
+      Duration maxWaitTime) {
+    this.httpClient = httpClient;
+    validate(defaultRecipientRateLimit);
+    this.defaultRecipientRateLimit = defaultRecipientRateLimit;
+    if (recipientRateLimits != null) {
+      recipientRateLimits.forEach(
+          (ik, rateLimit) -> {
+            validate(rateLimit);
+            this.recipientRateLimits.put(DigaUtils.ikNumberWithoutPrefix(ik), rateLimit);
+          });
+    }
+    this.globalBucket = new TokenBucket(globalRateLimit);
+    this.nonBlocking = nonBlocking;
+    this.maxWaitNanos = (maxWaitTime == null ? Duration.ofMinutes(1) : maxWaitTime).toNanos();
+  }
+
+  @Override
+  public DigaApiHttpResponse post(DigaApiHttpRequest request) throws DigaHttpClientException {
+    awaitRateLimits(request);
+    return httpClient.post(request);
+  }
+
+  @Override
+  public <T> T post(DigaApiHttpRequest request, DigaApiHttpResponseHandler<T> responseHandler)
+      throws DigaHttpClientException, DigaDecryptionException, DigaXmlReaderException {
+    awaitRateLimits(request);
+    return httpClient.post(request, responseHandler);
+  }
+
+  @Override
+  public Runnable prepareHealthInsuranceCertificatesReload(KeyStore healthInsuranceCertificates)
+      throws DigaHttpClientException {
+    return httpClient.prepareHealthInsuranceCertificatesReload(healthInsuranceCertificates);
+  }
+
+  /**
+   * The number of requests rejected by the rate limits so far.
+   *
+   * @return
+   */
+  public long getRejectedRequests() {
+    return rejectedRequests.get();
+  }
+
+  private void awaitRateLimits(DigaApiHttpRequest request) throws DigaHttpClientException {
+    var recipientIK = DigaUtils.ikNumberWithoutPrefix(request.getRecipientIK());
+    var recipientBucket =
+        recipientBuckets.computeIfAbsent(
+            recipientIK,
+            ik -> new TokenBucket(recipientRateLimits.getOrDefault(ik, defaultRecipientRateLimit)));
+    var maxWait = nonBlocking ? 0 : maxWaitNanos;
+    var now = System.nanoTime();
+
+    var recipientWait = recipientBucket.reserve(now, maxWait);
+    if (recipientWait < 0) {
+      throw reject(recipientIK);
+    }
+    var globalWait = globalBucket.reserve(now, maxWait);
+    if (globalWait < 0) {
+      recipientBucket.cancel();
+      throw reject(recipientIK);
+    }
+    var wait = Math.max(recipientWait, globalWait);
+    if (wait > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DigaHttpClientException(e);
+      }
+    }
+  }
+
+  private static void validate(DigaRateLimit rateLimit) {
+    if (rateLimit != null && rateLimit.getRequestsPerSecond() <= 0) {
+      throw new IllegalArgumentException("Requests per second must be above 0");
+    }
+  }
+
+  private DigaHttpClientException reject(String recipientIK) {
+    rejectedRequests.incrementAndGet();
+    log.warn("Rejected request to IK {} because of the rate limit", recipientIK);
+    return new DigaHttpClientException(
+        new Exception(
+            String.format("Request to IK %s was rejected because of the rate limit", recipientIK)));
+  }
+
+  // a lock-free token bucket. instead of counting tokens, it keeps the time at which the bucket
+  // would be full again (the generic cell rate algorithm), so a single compare-and-set reserves a
+  // token
+  private static final class TokenBucket {
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+
+    private TokenBucket(DigaRateLimit rateLimit) {
+      if (rateLimit == null) {
+        intervalNanos = 0;
+        burstNanos = 0;
+      } else {
+        validate(rateLimit);
+        intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rateLimit.getRequestsPerSecond());
+        burstNanos = intervalNanos * Math.max(1, rateLimit.getBurst());
+      }
+    }
+
+    // takes a token, returning how long to wait for it in nanos, or -1 without taking it if the
+    // wait would be longer than maxWaitNanos
+    private long reserve(long now, long maxWaitNanos) {
+      if (intervalNanos == 0) {
+        return 0;
+      }
+      while (true) {
+        var current = fullAt.get();
+        var next = Math.max(current, now) + intervalNanos;
+        var wait = next - now - burstNanos;
+        if (wait > maxWaitNanos) {
+          return -1;
+        }
+        if (fullAt.compareAndSet(current, next)) {
+          return Math.max(0, wait);
+        }
+      }
+    }
+
+    // gives back a token taken by reserve
+    private void cancel() {
+      if (intervalNanos != 0) {
+        fullAt.addAndGet(-intervalNanos);
+      }
+    }
+  }
+}
@@ -18,15 +18,28 @@
 
 package com.alextherapeutics.diga.implementation;
 
+import com.alextherapeutics.diga.DigaCryptoWorkerPool;
 import com.alextherapeutics.diga.DigaEncryptionFactory;
 import com.alextherapeutics.diga.model.DigaDecryption;
 import com.alextherapeutics.diga.model.DigaEncryption;
+import com.alextherapeutics.diga.model.DigaKeyMaterial;
+import com.alextherapeutics.diga.model.DigaSecurityProviders;
 import de.tk.opensource.secon.*;
 import java.io.ByteArrayInputStream;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.util.Objects;
 import lombok.Builder;
 import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
 
-/** A {@link DigaEncryptionFactory} implemented using the {@link SECON} library. */
+/**
+ * A {@link DigaEncryptionFactory} implemented using the {@link SECON} library.
+ *
+ * <p>The health insurance company certificates can be replaced while the factory is in use, see
+ * {@link #reloadHealthInsuranceCertificates(KeyStore)}.
+ */
+@Slf4j
 public class DigaSeconEncryptionFactory implements DigaEncryptionFactory {
   // input fields
   private final byte[] privateKeyBytes;
@@ -34,50 +47,111 @@ public class DigaSeconEncryptionFactory implements DigaEncryptionFactory {
   private final String privateKeyPassword;
   private final byte[] publicKeysBytes;
   private final String publicKeyDirectoryPassword;
+  private final DigaKeyMaterial keyMaterial;
+  private final DigaCryptoWorkerPool cryptoWorkerPool;
+  private final DigaSecurityProviders securityProviders;
 
   // initialized fields
   private Identity identity;
-  private Directory publicKeyDirectory;
-  private Subscriber subscriber;
+  // replaced together when the certificates are reloaded
+  private volatile Subscriber subscriber;
 
+  /**
+   * Either the key material or the contents and passwords of both keystores have to be given.
+   *
+   * @param privateKeyBytes - the contents of the keystore (PKCS12) with your private key
+   * @param privateKeyAlias - the alias of your private key
+   * @param privateKeyPassword - the password of the keystore with your private key
+   * @param publicKeysBytes - the contents of the keystore (PKCS12) with the insurance company
+   *     certificates
+   * @param publicKeyDirectoryPassword - the password of the keystore with the insurance company
+   *     certificates
+   * @param keyMaterial - already loaded keystores, f.e shared with the HTTP client. If set, the
+   *     keystore contents and passwords are not used.
+   * @param cryptoWorkerPool - optional. Run encryption and decryption on this pool instead of the
+   *     calling thread.
+   * @param securityProviders - optional. The JCA providers for signing, key transport and content
+   *     encryption, see {@link DigaJcaSubscriber}. Defaults to BouncyCastle for all of them.
+   * @throws SeconException
+   */
   @Builder
   public DigaSeconEncryptionFactory(
-      @NonNull byte[] privateKeyBytes,
+      byte[] privateKeyBytes,
       @NonNull String privateKeyAlias,
-      @NonNull String privateKeyPassword,
-      @NonNull byte[] publicKeysBytes,
-      @NonNull String publicKeyDirectoryPassword)
+      String privateKeyPassword,
+      byte[] publicKeysBytes,
+      String publicKeyDirectoryPassword,
+      DigaKeyMaterial keyMaterial,
+      DigaCryptoWorkerPool cryptoWorkerPool,
+      DigaSecurityProviders securityProviders)
       throws SeconException {
+    if (keyMaterial == null) {
+      Objects.requireNonNull(privateKeyBytes, "privateKeyBytes is required without keyMaterial");
+      Objects.requireNonNull(
+          privateKeyPassword, "privateKeyPassword is required without keyMaterial");
+      Objects.requireNonNull(publicKeysBytes, "publicKeysBytes is required without keyMaterial");
+      Objects.requireNonNull(
+          publicKeyDirectoryPassword, "publicKeyDirectoryPassword is required without keyMaterial");
+    }
     this.privateKeyBytes = privateKeyBytes;
     this.privateKeyAlias = privateKeyAlias;
     this.privateKeyPassword = privateKeyPassword;
     this.publicKeysBytes = publicKeysBytes;
     this.publicKeyDirectoryPassword = publicKeyDirectoryPassword;
+    this.keyMaterial = keyMaterial;
+    this.cryptoWorkerPool = cryptoWorkerPool;
+    this.securityProviders = securityProviders;
     init();
   }
 
   @Override
   public DigaEncryption.DigaEncryptionBuilder newEncryption() {
-    return DigaEncryption.builder().subscriber(subscriber);
+    return DigaEncryption.builder().subscriber(subscriber).cryptoWorkerPool(cryptoWorkerPool);
   }
 
   @Override
   public DigaDecryption.DigaDecryptionBuilder newDecryption() {
-    return DigaDecryption.builder().subscriber(subscriber);
+    return DigaDecryption.builder().subscriber(subscriber).cryptoWorkerPool(cryptoWorkerPool);
+  }
+
+  @Override
+  public Runnable prepareHealthInsuranceCertificatesReload(KeyStore healthInsuranceCertificates)
+      throws KeyStoreException {
+    // an empty keystore would make every encryption fail, so keep the previous certificates
+    if (healthInsuranceCertificates.size() == 0) {
+      throw new KeyStoreException("The health insurance certificates keystore is empty");
+    }
+    var updated = newSubscriber(SECON.directory(healthInsuranceCertificates));
+    return () -> {
+      this.subscriber = updated;
+      log.info("Reloaded the health insurance company key list");
+    };
+  }
+
+  private Subscriber newSubscriber(Directory publicKeyDirectory) {
+    return securityProviders != null
+        ? new DigaJcaSubscriber(identity, publicKeyDirectory, securityProviders)
+        : SECON.subscriber(identity, publicKeyDirectory);
   }
 
   private void init() throws SeconException {
-    this.identity =
-        SECON.identity(
-            SECON.keyStore(
-                () -> new ByteArrayInputStream(privateKeyBytes), privateKeyPassword::toCharArray),
-            privateKeyAlias,
-            privateKeyPassword::toCharArray);
-    this.publicKeyDirectory =
-        SECON.directory(
-            SECON.keyStore(
-                () -> new ByteArrayInputStream(publicKeysBytes),
-                publicKeyDirectoryPassword::toCharArray));
-    this.subscriber = SECON.subscriber(this.identity, this.publicKeyDirectory);
+    Directory publicKeyDirectory;
+    if (keyMaterial != null) {
+      this.identity = keyMaterial.identity(privateKeyAlias);
+      publicKeyDirectory = SECON.directory(keyMaterial.getHealthInsuranceCertificates());
+    } else {
+      this.identity =
+          SECON.identity(
+              SECON.keyStore(
+                  () -> new ByteArrayInputStream(privateKeyBytes), privateKeyPassword::toCharArray),
+              privateKeyAlias,
+              privateKeyPassword::toCharArray);
+      publicKeyDirectory =
+          SECON.directory(
+              SECON.keyStore(
+                  () -> new ByteArrayInputStream(publicKeysBytes),
+                  publicKeyDirectoryPassword::toCharArray));
+    }
+    this.subscriber = newSubscriber(publicKeyDirectory);
   }
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.model.DigaKeyMaterial;
+import com.alextherapeutics.diga.model.DigaSecurityProviderBenchmarkResult;
+import com.alextherapeutics.diga.model.DigaSecurityProviderBenchmarkResult.Operation;
+import com.alextherapeutics.diga.model.DigaSecurityProviders;
+import de.tk.opensource.secon.Identity;
+import de.tk.opensource.secon.SECON;
+import de.tk.opensource.secon.Verifier;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.Provider;
+import java.security.Security;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import lombok.Builder;
+import lombok.NonNull;
+
+/**
+ * Measures how fast the installed JCA security providers sign, encrypt, decrypt and verify SECON
+ * messages with your own keys, to choose the {@link DigaSecurityProviders} for your hardware.
+ *
+ * <p>Each provider is measured for each operation on its own, with BouncyCastle used for the other
+ * operations. The messages are encrypted for your own certificate, so that they can be decrypted
+ * again.
+ *
+ * <p>Run it from the command line with the private keystore (PKCS12), its password and the alias of
+ * the private key as arguments, or use {@link #run()} and {@link #fastest(List)}.
+ */
+@Builder
+public final class DigaSecurityProviderBenchmark {
+  /** The keystore with your private key. The certificates of the health insurances are not used. */
+  @NonNull private final DigaKeyMaterial keyMaterial;
+
+  /** The alias of your private key */
+  @NonNull private final String privateKeyAlias;
+
+  /**
+   * The size in bytes of the measured messages. Defaults to 16 KiB, the size of a large invoice.
+   */
+  @Builder.Default private final int contentSize = 16 * 1024;
+
+  /** The number of round trips before measuring, per provider and operation. Defaults to 20. */
+  @Builder.Default private final int warmupIterations = 20;
+
+  /** The number of measured round trips, per provider and operation. Defaults to 100. */
+  @Builder.Default private final int iterations = 100;
+
+  /** The providers to measure. Defaults to the installed providers. */
+  private final List<Provider> providers;
+
+  /**
+   * Measure each provider for each operation.
+   *
+   * @return The results, one per provider and operation
+   * @throws Exception if the private key or its certificate could not be read
+   */
+  public List<DigaSecurityProviderBenchmarkResult> run() throws Exception {
+    var identity = keyMaterial.identity(privateKeyAlias);
+    // verifying needs our own certificate in the directory, since we are also the sender
+    var ownCertificate = KeyStore.getInstance("PKCS12");
+    ownCertificate.load(null, null);
+    ownCertificate.setCertificateEntry(privateKeyAlias, identity.certificate());
+    var directory = SECON.directory(ownCertificate);
+    var content = new byte[contentSize];
+    new Random(0).nextBytes(content);
+
+    var candidates = providers != null ? providers : Arrays.asList(Security.getProviders());
+    var results = new ArrayList<DigaSecurityProviderBenchmarkResult>();
+    for (var operation : Operation.values()) {
+      for (var provider : candidates) {
+        var subscriber =
+            new DigaJcaSubscriber(identity, directory, providersFor(operation, provider));
+        results.add(measure(operation, provider, subscriber, identity, content));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Choose the fastest provider for each operation.
+   *
+   * @param results - the results of {@link #run()}
+   * @return The fastest providers, which can be given to an encryption factory
+   */
+  public static DigaSecurityProviders fastest(List<DigaSecurityProviderBenchmarkResult> results) {
+    return DigaSecurityProviders.builder()
+        .signature(fastest(results, Operation.SIGNATURE))
+        .keyTransport(fastest(results, Operation.KEY_TRANSPORT))
+        .contentEncryption(fastest(results, Operation.CONTENT_ENCRYPTION))
+        .build();
+  }
+
+  /**
+   * Print the results of a benchmark.
+   *
+   * @param args - the path of the private keystore (PKCS12), its password and the alias of the
+   *     private key. Optionally the size of the messages in bytes and the number of iterations.
+   * @throws Exception if the keystore could not be read
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.err.println(
+          "Arguments: <private keystore (PKCS12)> <password> <alias> [content size] [iterations]");
+      System.exit(1);
+    }
+    var keyStore = KeyStore.getInstance("PKCS12");
+    try (var input = Files.newInputStream(Path.of(args[0]))) {
+      keyStore.load(input, args[1].toCharArray());
+    }
+    var benchmark =
+        DigaSecurityProviderBenchmark.builder()
+            .keyMaterial(DigaKeyMaterial.of(keyStore, args[1], keyStore))
+            .privateKeyAlias(args[2]);
+    if (args.length > 3) {
+      benchmark.contentSize(Integer.parseInt(args[3]));
+    }
+    if (args.length > 4) {
+      benchmark.iterations(Integer.parseInt(args[4]));
+    }
+    var results = benchmark.build().run();
+    for (var result : results) {
+      System.out.printf(
+          "%-20s %-20s %s%n",
+          result.getOperation(),
+          result.getProvider(),
+          result.isSupported()
+              ? String.format(
+                  "sign and encrypt %.3f ms, decrypt and verify %.3f ms",
+                  result.getAverageSignAndEncryptTime().toNanos() / 1e6,
+                  result.getAverageDecryptAndVerifyTime().toNanos() / 1e6)
+              : "not supported: " + result.getFailure());
+    }
+    var fastest = fastest(results);
+    System.out.printf(
+        "Fastest: signature %s, key transport %s, content encryption %s%n",
+        name(fastest.getSignature()),
+        name(fastest.getKeyTransport()),
+        name(fastest.getContentEncryption()));
+  }
+
+  private DigaSecurityProviderBenchmarkResult measure(
+      Operation operation,
+      Provider provider,
+      DigaJcaSubscriber subscriber,
+      Identity identity,
+      byte[] content) {
+    var result =
+        DigaSecurityProviderBenchmarkResult.builder()
+            .operation(operation)
+            .provider(provider.getName());
+    try {
+      for (int i = 0; i < warmupIterations; i++) {
+        roundTrip(subscriber, identity, content, new long[2]);
+      }
+      var nanos = new long[2];
+      for (int i = 0; i < iterations; i++) {
+        roundTrip(subscriber, identity, content, nanos);
+      }
+      return result
+          .averageSignAndEncryptTime(Duration.ofNanos(nanos[0] / Math.max(1, iterations)))
+          .averageDecryptAndVerifyTime(Duration.ofNanos(nanos[1] / Math.max(1, iterations)))
+          .build();
+    } catch (Exception e) {
+      return result.failure(e.toString()).build();
+    }
+  }
+
+  // adds the time of both directions to nanos
+  private static void roundTrip(
+      DigaJcaSubscriber subscriber, Identity identity, byte[] content, long[] nanos)
+      throws Exception {
+    var start = System.nanoTime();
+    var encrypted = new ByteArrayOutputStream(content.length + 4096);
+    SECON.copy(
+        () -> new ByteArrayInputStream(content),
+        subscriber.signAndEncryptTo(() -> encrypted, identity.certificate()));
+    var encryptedAt = System.nanoTime();
+    var decrypted = new ByteArrayOutputStream(content.length);
+    SECON.copy(
+        subscriber.decryptAndVerifyFrom(
+            () -> new ByteArrayInputStream(encrypted.toByteArray()), Verifier.NULL),
+        () -> decrypted);
+    nanos[0] += encryptedAt - start;
+    nanos[1] += System.nanoTime() - encryptedAt;
+    if (!Arrays.equals(content, decrypted.toByteArray())) {
+      throw new IllegalStateException("The decrypted content differs from the original content");
+    }
+  }
+
+  private static DigaSecurityProviders providersFor(Operation operation, Provider provider) {
+    var providers = DigaSecurityProviders.builder();
+    switch (operation) {
+      case SIGNATURE -> providers.signature(provider);
+      case KEY_TRANSPORT -> providers.keyTransport(provider);
+      case CONTENT_ENCRYPTION -> providers.contentEncryption(provider);
+    }
+    return providers.build();
+  }
+
+  private static Provider fastest(
+      List<DigaSecurityProviderBenchmarkResult> results, Operation operation) {
+    return results.stream()
+        .filter(result -> result.getOperation() == operation && result.isSupported())
+        .min(Comparator.comparing(DigaSecurityProviderBenchmarkResult::getAverageTotalTime))
+        .map(result -> Security.getProvider(result.getProvider()))
+        .orElse(null);
+  }
+
+  private static String name(Provider provider) {
+    return provider != null ? provider.getName() : "BC";
+  }
+}
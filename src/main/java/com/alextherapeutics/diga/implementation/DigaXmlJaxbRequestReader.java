@@ -39,38 +39,114 @@ import java.util.stream.Collectors;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stream.StreamSource;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 
-/** A XML reader using JAXB. Depends on XML Schemas (.xsd) located in main/resources/*-xsd/ */
+/**
+ * A XML reader using JAXB. Depends on XML Schemas (.xsd) located in main/resources/*-xsd/
+ *
+ * <p>The reader can be used by many threads at the same time. JAXB unmarshallers are not
+ * thread-safe, so each response borrows one from a {@link DigaJaxbPool}.
+ */
 @Slf4j
 public class DigaXmlJaxbRequestReader implements DigaXmlRequestReader {
   private final JAXBContext codeValidationContext;
-  private final Unmarshaller codeValidationUnmarshaller;
+  private final DigaJaxbPool<Unmarshaller> codeValidationUnmarshallers;
   private final JAXBContext billingReportContext;
-  private final Unmarshaller billingReportUnmarshaller;
+  private final DigaJaxbPool<Unmarshaller> billingReportUnmarshallers;
+  private final XMLInputFactory xmlInputFactory;
+  private final boolean retainRawXmlResponseBody;
 
   public DigaXmlJaxbRequestReader() throws JAXBException {
+    this(true);
+  }
+
+  /**
+   * @param retainRawXmlResponseBody - whether the decrypted XML is kept in the responses, see
+   *     {@link AbstractDigaApiResponse#getRawXmlResponseBody()}. If not, the XML is read directly
+   *     from the given stream without holding it in memory, which saves memory for large billing
+   *     reports when the response is decrypted while it is received.
+   * @throws JAXBException
+   */
+  public DigaXmlJaxbRequestReader(boolean retainRawXmlResponseBody) throws JAXBException {
+    this(retainRawXmlResponseBody, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param retainRawXmlResponseBody - whether the decrypted XML is kept in the responses, see
+   *     {@link #DigaXmlJaxbRequestReader(boolean)}
+   * @param unmarshallerPoolSize - the maximum number of unmarshallers of each response type, which
+   *     is the number of responses of a type that can be read at the same time
+   * @throws JAXBException
+   */
+  public DigaXmlJaxbRequestReader(boolean retainRawXmlResponseBody, int unmarshallerPoolSize)
+      throws JAXBException {
+    this.retainRawXmlResponseBody = retainRawXmlResponseBody;
     codeValidationContext = JAXBContext.newInstance(PruefungFreischaltcode.class);
-    codeValidationUnmarshaller = codeValidationContext.createUnmarshaller();
+    codeValidationUnmarshallers =
+        new DigaJaxbPool<>(unmarshallerPoolSize, codeValidationContext::createUnmarshaller);
     billingReportContext = JAXBContext.newInstance(Report.class);
-    billingReportUnmarshaller = billingReportContext.createUnmarshaller();
+    billingReportUnmarshallers =
+        new DigaJaxbPool<>(unmarshallerPoolSize, billingReportContext::createUnmarshaller);
+    // the factory is only used to detect the encoding of billing reports. looking it up is slow,
+    // and once configured it can create readers from many threads
+    xmlInputFactory = XMLInputFactory.newFactory();
+    xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+  }
+
+  /**
+   * Get statistics of the unmarshallers of code validation responses.
+   *
+   * @return
+   */
+  public DigaJaxbPoolStatistics getCodeValidationUnmarshallerPoolStatistics() {
+    return codeValidationUnmarshallers.getStatistics();
+  }
+
+  /**
+   * Get statistics of the unmarshallers of billing reports.
+   *
+   * @return
+   */
+  public DigaJaxbPoolStatistics getBillingReportUnmarshallerPoolStatistics() {
+    return billingReportUnmarshallers.getStatistics();
   }
 
   @Override
   public DigaInvoiceResponse readBillingReport(InputStream decryptedReport)
       throws DigaXmlReaderException {
     try {
-      XMLStreamReader xmlStream =
-          XMLInputFactory.newInstance().createXMLStreamReader(decryptedReport);
+      XMLStreamReader xmlStream = xmlInputFactory.createXMLStreamReader(decryptedReport);
       var encoding = xmlStream.getEncoding();
       var charset = Charset.forName(encoding);
 
+      if (!retainRawXmlResponseBody) {
+        // decode with the stated encoding while reading, like the re-encoding below
+        var report =
+            (Report)
+                unmarshal(
+                    billingReportUnmarshallers,
+                    unmarshaller ->
+                        unmarshaller.unmarshal(
+                            new StreamSource(new InputStreamReader(decryptedReport, charset))));
+        return DigaInvoiceResponse.builder()
+            .hasError(!report.isValid())
+            .errors(getInvoiceErrors(report))
+            .generatedInvoice("")
+            .build();
+      }
+
       // xml is not always properly encoded despite the stated encoding in the xml
       // therefore we re-encode based on the specified encoding
       var bytes = new String(decryptedReport.readAllBytes(), charset).getBytes();
 
-      var report = (Report) billingReportUnmarshaller.unmarshal(new ByteArrayInputStream(bytes));
+      var report =
+          (Report)
+              unmarshal(
+                  billingReportUnmarshallers,
+                  unmarshaller -> unmarshaller.unmarshal(new ByteArrayInputStream(bytes)));
       return DigaInvoiceResponse.builder()
           .hasError(!report.isValid())
           .errors(getInvoiceErrors(report))
@@ -87,10 +163,11 @@ public class DigaXmlJaxbRequestReader implements DigaXmlRequestReader {
       throws DigaXmlReaderException {
     try {
 
-      var bytes = decryptedResponse.readAllBytes();
+      var bytes = retainRawXmlResponseBody ? decryptedResponse.readAllBytes() : null;
+      var input = bytes == null ? decryptedResponse : new ByteArrayInputStream(bytes);
       var response =
           (PruefungFreischaltcode)
-              codeValidationUnmarshaller.unmarshal(new ByteArrayInputStream(bytes));
+              unmarshal(codeValidationUnmarshallers, unmarshaller -> unmarshaller.unmarshal(input));
       validateCodeValidationResponse(response);
 
       // appendix 4 at
@@ -118,6 +195,16 @@ public class DigaXmlJaxbRequestReader implements DigaXmlRequestReader {
     }
   }
 
+  private static Object unmarshal(DigaJaxbPool<Unmarshaller> unmarshallers, Unmarshal unmarshal)
+      throws JAXBException {
+    var unmarshaller = unmarshallers.acquire();
+    try {
+      return unmarshal.unmarshal(unmarshaller);
+    } finally {
+      unmarshallers.release(unmarshaller);
+    }
+  }
+
   private List<DigaApiResponseError> getCodeValidationErrors(PruefungFreischaltcode request) {
     var errors = request.getFehlerinformation();
     return errors == null
@@ -220,4 +307,9 @@ public class DigaXmlJaxbRequestReader implements DigaXmlRequestReader {
             });
     return sb.toString();
   }
+
+  @FunctionalInterface
+  private interface Unmarshal {
+    Object unmarshal(Unmarshaller unmarshaller) throws JAXBException;
+  }
 }
@@ -31,9 +31,9 @@ import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Marshaller;
 import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.Date;
@@ -43,9 +43,16 @@ import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 
-/** An XML writer using JAXB. Depends on XML Schemas (.xsd) located in main/resources/*-xsd/ */
+/**
+ * An XML writer using JAXB. Depends on XML Schemas (.xsd) located in main/resources/*-xsd/
+ *
+ * <p>The writer can be used by many threads at the same time. JAXB marshallers are not thread-safe,
+ * so each request borrows one from a {@link DigaJaxbPool}.
+ */
 @Slf4j
 public class DigaXmlJaxbRequestWriter implements DigaXmlRequestWriter {
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
   /**
    * Static (non-changing between invoices) information about the DiGA being served by this client
    * and the manufacturing company used for creating invoices.
@@ -54,19 +61,75 @@ public class DigaXmlJaxbRequestWriter implements DigaXmlRequestWriter {
 
   private DatatypeFactory datatypeFactory;
 
+  private final int marshallerPoolSize;
+
   private JAXBContext codeContext;
-  private Marshaller codeMarshaller;
+  private DigaJaxbPool<Marshaller> codeMarshallers;
   private com.alextherapeutics.diga.model.generatedxml.codevalidation.ObjectFactory
       codeObjectFactory;
 
   private JAXBContext billingContext;
-  private Marshaller billingMarshaller;
+  private DigaJaxbPool<Marshaller> billingMarshallers;
   private com.alextherapeutics.diga.model.generatedxml.billing.ObjectFactory billingObjectFactory;
 
-  @Builder
+  // invariants of the diga information, computed once. the shared sub-trees are never modified
+  // after they are built, so they can be marshalled by many threads at the same time
+  private final ExchangedDocumentContextType exchangedDocumentContext;
+  private final TradePartyType sellerTradeParty;
+  private final TradePartyType payeeTradeParty;
+  private final BigDecimal netPrice;
+  private final BigDecimal taxPercent;
+  private final BigDecimal calculatedTax;
+  private final BigDecimal grandTotal;
+
+  private final DateStringCache issueDates = new DateStringCache();
+  private final DateStringCache serviceProvisionDates = new DateStringCache();
+
   public DigaXmlJaxbRequestWriter(@NonNull DigaInformation digaInformation) throws JAXBException {
+    this(digaInformation, null);
+  }
+
+  /**
+   * @param digaInformation - information about your DiGA and your company
+   * @param marshallerPoolSize - optional. The maximum number of marshallers of each request type,
+   *     which is the number of requests of a type that can be written at the same time. Defaults to
+   *     the number of available processors.
+   * @throws JAXBException
+   */
+  @Builder
+  public DigaXmlJaxbRequestWriter(
+      @NonNull DigaInformation digaInformation, Integer marshallerPoolSize) throws JAXBException {
     this.digaInformation = digaInformation;
+    this.marshallerPoolSize =
+        marshallerPoolSize == null
+            ? Runtime.getRuntime().availableProcessors()
+            : marshallerPoolSize;
     init();
+
+    exchangedDocumentContext = createExchangedDocumentContext();
+    sellerTradeParty = createTradeParty(createSellerInformation());
+    payeeTradeParty =
+        createTradeParty(
+            DigaTradeParty.builder()
+                .companyId(
+                    DigaUtils.ikNumberWithPrefix(digaInformation.getManufacturingCompanyIk()))
+                .companyIk(digaInformation.getManufacturingCompanyIk())
+                .companyName(digaInformation.getManufacturingCompanyName())
+                .build()); // creditor - this needs to be the IK of the entity that sends the
+    // invoice
+
+    // we calculate money values here
+    netPrice = digaInformation.getNetPricePerPrescription().setScale(2, RoundingMode.HALF_EVEN);
+    taxPercent =
+        digaInformation.isReverseChargeVAT()
+            ? BigDecimal.ZERO
+            : digaInformation.getApplicableVATpercent();
+    calculatedTax =
+        taxPercent
+            .divide(new BigDecimal(100))
+            .multiply(netPrice)
+            .setScale(2, RoundingMode.HALF_EVEN);
+    grandTotal = netPrice.add(calculatedTax).setScale(2, RoundingMode.HALF_EVEN);
   }
 
   @Override
@@ -99,11 +162,8 @@ public class DigaXmlJaxbRequestWriter implements DigaXmlRequestWriter {
       request.setNachrichtentyp(NachrichtentypStp.ANF);
       request.setVersion(DigaSupportedXsdVersion.DIGA_CODE_VALIDATION_VERSION.getValue());
 
-      try (var res = new ByteArrayOutputStream()) {
-        codeMarshaller.marshal(request, res);
-        return res.toByteArray();
-      }
-    } catch (JAXBException | IOException e) {
+      return marshal(codeMarshallers, request);
+    } catch (JAXBException e) {
       throw new DigaXmlWriterException(e);
     }
   }
@@ -115,16 +175,13 @@ public class DigaXmlJaxbRequestWriter implements DigaXmlRequestWriter {
     try {
 
       var invoice = billingObjectFactory.createCrossIndustryInvoiceType();
-      invoice.setExchangedDocumentContext(createExchangedDocumentContext());
+      invoice.setExchangedDocumentContext(exchangedDocumentContext);
       invoice.setExchangedDocument(createExchangedDocument(digaInvoice));
       invoice.setSupplyChainTradeTransaction(
           createSupplyChainTradeTransaction(digaInvoice, billingInformation));
       var root = billingObjectFactory.createCrossIndustryInvoice(invoice);
-      try (var res = new ByteArrayOutputStream()) {
-        billingMarshaller.marshal(root, res);
-        return res.toByteArray();
-      }
-    } catch (JAXBException | IOException e) {
+      return marshal(billingMarshallers, root);
+    } catch (JAXBException e) {
       throw new DigaXmlWriterException(e);
     }
   }
@@ -136,33 +193,70 @@ public class DigaXmlJaxbRequestWriter implements DigaXmlRequestWriter {
     try {
 
       var invoice = billingObjectFactory.createCrossIndustryInvoiceType();
-      invoice.setExchangedDocumentContext(createExchangedDocumentContext());
+      invoice.setExchangedDocumentContext(exchangedDocumentContext);
       invoice.setExchangedDocument(createInvoiceCorrectionExchangedDocument(digaCorrectionInvoice));
       invoice.setSupplyChainTradeTransaction(
           createInvoiceCorrectionSupplyChainTradeTransaction(
               digaCorrectionInvoice, billingInformation));
       var root = billingObjectFactory.createCrossIndustryInvoice(invoice);
-      try (var res = new ByteArrayOutputStream()) {
-        billingMarshaller.marshal(root, res);
-        return res.toByteArray();
-      }
-    } catch (JAXBException | IOException e) {
+      return marshal(billingMarshallers, root);
+    } catch (JAXBException e) {
       throw new DigaXmlWriterException(e);
     }
   }
 
+  /**
+   * Get statistics of the marshallers of code validation requests.
+   *
+   * @return
+   */
+  public DigaJaxbPoolStatistics getCodeMarshallerPoolStatistics() {
+    return codeMarshallers.getStatistics();
+  }
+
+  /**
+   * Get statistics of the marshallers of invoices and invoice corrections.
+   *
+   * @return
+   */
+  public DigaJaxbPoolStatistics getBillingMarshallerPoolStatistics() {
+    return billingMarshallers.getStatistics();
+  }
+
+  private static byte[] marshal(DigaJaxbPool<Marshaller> marshallers, Object request)
+      throws JAXBException {
+    var marshaller = marshallers.acquire();
+    try {
+      var res = new ByteArrayOutputStream();
+      marshaller.marshal(request, res);
+      return res.toByteArray();
+    } finally {
+      marshallers.release(marshaller);
+    }
+  }
+
+  private static Marshaller newFormattingMarshaller(JAXBContext context) throws JAXBException {
+    var marshaller = context.createMarshaller();
+    marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+    return marshaller;
+  }
+
   private void init() throws JAXBException {
     datatypeFactory = DatatypeFactory.newDefaultInstance();
 
     codeObjectFactory = new ObjectFactory();
     codeContext = JAXBContext.newInstance(PruefungFreischaltcode.class);
-    codeMarshaller = codeContext.createMarshaller();
-    codeMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+    var codeMarshallerContext = codeContext;
+    codeMarshallers =
+        new DigaJaxbPool<>(
+            marshallerPoolSize, () -> newFormattingMarshaller(codeMarshallerContext));
 
     billingObjectFactory = new com.alextherapeutics.diga.model.generatedxml.billing.ObjectFactory();
     billingContext = JAXBContext.newInstance(CrossIndustryInvoiceType.class);
-    billingMarshaller = billingContext.createMarshaller();
-    billingMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+    var billingMarshallerContext = billingContext;
+    billingMarshallers =
+        new DigaJaxbPool<>(
+            marshallerPoolSize, () -> newFormattingMarshaller(billingMarshallerContext));
   }
 
   // metadata for the document type (basically this says that it is a Xrechnung)
@@ -190,8 +284,8 @@ public class DigaXmlJaxbRequestWriter implements DigaXmlRequestWriter {
     exchangedDocument.setTypeCode(typeCode);
     exchangedDocument.setIssueDateTime(
         createDateTime(
-            digaInvoice
-                .getIssueDate())); // issuedate, make optional in billing info otherwise today
+            digaInvoice.getIssueDate(),
+            issueDates)); // issuedate, make optional in billing info otherwise today
     return exchangedDocument;
   }
 
@@ -221,7 +315,8 @@ public class DigaXmlJaxbRequestWriter implements DigaXmlRequestWriter {
     noteType.getContent().add(textType);
     exchangedDocument.getIncludedNote().add(noteType);
 
-    exchangedDocument.setIssueDateTime(createDateTime(digaCorrectionInvoice.getIssueDate()));
+    exchangedDocument.setIssueDateTime(
+        createDateTime(digaCorrectionInvoice.getIssueDate(), issueDates));
     return exchangedDocument;
   }
 
@@ -346,31 +441,7 @@ public class DigaXmlJaxbRequestWriter implements DigaXmlRequestWriter {
       DigaInvoice digaInvoice, DigaBillingInformation billingInformation) {
     var applicableHeaderTradeAgreement = billingObjectFactory.createHeaderTradeAgreementType();
     applicableHeaderTradeAgreement.setBuyerReference(createTextType("Leitweg-ID"));
-    applicableHeaderTradeAgreement.setSellerTradeParty(
-        createTradeParty(
-            DigaTradeParty.builder()
-                .companyId(
-                    DigaUtils.ikNumberWithPrefix(digaInformation.getManufacturingCompanyIk()))
-                .companyName(digaInformation.getManufacturingCompanyName())
-                .companyIk(
-                    DigaUtils.ikNumberWithoutPrefix(digaInformation.getManufacturingCompanyIk()))
-                .taxRegistration(digaInformation.getManufacturingCompanyVATRegistration())
-                .contactPerson(
-                    DigaTradeParty.DigaTradePartyContactPerson.builder()
-                        .fullName(digaInformation.getContactPersonForBilling().getFullName())
-                        .telephoneNumber(
-                            digaInformation.getContactPersonForBilling().getPhoneNumber())
-                        .emailAddress(
-                            digaInformation.getContactPersonForBilling().getEmailAddress())
-                        .build())
-                .postalAddress(
-                    DigaTradeParty.DigaTradePartyPostalAddress.builder()
-                        .postalCode(digaInformation.getCompanyTradeAddress().getPostalCode())
-                        .adressLine(digaInformation.getCompanyTradeAddress().getAdressLine())
-                        .city(digaInformation.getCompanyTradeAddress().getCity())
-                        .countryCode(digaInformation.getCompanyTradeAddress().getCountryCode())
-                        .build())
-                .build()));
+    applicableHeaderTradeAgreement.setSellerTradeParty(sellerTradeParty);
     var buyer =
         createTradeParty(
             DigaTradeParty.builder()
@@ -400,31 +471,40 @@ public class DigaXmlJaxbRequestWriter implements DigaXmlRequestWriter {
     return applicableHeaderTradeAgreement;
   }
 
+  private DigaTradeParty createSellerInformation() {
+    return DigaTradeParty.builder()
+        .companyId(DigaUtils.ikNumberWithPrefix(digaInformation.getManufacturingCompanyIk()))
+        .companyName(digaInformation.getManufacturingCompanyName())
+        .companyIk(DigaUtils.ikNumberWithoutPrefix(digaInformation.getManufacturingCompanyIk()))
+        .taxRegistration(digaInformation.getManufacturingCompanyVATRegistration())
+        .contactPerson(
+            DigaTradeParty.DigaTradePartyContactPerson.builder()
+                .fullName(digaInformation.getContactPersonForBilling().getFullName())
+                .telephoneNumber(digaInformation.getContactPersonForBilling().getPhoneNumber())
+                .emailAddress(digaInformation.getContactPersonForBilling().getEmailAddress())
+                .build())
+        .postalAddress(
+            DigaTradeParty.DigaTradePartyPostalAddress.builder()
+                .postalCode(digaInformation.getCompanyTradeAddress().getPostalCode())
+                .adressLine(digaInformation.getCompanyTradeAddress().getAdressLine())
+                .city(digaInformation.getCompanyTradeAddress().getCity())
+                .countryCode(digaInformation.getCompanyTradeAddress().getCountryCode())
+                .build())
+        .build();
+  }
+
   // time of delivery
   private HeaderTradeDeliveryType createApplicableHeaderTradeDelivery(DigaInvoice digaInvoice) {
     var applicableHeaderTradeDelivery = billingObjectFactory.createHeaderTradeDeliveryType();
     var supplyChainEvent = billingObjectFactory.createSupplyChainEventType();
-    supplyChainEvent.setOccurrenceDateTime(createDateTime(digaInvoice.getDateOfServiceProvision()));
+    supplyChainEvent.setOccurrenceDateTime(
+        createDateTime(digaInvoice.getDateOfServiceProvision(), serviceProvisionDates));
     applicableHeaderTradeDelivery.setActualDeliverySupplyChainEvent(supplyChainEvent);
     return applicableHeaderTradeDelivery;
   }
 
   // money details like price, taxes, etc
   private HeaderTradeSettlementType createApplicableHeaderTradeSettlement(DigaInvoice digaInvoice) {
-    // we calculate money values here
-    var netPrice = digaInformation.getNetPricePerPrescription().setScale(2, RoundingMode.HALF_EVEN);
-    ;
-    var taxPercent =
-        digaInformation.isReverseChargeVAT()
-            ? BigDecimal.ZERO
-            : digaInformation.getApplicableVATpercent();
-    var calculatedTax =
-        taxPercent
-            .divide(new BigDecimal(100))
-            .multiply(netPrice)
-            .setScale(2, RoundingMode.HALF_EVEN);
-    var grandTotal = netPrice.add(calculatedTax).setScale(2, RoundingMode.HALF_EVEN);
-
     var applicableHeaderTradeSettlement = billingObjectFactory.createHeaderTradeSettlementType();
 
     var specifiedTradeSettlementPaymentMeans =
@@ -468,15 +548,7 @@ public class DigaXmlJaxbRequestWriter implements DigaXmlRequestWriter {
     specifiedTradeSettlementHeaderMonetarySummation
         .getDuePayableAmount()
         .add(createAmountType(grandTotal));
-    applicableHeaderTradeSettlement.setPayeeTradeParty(
-        createTradeParty(
-            DigaTradeParty.builder()
-                .companyId(
-                    DigaUtils.ikNumberWithPrefix(digaInformation.getManufacturingCompanyIk()))
-                .companyIk(digaInformation.getManufacturingCompanyIk())
-                .companyName(digaInformation.getManufacturingCompanyName())
-                .build())); // creditor - this needs to be the IK of the entity that sends the
-    // invoice
+    applicableHeaderTradeSettlement.setPayeeTradeParty(payeeTradeParty);
     applicableHeaderTradeSettlement.setInvoiceCurrencyCode(
         createCurrencyCodeType(digaInvoice.getInvoiceCurrencyCode()));
     applicableHeaderTradeSettlement
@@ -490,14 +562,11 @@ public class DigaXmlJaxbRequestWriter implements DigaXmlRequestWriter {
     return applicableHeaderTradeSettlement;
   }
 
-  private DateTimeType createDateTime(Date date) {
-    var localdate = date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+  private DateTimeType createDateTime(Date date, DateStringCache cache) {
     var type = billingObjectFactory.createDateTimeType();
     var dateTimeString = billingObjectFactory.createDateTimeTypeDateTimeString();
     dateTimeString.setFormat("102");
-    var dateFormatPattern = "yyyyMMdd";
-
-    dateTimeString.setValue(DateTimeFormatter.ofPattern(dateFormatPattern).format(localdate));
+    dateTimeString.setValue(cache.format(date));
     type.setDateTimeString(dateTimeString);
     return type;
   }
@@ -629,6 +698,46 @@ public class DigaXmlJaxbRequestWriter implements DigaXmlRequestWriter {
     return id;
   }
 
+  /**
+   * Remembers the formatted date of the last calendar day it formatted, since most invoices written
+   * on a day share their issue date and often their date of service provision.
+   */
+  private static class DateStringCache {
+    private volatile CachedDay last;
+
+    private String format(Date date) {
+      var zone = ZoneId.systemDefault();
+      var millis = date.getTime();
+      var day = last;
+      if (day != null && day.zone.equals(zone) && millis >= day.start && millis < day.end) {
+        return day.value;
+      }
+      var localDate = Instant.ofEpochMilli(millis).atZone(zone).toLocalDate();
+      day =
+          new CachedDay(
+              zone,
+              localDate.atStartOfDay(zone).toInstant().toEpochMilli(),
+              localDate.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli(),
+              DATE_FORMAT.format(localDate));
+      last = day;
+      return day.value;
+    }
+  }
+
+  private static class CachedDay {
+    private final ZoneId zone;
+    private final long start;
+    private final long end;
+    private final String value;
+
+    private CachedDay(ZoneId zone, long start, long end, String value) {
+      this.zone = zone;
+      this.start = start;
+      this.end = end;
+      this.value = value;
+    }
+  }
+
   @Builder
   @Getter
   static class DigaTradeParty {
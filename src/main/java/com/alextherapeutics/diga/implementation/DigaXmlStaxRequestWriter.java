@@ -0,0 +1,555 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.DigaUtils;
+import com.alextherapeutics.diga.DigaXmlRequestWriter;
+import com.alextherapeutics.diga.DigaXmlWriterException;
+import com.alextherapeutics.diga.model.*;
+import com.alextherapeutics.diga.model.generatedxml.codevalidation.NachrichtentypStp;
+import com.alextherapeutics.diga.model.generatedxml.codevalidation.VerfahrenskennungStp;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import lombok.Builder;
+import lombok.NonNull;
+
+/**
+ * An XML writer which streams requests with a {@link XMLStreamWriter} instead of building and
+ * marshalling a JAXB object graph. It writes the same elements in the same order and with the same
+ * formatting as {@link DigaXmlJaxbRequestWriter}.
+ *
+ * <p>The writer can be used by many threads at the same time.
+ */
+public class DigaXmlStaxRequestWriter implements DigaXmlRequestWriter {
+  private static final byte[] XML_DECLARATION =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+          .getBytes(StandardCharsets.UTF_8);
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+  private static final String CODE_VALIDATION_NAMESPACE =
+      "http://www.gkv-datenaustausch.de/XML-Schema/EDFC0_Pruefung/3.0";
+  private static final String RAM_NAMESPACE =
+      "urn:un:unece:uncefact:data:standard:ReusableAggregateBusinessInformationEntity:100";
+  private static final String UDT_NAMESPACE =
+      "urn:un:unece:uncefact:data:standard:UnqualifiedDataType:100";
+  private static final String RSM_NAMESPACE =
+      "urn:un:unece:uncefact:data:standard:CrossIndustryInvoice:100";
+  private static final String QDT_NAMESPACE =
+      "urn:un:unece:uncefact:data:standard:QualifiedDataType:100";
+  // the prefixes chosen by jaxb
+  private static final String UDT_PREFIX = "ns2";
+  private static final String RSM_PREFIX = "ns3";
+  private static final String QDT_PREFIX = "ns4";
+
+  private static final String GUIDELINE_ID =
+      "urn:cen.eu:en16931:2017#compliant#urn:xoev-de:kosit:standard:xrechnung_2.2#conformant#urn:xoev-de:kosit:extension:xrechnung_2.2";
+
+  private final DigaInformation digaInformation;
+  private final XMLOutputFactory outputFactory;
+
+  // values which only depend on the diga information
+  private final String sellerIk;
+  private final String description;
+  private final String lineNetPrice;
+  private final String netPrice;
+  private final String taxPercent;
+  private final String calculatedTax;
+  private final String grandTotal;
+
+  /**
+   * @param digaInformation - information about your DiGA and your company
+   */
+  @Builder
+  public DigaXmlStaxRequestWriter(@NonNull DigaInformation digaInformation) {
+    this.digaInformation = digaInformation;
+    // the escaping and formatting of the built-in implementation is known to match jaxb
+    this.outputFactory = XMLOutputFactory.newDefaultFactory();
+
+    sellerIk = DigaUtils.ikNumberWithoutPrefix(digaInformation.getManufacturingCompanyIk());
+    description =
+        digaInformation.getDigaDescription() == null
+            ? "A " + digaInformation.getDigaName() + " prescription."
+            : digaInformation.getDigaDescription();
+    lineNetPrice = decimal(digaInformation.getNetPricePerPrescription());
+
+    // we calculate money values here
+    var scaledNetPrice =
+        digaInformation.getNetPricePerPrescription().setScale(2, RoundingMode.HALF_EVEN);
+    var percent =
+        digaInformation.isReverseChargeVAT()
+            ? BigDecimal.ZERO
+            : digaInformation.getApplicableVATpercent();
+    var tax =
+        percent
+            .divide(new BigDecimal(100))
+            .multiply(scaledNetPrice)
+            .setScale(2, RoundingMode.HALF_EVEN);
+    netPrice = decimal(scaledNetPrice);
+    taxPercent = decimal(percent);
+    calculatedTax = decimal(tax);
+    grandTotal = decimal(scaledNetPrice.add(tax).setScale(2, RoundingMode.HALF_EVEN));
+  }
+
+  @Override
+  public byte[] createCodeValidationRequest(DigaCodeInformation codeInformation)
+      throws DigaXmlWriterException {
+    var res = new ByteArrayOutputStream(512);
+    writeCodeValidationRequest(codeInformation, res);
+    return res.toByteArray();
+  }
+
+  @Override
+  public byte[] createBillingRequest(
+      DigaInvoice digaInvoice, DigaBillingInformation billingInformation)
+      throws DigaXmlWriterException {
+    var res = new ByteArrayOutputStream(8192);
+    writeBillingRequest(digaInvoice, billingInformation, res);
+    return res.toByteArray();
+  }
+
+  @Override
+  public byte[] createInvoiceCorrectionRequest(
+      DigaCorrectionInvoice correctionInvoice, DigaBillingInformation billingInformation)
+      throws DigaXmlWriterException {
+    var res = new ByteArrayOutputStream(8192);
+    writeInvoiceCorrectionRequest(correctionInvoice, billingInformation, res);
+    return res.toByteArray();
+  }
+
+  /**
+   * Write a code validation request to a stream, see {@link
+   * #createCodeValidationRequest(DigaCodeInformation)}.
+   *
+   * @param codeInformation
+   * @param out
+   * @throws DigaXmlWriterException
+   */
+  public void writeCodeValidationRequest(DigaCodeInformation codeInformation, OutputStream out)
+      throws DigaXmlWriterException {
+    var processIdentifier =
+        DigaUtils.isDigaTestCode(codeInformation.getFullDigaCode())
+            ? VerfahrenskennungStp.TDFC_0
+            : VerfahrenskennungStp.EDFC_0;
+    var senderIk = sellerIk;
+    var receiverIk = DigaUtils.ikNumberWithoutPrefix(codeInformation.getInsuranceCompanyIKNumber());
+    try (var xml = open(out)) {
+      xml.start("Pruefung_Freischaltcode");
+      xml.writer.writeDefaultNamespace(CODE_VALIDATION_NAMESPACE);
+      xml.attribute("version", DigaSupportedXsdVersion.DIGA_CODE_VALIDATION_VERSION.getValue());
+      xml.attribute("gueltigab", DigaSupportedXsdVersion.DIGA_CODE_VALIDATION_DATE.getValue());
+      xml.attribute("verfahrenskennung", processIdentifier.value());
+      xml.attribute("nachrichtentyp", NachrichtentypStp.ANF.value());
+      xml.attribute("absender", senderIk);
+      xml.attribute("empfaenger", receiverIk);
+      xml.start("Anfrage");
+      xml.leaf("IK_DiGA_Hersteller", senderIk);
+      xml.leaf("IK_Krankenkasse", receiverIk);
+      xml.leaf("DiGAID", digaInformation.getDigaId());
+      xml.leaf("Freischaltcode", codeInformation.getFullDigaCode());
+      xml.end();
+      xml.end();
+    } catch (XMLStreamException e) {
+      throw new DigaXmlWriterException(e);
+    }
+  }
+
+  /**
+   * Write an invoice to a stream, see {@link #createBillingRequest(DigaInvoice,
+   * DigaBillingInformation)}.
+   *
+   * @param digaInvoice
+   * @param billingInformation
+   * @param out
+   * @throws DigaXmlWriterException
+   */
+  public void writeBillingRequest(
+      DigaInvoice digaInvoice, DigaBillingInformation billingInformation, OutputStream out)
+      throws DigaXmlWriterException {
+    try (var xml = open(out)) {
+      startInvoice(xml);
+      writeExchangedDocument(xml, digaInvoice.getInvoiceId(), "380", null, digaInvoice);
+      writeSupplyChainTradeTransaction(xml, digaInvoice, billingInformation, null);
+      xml.end();
+    } catch (XMLStreamException e) {
+      throw new DigaXmlWriterException(e);
+    }
+  }
+
+  /**
+   * Write an invoice correction to a stream, see {@link
+   * #createInvoiceCorrectionRequest(DigaCorrectionInvoice, DigaBillingInformation)}.
+   *
+   * @param correctionInvoice
+   * @param billingInformation
+   * @param out
+   * @throws DigaXmlWriterException
+   */
+  public void writeInvoiceCorrectionRequest(
+      DigaCorrectionInvoice correctionInvoice,
+      DigaBillingInformation billingInformation,
+      OutputStream out)
+      throws DigaXmlWriterException {
+    var correctionCode = correctionInvoice.getCorrectionCode();
+    if (correctionInvoice.getCorrectionCodeReason() != null
+        && correctionInvoice.getCorrectionCodeReason().length > 0) {
+      // like the jaxb writer
+      correctionCode += ":" + correctionInvoice.getCorrectionCode();
+    }
+    var invoice =
+        DigaInvoice.builder()
+            .invoiceId(correctionInvoice.getInvoiceId())
+            .validatedDigaCode(correctionInvoice.getValidatedDigaCode())
+            .digavEid(correctionInvoice.getDigavEid())
+            .dateOfServiceProvision(correctionInvoice.getDateOfServiceProvision())
+            .issueDate(correctionInvoice.getIssueDate())
+            .invoiceCurrencyCode(correctionInvoice.getInvoiceCurrencyCode())
+            .build();
+    try (var xml = open(out)) {
+      startInvoice(xml);
+      writeExchangedDocument(xml, invoice.getInvoiceId(), "384", correctionCode, invoice);
+      writeSupplyChainTradeTransaction(
+          xml, invoice, billingInformation, correctionInvoice.getReferenceInvoiceId());
+      xml.end();
+    } catch (XMLStreamException e) {
+      throw new DigaXmlWriterException(e);
+    }
+  }
+
+  private IndentingWriter open(OutputStream out) throws XMLStreamException {
+    try {
+      out.write(XML_DECLARATION);
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+    return new IndentingWriter(outputFactory.createXMLStreamWriter(out, "UTF-8"));
+  }
+
+  // the root element and the metadata for the document type (basically this says that it is a
+  // Xrechnung)
+  private void startInvoice(IndentingWriter xml) throws XMLStreamException {
+    xml.start(RSM_PREFIX, "CrossIndustryInvoice", RSM_NAMESPACE);
+    xml.writer.writeDefaultNamespace(RAM_NAMESPACE);
+    xml.writer.writeNamespace(UDT_PREFIX, UDT_NAMESPACE);
+    xml.writer.writeNamespace(RSM_PREFIX, RSM_NAMESPACE);
+    xml.writer.writeNamespace(QDT_PREFIX, QDT_NAMESPACE);
+    xml.start(RSM_PREFIX, "ExchangedDocumentContext", RSM_NAMESPACE);
+    xml.start("GuidelineSpecifiedDocumentContextParameter");
+    xml.leaf("ID", GUIDELINE_ID);
+    xml.end();
+    xml.end();
+  }
+
+  // metadata for the document
+  private void writeExchangedDocument(
+      IndentingWriter xml, String invoiceId, String typeCode, String note, DigaInvoice digaInvoice)
+      throws XMLStreamException {
+    xml.start(RSM_PREFIX, "ExchangedDocument", RSM_NAMESPACE);
+    xml.leaf("ID", invoiceId);
+    xml.leaf("TypeCode", typeCode);
+    writeDateTime(xml, "IssueDateTime", digaInvoice.getIssueDate());
+    if (note != null) {
+      xml.start("IncludedNote");
+      xml.leaf("Content", note);
+      xml.end();
+    }
+    xml.end();
+  }
+
+  // the data of the actual transaction being invoiced
+  private void writeSupplyChainTradeTransaction(
+      IndentingWriter xml,
+      DigaInvoice digaInvoice,
+      DigaBillingInformation billingInformation,
+      String referenceInvoiceId)
+      throws XMLStreamException {
+    xml.start(RSM_PREFIX, "SupplyChainTradeTransaction", RSM_NAMESPACE);
+    writeIncludedSupplyChainTradeLineItem(xml, digaInvoice);
+    writeApplicableHeaderTradeAgreement(xml, billingInformation);
+    xml.start("ApplicableHeaderTradeDelivery");
+    xml.start("ActualDeliverySupplyChainEvent");
+    writeDateTime(xml, "OccurrenceDateTime", digaInvoice.getDateOfServiceProvision());
+    xml.end();
+    xml.end();
+    writeApplicableHeaderTradeSettlement(xml, digaInvoice, referenceInvoiceId);
+    xml.end();
+  }
+
+  // what has been sold (the diga id, the patient code etc) and some price/tax info on it
+  private void writeIncludedSupplyChainTradeLineItem(IndentingWriter xml, DigaInvoice digaInvoice)
+      throws XMLStreamException {
+    xml.start("IncludedSupplyChainTradeLineItem");
+    xml.start("AssociatedDocumentLineDocument");
+    xml.leaf("LineID", "1");
+    xml.end();
+
+    xml.start("SpecifiedTradeProduct");
+    xml.leaf("GlobalID", "schemeID", "XR01", digaInvoice.getDigavEid());
+    xml.leaf("BuyerAssignedID", "schemeID", "XR02", digaInvoice.getValidatedDigaCode());
+    xml.leaf("Name", digaInformation.getDigaName());
+    xml.leaf("Description", description);
+    xml.end();
+
+    xml.start("SpecifiedLineTradeAgreement");
+    xml.start("NetPriceProductTradePrice");
+    xml.leaf("ChargeAmount", lineNetPrice);
+    xml.end();
+    xml.end();
+
+    xml.start("SpecifiedLineTradeDelivery");
+    xml.leaf("BilledQuantity", "unitCode", "C62", "1");
+    xml.end();
+
+    xml.start("SpecifiedLineTradeSettlement");
+    xml.start("ApplicableTradeTax");
+    xml.leaf("TypeCode", "VAT");
+    xml.leaf("CategoryCode", digaInformation.isReverseChargeVAT() ? "AE" : "S");
+    xml.leaf("RateApplicablePercent", taxPercent);
+    xml.end();
+    xml.start("SpecifiedTradeSettlementLineMonetarySummation");
+    xml.leaf("LineTotalAmount", lineNetPrice);
+    xml.end();
+    xml.end();
+    xml.end();
+  }
+
+  // information on seller and buyer
+  private void writeApplicableHeaderTradeAgreement(
+      IndentingWriter xml, DigaBillingInformation billingInformation) throws XMLStreamException {
+    xml.start("ApplicableHeaderTradeAgreement");
+    xml.leaf("BuyerReference", "Leitweg-ID");
+
+    xml.start("SellerTradeParty");
+    xml.leaf("ID", "schemeID", "XR03", sellerIk);
+    xml.leaf("Name", digaInformation.getManufacturingCompanyName());
+    var contactPerson = digaInformation.getContactPersonForBilling();
+    xml.start("DefinedTradeContact");
+    xml.leaf("PersonName", contactPerson.getFullName());
+    xml.start("TelephoneUniversalCommunication");
+    xml.leaf("CompleteNumber", contactPerson.getPhoneNumber());
+    xml.end();
+    xml.start("EmailURIUniversalCommunication");
+    xml.leaf("URIID", contactPerson.getEmailAddress());
+    xml.end();
+    xml.end();
+    var address = digaInformation.getCompanyTradeAddress();
+    writePostalTradeAddress(
+        xml,
+        address.getPostalCode(),
+        address.getAdressLine(),
+        address.getCity(),
+        address.getCountryCode());
+    if (digaInformation.getManufacturingCompanyVATRegistration() != null) {
+      xml.start("SpecifiedTaxRegistration");
+      xml.leaf("ID", "schemeID", "VA", digaInformation.getManufacturingCompanyVATRegistration());
+      xml.end();
+    }
+    xml.end();
+
+    xml.start("BuyerTradeParty");
+    xml.leaf("ID", "schemeID", "XR03", billingInformation.getInsuranceCompanyIKNumber());
+    xml.leaf("Name", billingInformation.getInsuranceCompanyName());
+    if (digaInformation.isReverseChargeVAT()) {
+      xml.start("SpecifiedLegalOrganization");
+      xml.leaf(
+          "ID",
+          "schemeID",
+          "XR03",
+          DigaUtils.ikNumberWithoutPrefix(billingInformation.getInsuranceCompanyIKNumber()));
+      xml.leaf("TradingBusinessName", billingInformation.getInsuranceCompanyName().trim());
+      xml.end();
+    }
+    writePostalTradeAddress(
+        xml,
+        billingInformation.getBuyerCompanyPostalCode(),
+        billingInformation.getBuyerCompanyAddressLine(),
+        billingInformation.getBuyerCompanyCity(),
+        billingInformation.getBuyerCompanyCountryCode());
+    xml.end();
+    xml.end();
+  }
+
+  // money details like price, taxes, etc
+  private void writeApplicableHeaderTradeSettlement(
+      IndentingWriter xml, DigaInvoice digaInvoice, String referenceInvoiceId)
+      throws XMLStreamException {
+    xml.start("ApplicableHeaderTradeSettlement");
+    xml.leaf("InvoiceCurrencyCode", digaInvoice.getInvoiceCurrencyCode());
+    // creditor - this needs to be the IK of the entity that sends the invoice
+    xml.start("PayeeTradeParty");
+    xml.leaf("ID", "schemeID", "XR03", digaInformation.getManufacturingCompanyIk());
+    xml.leaf("Name", digaInformation.getManufacturingCompanyName());
+    xml.end();
+    xml.start("SpecifiedTradeSettlementPaymentMeans");
+    // 57 means "Standing agreement"
+    xml.leaf("TypeCode", "57");
+    xml.end();
+    xml.start("ApplicableTradeTax");
+    xml.leaf("CalculatedAmount", calculatedTax);
+    xml.leaf("TypeCode", "VAT");
+    xml.leaf("BasisAmount", netPrice);
+    xml.leaf("CategoryCode", digaInformation.isReverseChargeVAT() ? "AE" : "S");
+    xml.leaf("RateApplicablePercent", taxPercent);
+    xml.end();
+    // bitmarck diga validator fails if this is not empty. we are not allowed a due date or a
+    // description, it must have description with emptytext
+    xml.start("SpecifiedTradePaymentTerms");
+    xml.leaf("Description", "");
+    xml.end();
+    xml.start("SpecifiedTradeSettlementHeaderMonetarySummation");
+    xml.leaf("LineTotalAmount", netPrice);
+    xml.leaf("TaxBasisTotalAmount", netPrice);
+    xml.leaf("TaxTotalAmount", "currencyID", digaInvoice.getInvoiceCurrencyCode(), calculatedTax);
+    xml.leaf("GrandTotalAmount", grandTotal);
+    xml.leaf("DuePayableAmount", grandTotal);
+    xml.end();
+    if (referenceInvoiceId != null) {
+      xml.start("InvoiceReferencedDocument");
+      xml.leaf("IssuerAssignedID", referenceInvoiceId);
+      xml.end();
+    }
+    xml.end();
+  }
+
+  private static void writePostalTradeAddress(
+      IndentingWriter xml, String postalCode, String lineOne, String cityName, String countryId)
+      throws XMLStreamException {
+    xml.start("PostalTradeAddress");
+    xml.leaf("PostcodeCode", postalCode);
+    xml.leaf("LineOne", lineOne);
+    xml.leaf("CityName", cityName);
+    xml.leaf("CountryID", countryId);
+    xml.end();
+  }
+
+  private static void writeDateTime(IndentingWriter xml, String name, Date date)
+      throws XMLStreamException {
+    xml.start(name);
+    xml.start(UDT_PREFIX, "DateTimeString", UDT_NAMESPACE);
+    xml.attribute("format", "102");
+    xml.text(DATE_FORMAT.format(date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate()));
+    xml.endLeaf();
+    xml.end();
+  }
+
+  // like jakarta.xml.bind.DatatypeConverter#printDecimal
+  private static String decimal(BigDecimal value) {
+    return value == null ? null : value.toPlainString();
+  }
+
+  /**
+   * Writes elements indented like a formatting JAXB marshaller, with each element on its own line
+   * and text on the line of its element.
+   */
+  private static class IndentingWriter implements AutoCloseable {
+    private static final String INDENT = "    ";
+
+    private final XMLStreamWriter writer;
+    private int depth = 0;
+    private boolean started = false;
+
+    private IndentingWriter(XMLStreamWriter writer) {
+      this.writer = writer;
+    }
+
+    private void start(String localName) throws XMLStreamException {
+      indent();
+      writer.writeStartElement(localName);
+      depth++;
+    }
+
+    private void start(String prefix, String localName, String namespace)
+        throws XMLStreamException {
+      indent();
+      writer.writeStartElement(prefix, localName, namespace);
+      depth++;
+    }
+
+    private void attribute(String name, String value) throws XMLStreamException {
+      writer.writeAttribute(name, value);
+    }
+
+    private void text(String text) throws XMLStreamException {
+      writer.writeCharacters(text);
+    }
+
+    private void end() throws XMLStreamException {
+      depth--;
+      indent();
+      writer.writeEndElement();
+    }
+
+    // ends an element which only contains text
+    private void endLeaf() throws XMLStreamException {
+      depth--;
+      writer.writeEndElement();
+    }
+
+    // an element which only contains text. jaxb writes null text as an empty element
+    private void leaf(String localName, String text) throws XMLStreamException {
+      leaf(localName, null, null, text);
+    }
+
+    private void leaf(String localName, String attributeName, String attributeValue, String text)
+        throws XMLStreamException {
+      indent();
+      if (text == null) {
+        writer.writeEmptyElement(localName);
+      } else {
+        writer.writeStartElement(localName);
+      }
+      if (attributeValue != null) {
+        writer.writeAttribute(attributeName, attributeValue);
+      }
+      if (text != null) {
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+      }
+    }
+
+    // the root element follows the newline after the xml declaration
+    private void indent() throws XMLStreamException {
+      if (!started) {
+        started = true;
+        return;
+      }
+      writer.writeCharacters("\n");
+      for (int i = 0; i < depth; i++) {
+        writer.writeCharacters(INDENT);
+      }
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+      writer.writeCharacters("\n");
+      writer.writeEndDocument();
+      writer.flush();
+      writer.close();
+    }
+  }
+}
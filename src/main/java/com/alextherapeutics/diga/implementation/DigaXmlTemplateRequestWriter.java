@@ -0,0 +1,383 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.DigaUtils;
+import com.alextherapeutics.diga.DigaXmlRequestWriter;
+import com.alextherapeutics.diga.DigaXmlWriterException;
+import com.alextherapeutics.diga.model.DigaBillingInformation;
+import com.alextherapeutics.diga.model.DigaCodeInformation;
+import com.alextherapeutics.diga.model.DigaCorrectionInvoice;
+import com.alextherapeutics.diga.model.DigaInformation;
+import com.alextherapeutics.diga.model.DigaInvoice;
+import com.alextherapeutics.diga.model.DigaInvoiceMethod;
+import jakarta.xml.bind.JAXBException;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.function.BiFunction;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An XML writer which writes invoices from a template instead of building and marshalling a JAXB
+ * object graph for each invoice.
+ *
+ * <p>Most of an invoice only depends on the {@link DigaInformation}. The template is compiled once
+ * by writing an invoice with placeholder values with a {@link DigaXmlJaxbRequestWriter} and
+ * splitting its output at the placeholders into static byte segments. Each invoice then only
+ * escapes and splices in its own values, f.e the invoice ID, the dates, the DiGA code and the
+ * buyer, so the output is byte for byte the same as the output of the JAXB writer.
+ *
+ * <p>The template is checked against the JAXB writer when it is compiled. If it does not match, or
+ * if an invoice has values the template cannot write (f.e a missing DiGAVEID or control
+ * characters), the invoice is written by the JAXB writer instead. Code validation requests and
+ * invoice corrections are always written by the JAXB writer.
+ */
+@Slf4j
+public class DigaXmlTemplateRequestWriter implements DigaXmlRequestWriter {
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+  private static final LocalDate PLACEHOLDER_ISSUE_DATE = LocalDate.of(1901, 2, 3);
+  private static final LocalDate PLACEHOLDER_SERVICE_DATE = LocalDate.of(1902, 3, 4);
+
+  private final DigaInformation digaInformation;
+  private final DigaXmlJaxbRequestWriter jaxbWriter;
+  private final Template billingTemplate;
+
+  public DigaXmlTemplateRequestWriter(@NonNull DigaInformation digaInformation)
+      throws JAXBException {
+    this(digaInformation, null);
+  }
+
+  /**
+   * @param digaInformation - information about your DiGA and your company
+   * @param jaxbWriter - optional. The writer used to compile the template and to write requests the
+   *     template cannot write. Defaults to a new {@link DigaXmlJaxbRequestWriter}.
+   * @throws JAXBException
+   */
+  @Builder
+  public DigaXmlTemplateRequestWriter(
+      @NonNull DigaInformation digaInformation, DigaXmlJaxbRequestWriter jaxbWriter)
+      throws JAXBException {
+    this.digaInformation = digaInformation;
+    this.jaxbWriter =
+        jaxbWriter == null
+            ? DigaXmlJaxbRequestWriter.builder().digaInformation(digaInformation).build()
+            : jaxbWriter;
+    this.billingTemplate = compileBillingTemplate();
+  }
+
+  @Override
+  public byte[] createCodeValidationRequest(DigaCodeInformation codeInformation)
+      throws DigaXmlWriterException {
+    return jaxbWriter.createCodeValidationRequest(codeInformation);
+  }
+
+  @Override
+  public byte[] createBillingRequest(
+      DigaInvoice digaInvoice, DigaBillingInformation billingInformation)
+      throws DigaXmlWriterException {
+    var written =
+        billingTemplate == null ? null : billingTemplate.write(digaInvoice, billingInformation);
+    return written == null
+        ? jaxbWriter.createBillingRequest(digaInvoice, billingInformation)
+        : written;
+  }
+
+  @Override
+  public byte[] createInvoiceCorrectionRequest(
+      DigaCorrectionInvoice correctionInvoice, DigaBillingInformation billingInformation)
+      throws DigaXmlWriterException {
+    return jaxbWriter.createInvoiceCorrectionRequest(correctionInvoice, billingInformation);
+  }
+
+  /**
+   * Whether invoices are written from the template. If not, the template did not match the output
+   * of the JAXB writer for the {@link DigaInformation}, and all invoices are written by the JAXB
+   * writer.
+   *
+   * @return
+   */
+  public boolean isUsingTemplate() {
+    return billingTemplate != null;
+  }
+
+  private Template compileBillingTemplate() {
+    try {
+      var placeholderInvoice =
+          DigaInvoice.builder()
+              .invoiceId(Value.INVOICE_ID.placeholder)
+              .issueDate(toDate(PLACEHOLDER_ISSUE_DATE))
+              .dateOfServiceProvision(toDate(PLACEHOLDER_SERVICE_DATE))
+              .validatedDigaCode(Value.DIGA_CODE.placeholder)
+              .digavEid(Value.DIGAVEID.placeholder)
+              .invoiceCurrencyCode(Value.CURRENCY.placeholder)
+              .build();
+      var placeholderBuyer =
+          DigaBillingInformation.builder()
+              .insuranceCompanyIKNumber("IK" + Value.BUYER_IK_WITHOUT_PREFIX.placeholder)
+              .insuranceCompanyName(" " + Value.BUYER_NAME_TRIMMED.placeholder + " ")
+              .buyerCompanyPostalCode(Value.BUYER_POSTAL_CODE.placeholder)
+              .buyerCompanyAddressLine(Value.BUYER_ADDRESS_LINE.placeholder)
+              .buyerCompanyCity(Value.BUYER_CITY.placeholder)
+              .buyerCompanyCountryCode(Value.BUYER_COUNTRY_CODE.placeholder)
+              .buyerCompanyCreditorIk("")
+              .clearingCenterIKNumber("")
+              .endpoint("")
+              .buyerInvoicingMethod(DigaInvoiceMethod.API)
+              .build();
+      var template =
+          Template.compile(
+              jaxbWriter.createBillingRequest(placeholderInvoice, placeholderBuyer),
+              digaInformation.isReverseChargeVAT());
+
+      // check the template against the jaxb writer with values which have to be escaped
+      var checkInvoice =
+          DigaInvoice.builder()
+              .invoiceId("<check & \"invoice\">")
+              .issueDate(toDate(LocalDate.of(2021, 1, 2)))
+              .dateOfServiceProvision(toDate(LocalDate.of(2021, 1, 1)))
+              .validatedDigaCode("ABCDEFGHIJKLMNOP")
+              .digavEid("12345000")
+              .invoiceCurrencyCode("E\"U&R")
+              .build();
+      var checkBuyer =
+          DigaBillingInformation.builder()
+              .insuranceCompanyIKNumber("IK123456789")
+              .insuranceCompanyName(" Krankenkasse & Söhne > ")
+              .buyerCompanyPostalCode("12345")
+              .buyerCompanyAddressLine("Straße 1")
+              .buyerCompanyCity("Berlin")
+              .buyerCompanyCountryCode("DE")
+              .buyerCompanyCreditorIk("")
+              .clearingCenterIKNumber("")
+              .endpoint("")
+              .buyerInvoicingMethod(DigaInvoiceMethod.API)
+              .build();
+      if (template == null
+          || !Arrays.equals(
+              jaxbWriter.createBillingRequest(checkInvoice, checkBuyer),
+              template.write(checkInvoice, checkBuyer))) {
+        log.warn(
+            "The invoice template does not match the JAXB writer, invoices will be written by the JAXB writer");
+        return null;
+      }
+      return template;
+    } catch (DigaXmlWriterException | RuntimeException e) {
+      log.warn(
+          "Could not compile the invoice template, invoices will be written by the JAXB writer", e);
+      return null;
+    }
+  }
+
+  private static Date toDate(LocalDate date) {
+    return Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
+  }
+
+  private static String formatDate(Date date) {
+    return DATE_FORMAT.format(date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate());
+  }
+
+  /** The values of an invoice which are spliced into the template. */
+  private enum Value {
+    INVOICE_ID((invoice, buyer) -> invoice.getInvoiceId()),
+    ISSUE_DATE(
+        DATE_FORMAT.format(PLACEHOLDER_ISSUE_DATE),
+        (invoice, buyer) ->
+            invoice.getIssueDate() == null ? null : formatDate(invoice.getIssueDate())),
+    SERVICE_DATE(
+        DATE_FORMAT.format(PLACEHOLDER_SERVICE_DATE),
+        (invoice, buyer) ->
+            invoice.getDateOfServiceProvision() == null
+                ? null
+                : formatDate(invoice.getDateOfServiceProvision())),
+    DIGA_CODE((invoice, buyer) -> invoice.getValidatedDigaCode()),
+    DIGAVEID((invoice, buyer) -> invoice.getDigavEid()),
+    CURRENCY((invoice, buyer) -> invoice.getInvoiceCurrencyCode()),
+    // the buyer ik is written as given, and without prefix in the legal organization for reverse
+    // charge VAT. the placeholder of the ik as given is "IK" followed by the one without prefix
+    BUYER_IK_WITHOUT_PREFIX(
+        (invoice, buyer) ->
+            buyer.getInsuranceCompanyIKNumber() == null
+                ? null
+                : DigaUtils.ikNumberWithoutPrefix(buyer.getInsuranceCompanyIKNumber())),
+    BUYER_IK(
+        "IK" + BUYER_IK_WITHOUT_PREFIX.placeholder,
+        (invoice, buyer) -> buyer.getInsuranceCompanyIKNumber()),
+    // likewise the name is written as given and trimmed
+    BUYER_NAME_TRIMMED(
+        (invoice, buyer) ->
+            buyer.getInsuranceCompanyName() == null
+                ? null
+                : buyer.getInsuranceCompanyName().trim()),
+    BUYER_NAME(
+        " " + BUYER_NAME_TRIMMED.placeholder + " ",
+        (invoice, buyer) -> buyer.getInsuranceCompanyName()),
+    BUYER_POSTAL_CODE((invoice, buyer) -> buyer.getBuyerCompanyPostalCode()),
+    BUYER_ADDRESS_LINE((invoice, buyer) -> buyer.getBuyerCompanyAddressLine()),
+    BUYER_CITY((invoice, buyer) -> buyer.getBuyerCompanyCity()),
+    BUYER_COUNTRY_CODE((invoice, buyer) -> buyer.getBuyerCompanyCountryCode());
+
+    private final String placeholder;
+    private final BiFunction<DigaInvoice, DigaBillingInformation, String> getter;
+
+    Value(BiFunction<DigaInvoice, DigaBillingInformation, String> getter) {
+      // private use characters, which are written unescaped and do not appear in an invoice
+      this.placeholder = "\uE000" + ordinal() + "\uE001";
+      this.getter = getter;
+    }
+
+    Value(String placeholder, BiFunction<DigaInvoice, DigaBillingInformation, String> getter) {
+      this.placeholder = placeholder;
+      this.getter = getter;
+    }
+  }
+
+  /** A value spliced into the template, and whether it is written in an attribute. */
+  private static class Slot {
+    private final Value value;
+    private final boolean attribute;
+
+    private Slot(Value value, boolean attribute) {
+      this.value = value;
+      this.attribute = attribute;
+    }
+  }
+
+  /** Static byte segments with a slot between each pair of segments. */
+  private static class Template {
+    private final byte[][] segments;
+    private final Slot[] slots;
+    private final int staticLength;
+
+    private Template(List<byte[]> segments, List<Slot> slots) {
+      this.segments = segments.toArray(new byte[0][]);
+      this.slots = slots.toArray(new Slot[0]);
+      this.staticLength = segments.stream().mapToInt(segment -> segment.length).sum();
+    }
+
+    // splits the output of the jaxb writer at the placeholders, longest placeholders first where
+    // one contains another. returns null if a value is not found exactly where it is expected
+    private static Template compile(byte[] output, boolean reverseChargeVat) {
+      var xml = new String(output, StandardCharsets.UTF_8);
+      var placeholders = new ArrayList<>(List.of(Value.values()));
+      placeholders.sort((a, b) -> b.placeholder.length() - a.placeholder.length());
+
+      var segments = new ArrayList<byte[]>();
+      var slots = new ArrayList<Slot>();
+      var found = new EnumMap<Value, Integer>(Value.class);
+      var segmentStart = 0;
+      for (int i = 0; i < xml.length(); ) {
+        Value match = null;
+        for (var value : placeholders) {
+          if (xml.startsWith(value.placeholder, i)) {
+            match = value;
+            break;
+          }
+        }
+        if (match == null) {
+          i++;
+          continue;
+        }
+        segments.add(xml.substring(segmentStart, i).getBytes(StandardCharsets.UTF_8));
+        slots.add(new Slot(match, i > 0 && xml.charAt(i - 1) == '"'));
+        found.merge(match, 1, Integer::sum);
+        i += match.placeholder.length();
+        segmentStart = i;
+      }
+      segments.add(xml.substring(segmentStart).getBytes(StandardCharsets.UTF_8));
+
+      for (var value : Value.values()) {
+        var expected =
+            value == Value.CURRENCY
+                ? 2
+                : value == Value.BUYER_IK_WITHOUT_PREFIX || value == Value.BUYER_NAME_TRIMMED
+                    ? (reverseChargeVat ? 1 : 0)
+                    : 1;
+        if (found.getOrDefault(value, 0) != expected) {
+          return null;
+        }
+      }
+      return new Template(segments, slots);
+    }
+
+    // returns null if the invoice has to be written by the jaxb writer
+    private byte[] write(DigaInvoice invoice, DigaBillingInformation buyer) {
+      var values = new byte[slots.length][];
+      var length = staticLength;
+      for (int i = 0; i < slots.length; i++) {
+        var value = slots[i].value.getter.apply(invoice, buyer);
+        if (value == null) {
+          return null;
+        }
+        var escaped = escape(value, slots[i].attribute);
+        if (escaped == null) {
+          return null;
+        }
+        values[i] = escaped.getBytes(StandardCharsets.UTF_8);
+        length += values[i].length;
+      }
+      var out = new ByteArrayOutputStream(length);
+      for (int i = 0; i < slots.length; i++) {
+        out.writeBytes(segments[i]);
+        out.writeBytes(values[i]);
+      }
+      out.writeBytes(segments[slots.length]);
+      return out.toByteArray();
+    }
+
+    // escapes like the jaxb writer. returns null for characters which it may write differently
+    private static String escape(String value, boolean attribute) {
+      StringBuilder escaped = null;
+      for (int i = 0; i < value.length(); i++) {
+        var c = value.charAt(i);
+        String replacement;
+        if (c == '&') {
+          replacement = "&amp;";
+        } else if (c == '<') {
+          replacement = "&lt;";
+        } else if (c == '>') {
+          replacement = "&gt;";
+        } else if (c == '"' && attribute) {
+          replacement = "&quot;";
+        } else if (c < 0x20 || Character.isSurrogate(c)) {
+          return null;
+        } else {
+          if (escaped != null) {
+            escaped.append(c);
+          }
+          continue;
+        }
+        if (escaped == null) {
+          escaped = new StringBuilder(value.length() + 16).append(value, 0, i);
+        }
+        escaped.append(replacement);
+      }
+      return escaped == null ? value : escaped.toString();
+    }
+  }
+}
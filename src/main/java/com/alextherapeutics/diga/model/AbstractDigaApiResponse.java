@@ -26,7 +26,7 @@ import lombok.experimental.SuperBuilder;
 import org.apache.commons.io.IOUtils;
 
 /** Common fields for all responses from the DiGA API */
-@SuperBuilder
+@SuperBuilder(toBuilder = true)
 @Data
 public abstract class AbstractDigaApiResponse {
   /**
@@ -58,9 +58,20 @@ public abstract class AbstractDigaApiResponse {
    */
   private byte[] rawXmlRequestBody;
 
-  /** The raw **encrypted** XML body. */
+  /**
+   * The raw **encrypted** XML body. Also set if sending the request failed after it was encrypted,
+   * so it can be sent again without encrypting it again, see {@link DigaResendRequest}. Not set if
+   * the API answered but its response could not be decrypted or read, since the request must not be
+   * sent twice.
+   */
   private byte[] rawXmlRequestBodyEncrypted;
 
+  /** The process code the request was sent with */
+  private DigaProcessCode processCode;
+
+  /** The IK of the clearing center that the request was sent to */
+  private String receivingClearingCenterIk;
+
   /** The name of the company that the request was sent to */
   private String receivingInsuranceCompanyName;
 
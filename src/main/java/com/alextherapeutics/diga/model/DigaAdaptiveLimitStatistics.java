@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+import java.time.Duration;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+/** A snapshot of the adaptive concurrency limit of a single DiGA API endpoint (host). */
+@Builder
+@Getter
+public class DigaAdaptiveLimitStatistics {
+  /** The host of the endpoint, f.e diga.apimisc.de */
+  @NonNull private final String host;
+
+  /** The current limit of concurrent requests to the endpoint. */
+  private final int limit;
+
+  /** The number of requests currently being sent to the endpoint. */
+  private final int inFlightRequests;
+
+  /**
+   * The lowest recent latency of the endpoint, which the latency of each request is compared to, or
+   * null if no request has succeeded yet.
+   */
+  private final Duration minLatency;
+
+  /** The number of requests to the endpoint that succeeded. */
+  private final long successfulRequests;
+
+  /** The number of requests to the endpoint that failed. */
+  private final long failedRequests;
+
+  /** The number of requests that waited too long for the limit and were never sent. */
+  private final long rejectedRequests;
+}
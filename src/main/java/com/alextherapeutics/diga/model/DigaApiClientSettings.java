@@ -18,7 +18,10 @@
 
 package com.alextherapeutics.diga.model;
 
+import com.alextherapeutics.diga.DigaCodeValidationCache;
+import com.alextherapeutics.diga.DigaCryptoWorkerPool;
 import java.io.InputStream;
+import java.util.concurrent.Executor;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.NonNull;
@@ -53,4 +56,103 @@ public class DigaApiClientSettings {
 
   /** Password to the health insurance companies key store file */
   @NonNull private final String healthInsurancePublicKeyStorePassword;
+
+  /**
+   * Optional. The executor which runs the asynchronous methods of the client, f.e {@link
+   * com.alextherapeutics.diga.DigaApiClient#validateDigaCodeAsync(String)}. Defaults to {@link
+   * java.util.concurrent.ForkJoinPool#commonPool()}.
+   */
+  private final Executor executor;
+
+  /**
+   * Optional. Run the asynchronous methods of the client on virtual threads, one per request,
+   * instead of on {@link #executor}. Requires Java 21 or later. Defaults to false. The executor is
+   * shut down when the client is closed.
+   */
+  @Builder.Default private final boolean useVirtualThreads = false;
+
+  /**
+   * Optional. The maximum number of concurrent requests sent to a single DiGA API endpoint by the
+   * batch methods of the client, f.e {@link
+   * com.alextherapeutics.diga.DigaApiClient#validateDigaCodes(java.util.Collection)}. Defaults to
+   * 4.
+   */
+  @Builder.Default private final int maxConcurrentRequestsPerEndpoint = 4;
+
+  /**
+   * Optional. The limits of concurrent requests, queued requests and connections for each DiGA API
+   * endpoint used by the default HTTP client. Defaults to {@link DigaEndpointBulkheadSettings}
+   * defaults.
+   */
+  private final DigaEndpointBulkheadSettings endpointBulkheadSettings;
+
+  /**
+   * Optional. A cache of successful code validation responses, f.e {@link
+   * com.alextherapeutics.diga.implementation.DigaCodeValidationLruCache}. Defaults to no cache.
+   */
+  private final DigaCodeValidationCache codeValidationCache;
+
+  /**
+   * Optional. Encrypt requests while they are written to the HTTP request instead of into memory
+   * first. With a crypto worker pool, the request is still encrypted into memory on the pool and
+   * only then written to the HTTP request on the sending thread. Defaults to false.
+   */
+  @Builder.Default private final boolean streamingEncryption = false;
+
+  /**
+   * Optional. Whether the encrypted request body is kept in the responses when using streaming
+   * encryption. Defaults to true.
+   */
+  @Builder.Default private final boolean retainEncryptedRequestBody = true;
+
+  /**
+   * Optional. Decrypt and read responses while they are received instead of receiving and
+   * decrypting them into memory first. Defaults to false.
+   */
+  @Builder.Default private final boolean streamingDecryption = false;
+
+  /**
+   * Optional. Whether the decrypted XML response body is kept in the responses. Defaults to true.
+   * Together with streaming decryption, not keeping it means a response is never held in memory as
+   * a whole.
+   */
+  @Builder.Default private final boolean retainRawXmlResponseBody = true;
+
+  /**
+   * Optional. How the XML request bodies are written, f.e {@link DigaXmlRequestWriterType#TEMPLATE}
+   * to write invoices from a precompiled template. Defaults to {@link
+   * DigaXmlRequestWriterType#JAXB}.
+   */
+  @Builder.Default
+  private final DigaXmlRequestWriterType xmlRequestWriterType = DigaXmlRequestWriterType.JAXB;
+
+  /**
+   * Optional. Read the health insurance company certificates once at startup and check that there
+   * is one for each clearing center in the health insurance directory, see {@link
+   * com.alextherapeutics.diga.implementation.DigaIndexedEncryptionFactory}. Defaults to false.
+   */
+  @Builder.Default private final boolean preloadHealthInsuranceCertificates = false;
+
+  /**
+   * Optional. Verify the signature and the certificate chain of the signer of each response, and
+   * fail the response if the signer certificate is not in the health insurance company
+   * certificates. Implies {@link #preloadHealthInsuranceCertificates}, since the signer
+   * certificates are looked up in the indexed certificates, see {@link
+   * com.alextherapeutics.diga.implementation.DigaCertificateChainVerifier}. Defaults to false.
+   */
+  @Builder.Default private final boolean verifyResponseSignatures = false;
+
+  /**
+   * Optional. A pool of threads to run the signing, encryption, decryption and verification on
+   * instead of the threads sending the requests, see {@link
+   * com.alextherapeutics.diga.DigaCryptoWorkerPool}. Defaults to no pool.
+   */
+  private final DigaCryptoWorkerPool cryptoWorkerPool;
+
+  /**
+   * Optional. The JCA providers for signing, key transport and content encryption, f.e chosen with
+   * {@link com.alextherapeutics.diga.implementation.DigaSecurityProviderBenchmark}. Defaults to
+   * BouncyCastle, like SECON.
+   */
+  private final DigaSecurityProviders securityProviders;
 }
@@ -18,12 +18,15 @@
 
 package com.alextherapeutics.diga.model;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.NonNull;
 
 /** A HTTP request to a DiGA API endpoint. */
-@Builder
 @Getter
 public class DigaApiHttpRequest {
   private final String mediaType = "multipart/form-data";
@@ -43,6 +46,80 @@ public class DigaApiHttpRequest {
    */
   @NonNull private final String recipientIK;
 
-  /** The encrypted XML data request body which should be sent with the request. */
-  @NonNull private final byte[] encryptedContent;
+  /**
+   * The encrypted XML data request body which should be sent with the request. Either this or
+   * {@link #encryptedContentWriter} is set.
+   */
+  private final byte[] encryptedContent;
+
+  /**
+   * Writes the encrypted XML data request body while the request is sent, without buffering it. Set
+   * instead of {@link #encryptedContent} when the client uses streaming encryption.
+   */
+  private final ContentWriter encryptedContentWriter;
+
+  /**
+   * @throws IllegalArgumentException if not exactly one of encryptedContent and
+   *     encryptedContentWriter is set
+   */
+  @Builder
+  private DigaApiHttpRequest(
+      @NonNull DigaProcessCode processCode,
+      @NonNull String url,
+      @NonNull String senderIK,
+      @NonNull String recipientIK,
+      byte[] encryptedContent,
+      ContentWriter encryptedContentWriter) {
+    if ((encryptedContent == null) == (encryptedContentWriter == null)) {
+      throw new IllegalArgumentException(
+          "Exactly one of encryptedContent and encryptedContentWriter has to be set");
+    }
+    this.processCode = processCode;
+    this.url = url;
+    this.senderIK = senderIK;
+    this.recipientIK = recipientIK;
+    this.encryptedContent = encryptedContent;
+    this.encryptedContentWriter = encryptedContentWriter;
+  }
+
+  /**
+   * The encrypted XML data request body. If the request uses streaming encryption, the body is
+   * encrypted into memory on each call, so HTTP clients which support it should use {@link
+   * #writeEncryptedContentTo(OutputStream)} instead.
+   *
+   * @return
+   */
+  public byte[] getEncryptedContent() {
+    if (encryptedContent != null) {
+      return encryptedContent;
+    }
+    var output = new ByteArrayOutputStream();
+    try {
+      encryptedContentWriter.writeTo(output);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * Write the encrypted XML data request body to an output stream, f.e the body of the HTTP
+   * request. The output stream is not closed.
+   *
+   * @param output
+   * @throws IOException if the body could not be encrypted or written
+   */
+  public void writeEncryptedContentTo(OutputStream output) throws IOException {
+    if (encryptedContentWriter != null) {
+      encryptedContentWriter.writeTo(output);
+    } else {
+      output.write(encryptedContent);
+    }
+  }
+
+  /** Writes content to an output stream. */
+  @FunctionalInterface
+  public interface ContentWriter {
+    void writeTo(OutputStream output) throws IOException;
+  }
 }
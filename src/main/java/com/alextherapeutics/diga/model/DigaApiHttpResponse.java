@@ -45,7 +45,8 @@ public class DigaApiHttpResponse {
 
   /**
    * The body contained in the request. This will consist of XML data encrypted with your
-   * certificate, which needs to be decrypted using your private key.
+   * certificate, which needs to be decrypted using your private key. Not set if the body was
+   * streamed to a {@link com.alextherapeutics.diga.DigaApiHttpResponseHandler} instead.
    */
-  @NonNull private final byte[] encryptedBody;
+  private final byte[] encryptedBody;
 }
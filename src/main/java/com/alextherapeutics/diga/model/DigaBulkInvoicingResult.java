@@ -0,0 +1,63 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+import java.time.Duration;
+import java.util.List;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+/** The result of sending many invoices at once using a bulk invoicer. */
+@Builder
+@Getter
+public class DigaBulkInvoicingResult {
+  /** The responses to each invoice, in the same order as the invoices were given. */
+  @NonNull private final List<DigaInvoiceResponse> responses;
+
+  /** The number of invoices which were successfully sent to and accepted by the API. */
+  private final int successfulInvoices;
+
+  /**
+   * The number of invoices which have to be sent manually, see {@link
+   * DigaInvoiceResponse#isRequiresManualAction()}.
+   */
+  private final int manualActionInvoices;
+
+  /** The number of invoices whose responses contain errors. */
+  private final int failedInvoices;
+
+  /** How long it took to handle all invoices. */
+  @NonNull private final Duration duration;
+
+  /**
+   * The largest total size in bytes of encrypted invoices which were prepared but waiting to be
+   * sent at the same time.
+   */
+  private final long maxEncryptedAheadBytes;
+
+  /**
+   * The total number of invoices handled.
+   *
+   * @return
+   */
+  public int getTotalInvoices() {
+    return responses.size();
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+import java.util.Set;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Which clearing centers in the health insurance directory have a certificate in the health
+ * insurance company key list, and which certificates were looked up without being found since.
+ */
+@Builder
+@Getter
+public class DigaCertificateCoverageReport {
+  /** The number of certificates in the key list. */
+  private final int certificates;
+
+  /** The IKs of the clearing centers with a certificate. */
+  @NonNull private final Set<String> coveredClearingCenters;
+
+  /**
+   * The IKs of the clearing centers without a certificate. Requests to these clearing centers can
+   * not be encrypted, f.e because the key list is outdated.
+   */
+  @NonNull private final Set<String> missingClearingCenters;
+
+  /** The number of lookups during encryption which did not find a certificate. */
+  private final long lookupMisses;
+
+  /** The IKs which were looked up during encryption without finding a certificate. */
+  @NonNull private final Set<String> missedIks;
+
+  /**
+   * The share of clearing centers with a certificate, between 0 and 1.
+   *
+   * @return
+   */
+  public double getCoverage() {
+    var clearingCenters = coveredClearingCenters.size() + missingClearingCenters.size();
+    return clearingCenters == 0 ? 1 : (double) coveredClearingCenters.size() / clearingCenters;
+  }
+}
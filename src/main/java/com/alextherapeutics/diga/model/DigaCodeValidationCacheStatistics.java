@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/** A snapshot of the statistics of a code validation cache. */
+@Builder
+@Getter
+public class DigaCodeValidationCacheStatistics {
+  /** The number of responses in the cache. */
+  private final int size;
+
+  /** The maximum number of responses in the cache. */
+  private final int maxSize;
+
+  /** The number of lookups that found a response. */
+  private final long hits;
+
+  /** The number of lookups that did not find a response, including expired ones. */
+  private final long misses;
+
+  /** The number of responses removed to make room for new ones. */
+  private final long evictions;
+
+  /** The number of responses removed because they were older than the time to live. */
+  private final long expirations;
+
+  /**
+   * The share of lookups that found a response, between 0 and 1.
+   *
+   * @return
+   */
+  public double getHitRate() {
+    var lookups = hits + misses;
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+}
@@ -18,6 +18,7 @@
 
 package com.alextherapeutics.diga.model;
 
+import java.util.ArrayList;
 import java.util.Date;
 import lombok.Data;
 import lombok.experimental.SuperBuilder;
@@ -27,7 +28,7 @@ import lombok.experimental.SuperBuilder;
  * object interacted with by several interfaces: Contains information from both the HTTP response as
  * well as the XML response, and the original request.
  */
-@SuperBuilder
+@SuperBuilder(toBuilder = true)
 @Data
 public class DigaCodeValidationResponse extends AbstractDigaApiResponse {
   /** The code which was validated. This field is only set if validation was successful. */
@@ -42,4 +43,25 @@ public class DigaCodeValidationResponse extends AbstractDigaApiResponse {
 
   // TODO figure out what this translation means ("tag der leistungserbringung" from "antwort")
   private Date dayOfServiceProvision;
+
+  /**
+   * Create a copy of this response that can be changed without affecting this one, f.e to hand a
+   * shared or cached response to several callers.
+   *
+   * @return
+   */
+  public DigaCodeValidationResponse copy() {
+    return toBuilder()
+        .errors(new ArrayList<>(getErrors()))
+        .rawXmlResponseBody(copy(getRawXmlResponseBody()))
+        .rawXmlRequestBody(copy(getRawXmlRequestBody()))
+        .rawXmlRequestBodyEncrypted(copy(getRawXmlRequestBodyEncrypted()))
+        .dayOfServiceProvision(
+            dayOfServiceProvision == null ? null : new Date(dayOfServiceProvision.getTime()))
+        .build();
+  }
+
+  private static byte[] copy(byte[] bytes) {
+    return bytes == null ? null : bytes.clone();
+  }
 }
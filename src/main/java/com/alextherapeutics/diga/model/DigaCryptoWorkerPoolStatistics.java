@@ -0,0 +1,59 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+import java.time.Duration;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+/** A snapshot of the tasks run by a {@link com.alextherapeutics.diga.DigaCryptoWorkerPool}. */
+@Builder
+@Getter
+public class DigaCryptoWorkerPoolStatistics {
+  /** The number of worker threads. */
+  private final int threads;
+
+  /** The number of tasks currently running. */
+  private final int activeTasks;
+
+  /** The number of tasks currently waiting for a worker. */
+  private final int queuedTasks;
+
+  /** The highest number of tasks observed waiting for a worker. */
+  private final int maxQueuedTasks;
+
+  /** The number of tasks that have completed, successfully or not. */
+  private final long completedTasks;
+
+  /** The number of completed tasks that threw an exception. */
+  private final long failedTasks;
+
+  /** The number of tasks that were rejected because the queue was full or the pool was closed. */
+  private final long rejectedTasks;
+
+  /** The average time a task waited for a worker. */
+  @NonNull private final Duration averageQueueTime;
+
+  /** The average time a worker spent on a task. */
+  @NonNull private final Duration averageServiceTime;
+
+  /** The longest time a worker spent on a task. */
+  @NonNull private final Duration maxServiceTime;
+}
@@ -18,11 +18,16 @@
 
 package com.alextherapeutics.diga.model;
 
+import com.alextherapeutics.diga.DigaCryptoWorkerPool;
 import com.alextherapeutics.diga.DigaDecryptionException;
 import de.tk.opensource.secon.*;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 import lombok.Builder;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
@@ -34,8 +39,28 @@ public class DigaDecryption {
   /** The decrypting subscriber */
   @NonNull private final Subscriber subscriber;
 
-  /** The body to decrypt */
-  @NonNull private final byte[] decryptionTarget;
+  /** The body to decrypt. Either this or the decryption source has to be set. */
+  private final byte[] decryptionTarget;
+
+  /**
+   * A stream of the body to decrypt, f.e directly from the HTTP response. Used if no decryption
+   * target is set.
+   */
+  private final InputStream decryptionSource;
+
+  /**
+   * Optional. The pool to run {@link #decrypt()} on instead of the calling thread. The stream of
+   * {@link #decryptAsStream()} is decrypted by the thread reading it.
+   */
+  private final DigaCryptoWorkerPool cryptoWorkerPool;
+
+  /**
+   * Optional. Verifies the certificate of the signer of the content, f.e a {@link
+   * com.alextherapeutics.diga.implementation.DigaCertificateChainVerifier}. If set, the decryption
+   * fails if the signer certificate is not found or not valid. If not set, the signature is only
+   * checked if the signer certificate is found, and the certificate itself is not verified.
+   */
+  private final Verifier verifier;
 
   /**
    * Decrypt the content
@@ -45,19 +70,40 @@ public class DigaDecryption {
    * @throws SeconException
    */
   public ByteArrayOutputStream decrypt() throws DigaDecryptionException {
+    if (cryptoWorkerPool == null) {
+      return decryptOnCurrentThread();
+    }
+    try {
+      return cryptoWorkerPool.run(this::decryptOnCurrentThread);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof DigaDecryptionException cause) {
+        throw cause;
+      }
+      throw new DigaDecryptionException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DigaDecryptionException(e);
+    } catch (RejectedExecutionException e) {
+      throw new DigaDecryptionException(e);
+    }
+  }
+
+  private ByteArrayOutputStream decryptOnCurrentThread() throws DigaDecryptionException {
     try {
       try (var outputStream = new ByteArrayOutputStream()) {
-        try (var inputStream = new ByteArrayInputStream(decryptionTarget)) {
+        try (var inputStream = openDecryptionTarget()) {
           SECON.copy(
-              subscriber.decryptAndVerifyFrom(() -> inputStream, Verifier.NULL),
+              subscriber.decryptAndVerifyFrom(() -> inputStream, verifierOrNull()),
               () -> outputStream);
           return outputStream;
         } catch (CertificateNotFoundException e) {
+          if (verifier != null) {
+            throw e;
+          }
           // there seems to be something wrong in the key list from itsg which means some
           // certificates have the wrong serial number on returning a response. in the future
           // hopefully this is not a necessary catch
-          log.debug(
-              "Failed to validate sender certificate after (successfully) finishing decrypting the content.\n Since we wouldnt get this far without the server and us having the correct private and public keys for eachother, we pass the decrypted content as a success.");
+          logSenderCertificateNotFound();
           return outputStream;
         }
       }
@@ -65,4 +111,64 @@ public class DigaDecryption {
       throw new DigaDecryptionException(e);
     }
   }
+
+  /**
+   * Decrypt the content while it is read, without holding the encrypted or decrypted content in
+   * memory.
+   *
+   * <p>The signature of the content is verified when the returned stream is closed, so it has to be
+   * closed after reading. Like {@link #decrypt()}, a sender certificate missing from the
+   * certificate list is not treated as an error unless a {@link #verifier} is set.
+   *
+   * @return A stream of the decrypted content
+   * @throws DigaDecryptionException
+   */
+  public InputStream decryptAsStream() throws DigaDecryptionException {
+    try {
+      var decrypted =
+          subscriber.decryptAndVerifyFrom(this::openDecryptionTarget, verifierOrNull()).call();
+      return verifier != null ? decrypted : new DecryptedInputStream(decrypted);
+    } catch (SeconException e) {
+      throw new DigaDecryptionException(e);
+    }
+  }
+
+  private Verifier verifierOrNull() {
+    return verifier != null ? verifier : Verifier.NULL;
+  }
+
+  private InputStream openDecryptionTarget() throws IOException {
+    if (decryptionTarget != null) {
+      return new ByteArrayInputStream(decryptionTarget);
+    }
+    if (decryptionSource != null) {
+      return decryptionSource;
+    }
+    throw new IOException("Neither a decryption target nor a decryption source was given");
+  }
+
+  private static void logSenderCertificateNotFound() {
+    log.debug(
+        "Failed to validate sender certificate after (successfully) finishing decrypting the content.\n Since we wouldnt get this far without the server and us having the correct private and public keys for eachother, we pass the decrypted content as a success.");
+  }
+
+  // secon verifies the signature when the decrypting stream is closed and wraps a missing sender
+  // certificate in an IOException, which is ignored here for the same reason as in decrypt()
+  private static final class DecryptedInputStream extends FilterInputStream {
+    private DecryptedInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } catch (IOException e) {
+        if (!(e.getCause() instanceof CertificateNotFoundException)) {
+          throw e;
+        }
+        logSenderCertificateNotFound();
+      }
+    }
+  }
 }
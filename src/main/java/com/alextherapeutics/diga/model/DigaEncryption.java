@@ -18,6 +18,7 @@
 
 package com.alextherapeutics.diga.model;
 
+import com.alextherapeutics.diga.DigaCryptoWorkerPool;
 import com.alextherapeutics.diga.DigaEncryptionException;
 import de.tk.opensource.secon.SECON;
 import de.tk.opensource.secon.SeconException;
@@ -25,9 +26,13 @@ import de.tk.opensource.secon.Subscriber;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 import lombok.Builder;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 
 /** Attempt to encrypt an inputstream using SECON */
 @Builder
@@ -42,22 +47,71 @@ public class DigaEncryption {
   /** The alias of the key in the public key directory */
   @NonNull private final String recipientAlias;
 
+  /** Optional. The pool to run the encryption on instead of the calling thread. */
+  private final DigaCryptoWorkerPool cryptoWorkerPool;
+
   /**
    * Encrypt the contents as a byte array output stream
    *
    * @return
    */
   public ByteArrayOutputStream encrypt() throws DigaEncryptionException {
+    if (cryptoWorkerPool == null) {
+      return encryptToBuffer();
+    }
     try {
-      try (var input = new ByteArrayInputStream(encryptionTarget)) {
-        try (var output = new ByteArrayOutputStream()) {
-          SECON.copy(
-              () -> new ByteArrayInputStream(input.readAllBytes()),
-              subscriber.signAndEncryptTo(() -> output, recipientAlias));
-          return output;
-        }
+      return cryptoWorkerPool.run(this::encryptToBuffer);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof DigaEncryptionException cause) {
+        throw cause;
       }
-    } catch (IOException | SeconException e) {
+      throw new DigaEncryptionException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DigaEncryptionException(e);
+    } catch (RejectedExecutionException e) {
+      throw new DigaEncryptionException(e);
+    }
+  }
+
+  /**
+   * Encrypt the contents directly into an output stream, f.e the body of a HTTP request, without
+   * buffering the encrypted content. The output stream is not closed.
+   *
+   * <p>With a crypto worker pool, the contents are encrypted into a buffer on the pool and the
+   * buffer is written to the output stream on the calling thread. A slow output, f.e the network,
+   * then does not occupy a worker, and an interrupted caller does not leave a worker writing to the
+   * output stream.
+   *
+   * @param output - the stream to write the encrypted content to
+   * @throws DigaEncryptionException
+   */
+  public void encryptTo(OutputStream output) throws DigaEncryptionException {
+    if (cryptoWorkerPool == null) {
+      encryptOnCurrentThread(output);
+      return;
+    }
+    var encrypted = encrypt();
+    try {
+      encrypted.writeTo(output);
+    } catch (IOException e) {
+      throw new DigaEncryptionException(e);
+    }
+  }
+
+  private ByteArrayOutputStream encryptToBuffer() throws DigaEncryptionException {
+    // the encrypted content is a bit larger than the input, so size the buffer to avoid growing it
+    var output = new ByteArrayOutputStream(encryptionTarget.length + 4096);
+    encryptOnCurrentThread(output);
+    return output;
+  }
+
+  private void encryptOnCurrentThread(OutputStream output) throws DigaEncryptionException {
+    try {
+      SECON.copy(
+          () -> new ByteArrayInputStream(encryptionTarget),
+          subscriber.signAndEncryptTo(() -> CloseShieldOutputStream.wrap(output), recipientAlias));
+    } catch (SeconException e) {
       throw new DigaEncryptionException(e);
     }
   }
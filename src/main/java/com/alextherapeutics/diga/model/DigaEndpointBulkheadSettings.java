@@ -0,0 +1,52 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+import java.time.Duration;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Limits for the requests sent to a single DiGA API endpoint (host), so that one slow endpoint can
+ * not use up all threads and connections of the HTTP client.
+ */
+@Builder
+@Getter
+public class DigaEndpointBulkheadSettings {
+  /** The maximum number of requests sent to the endpoint at the same time. Defaults to 4. */
+  @Builder.Default private final int maxConcurrentRequests = 4;
+
+  /**
+   * The maximum number of requests waiting for one of the concurrent request slots of the endpoint.
+   * Requests above this limit are rejected immediately. Defaults to 32.
+   */
+  @Builder.Default private final int maxQueuedRequests = 32;
+
+  /**
+   * The maximum time a request waits for a concurrent request slot before it is rejected. Defaults
+   * to 2 minutes.
+   */
+  @Builder.Default private final Duration maxQueueWaitTime = Duration.ofMinutes(2);
+
+  /** The maximum number of idle connections kept open to the endpoint. Defaults to 4. */
+  @Builder.Default private final int maxIdleConnections = 4;
+
+  /** How long idle connections to the endpoint are kept open. Defaults to 5 minutes. */
+  @Builder.Default private final Duration keepAliveDuration = Duration.ofMinutes(5);
+}
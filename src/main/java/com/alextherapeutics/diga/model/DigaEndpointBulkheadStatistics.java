@@ -0,0 +1,52 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+/** A snapshot of the requests sent to a single DiGA API endpoint (host) by the HTTP client. */
+@Builder
+@Getter
+public class DigaEndpointBulkheadStatistics {
+  /** The host of the endpoint, f.e diga.bitmarck-daten.de */
+  @NonNull private final String host;
+
+  /** The settings used for the endpoint. */
+  @NonNull private final DigaEndpointBulkheadSettings settings;
+
+  /** The number of requests currently being sent to the endpoint. */
+  private final int activeRequests;
+
+  /** The number of requests currently waiting for a concurrent request slot. */
+  private final int queuedRequests;
+
+  /** The number of requests to the endpoint that have completed, successfully or not. */
+  private final long completedRequests;
+
+  /** The number of completed requests that failed. */
+  private final long failedRequests;
+
+  /**
+   * The number of requests that were rejected because the queue was full or because they waited too
+   * long.
+   */
+  private final long rejectedRequests;
+}
@@ -24,7 +24,7 @@ import lombok.NonNull;
 import lombok.experimental.SuperBuilder;
 
 /** A response to an invoice request to the DiGA API (#RE0) */
-@SuperBuilder
+@SuperBuilder(toBuilder = true)
 @Data
 public class DigaInvoiceResponse extends AbstractDigaApiResponse {
   /**
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+import java.time.Duration;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * A snapshot of the use of a pool of JAXB marshallers or unmarshallers, see {@link
+ * com.alextherapeutics.diga.implementation.DigaJaxbPool}.
+ */
+@Builder
+@Getter
+public class DigaJaxbPoolStatistics {
+  /** The maximum number of marshallers or unmarshallers in the pool. */
+  private final int maxSize;
+
+  /** The number of marshallers or unmarshallers created so far. */
+  private final int created;
+
+  /** The number currently in use. */
+  private final int inUse;
+
+  /** The number of times one was taken from the pool. */
+  private final long acquisitions;
+
+  /** The number of times all of them were in use, so one had to be waited for. */
+  private final long waits;
+
+  /** The average time waited for one, over all acquisitions. */
+  @NonNull private final Duration averageWaitTime;
+
+  /** The longest time waited for one. */
+  @NonNull private final Duration maxWaitTime;
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+import de.tk.opensource.secon.Identity;
+import de.tk.opensource.secon.SECON;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Your private key and the health insurance company certificates, loaded once and shared by the
+ * encryption factory and the HTTP client.
+ *
+ * <p>Reading from a PKCS12 keystore is slow on purpose, since its password is stretched with many
+ * iterations, both when loading the keystore and when decrypting a private key from it. Both the
+ * encryption factory and the HTTP client need the same two keystores, so instead of giving each of
+ * them the keystore contents to load, load the key material once and give it to their builders, f.e
+ * {@link com.alextherapeutics.diga.implementation.DigaSeconEncryptionFactory} and {@link
+ * com.alextherapeutics.diga.implementation.DigaOkHttpClient}.
+ *
+ * <p>The private keys are decrypted once when creating the key material. The encryption uses them
+ * through {@link #identity(String)} instead of decrypting the key again for every request. The HTTP
+ * client decrypts the key once more when it sets up its TLS key manager.
+ *
+ * <p>The keystores must not be changed after creating the key material.
+ */
+@Getter
+public final class DigaKeyMaterial {
+  /** The keystore (PKCS12) with your private key. */
+  @NonNull private final KeyStore privateKeyStore;
+
+  /** The password of the keystore with your private key, which is also the password of the key. */
+  @NonNull private final String privateKeyStorePassword;
+
+  /** The keystore (PKCS12) with the health insurance company certificates. */
+  @NonNull private final KeyStore healthInsuranceCertificates;
+
+  // the decrypted private keys and their certificates by alias
+  @Getter(AccessLevel.NONE)
+  private final Map<String, KeyStore.PrivateKeyEntry> privateKeys;
+
+  private DigaKeyMaterial(
+      @NonNull KeyStore privateKeyStore,
+      @NonNull String privateKeyStorePassword,
+      @NonNull KeyStore healthInsuranceCertificates)
+      throws GeneralSecurityException {
+    this.privateKeyStore = privateKeyStore;
+    this.privateKeyStorePassword = privateKeyStorePassword;
+    this.healthInsuranceCertificates = healthInsuranceCertificates;
+    this.privateKeys = decryptPrivateKeys(privateKeyStore, privateKeyStorePassword);
+  }
+
+  /**
+   * Get the identity of a private key for the encryption, which uses the private key decrypted when
+   * creating the key material.
+   *
+   * @param alias - the alias of the private key in the keystore
+   * @return
+   */
+  public Identity identity(@NonNull String alias) {
+    var privateKey = privateKeys.get(alias);
+    if (privateKey == null) {
+      // let SECON report the missing key like it does for any other keystore
+      return SECON.identity(privateKeyStore, alias, privateKeyStorePassword::toCharArray);
+    }
+    return new Identity() {
+      @Override
+      public PrivateKey privateKey() {
+        return privateKey.getPrivateKey();
+      }
+
+      @Override
+      public X509Certificate certificate() {
+        return (X509Certificate) privateKey.getCertificate();
+      }
+
+      @Override
+      public Optional<PrivateKey> privateKey(X509CertSelector selector) {
+        // like SECON, look for the recipient's key among all keys in the keystore
+        return privateKeys.values().stream()
+            .filter(entry -> selector.match(entry.getCertificate()))
+            .map(KeyStore.PrivateKeyEntry::getPrivateKey)
+            .findFirst();
+      }
+    };
+  }
+
+  /**
+   * Load the key material from the contents of the keystores.
+   *
+   * @param privateKeyStoreContent - the contents of the keystore (PKCS12) with your private key
+   * @param privateKeyStorePassword - the password of the keystore with your private key
+   * @param healthInsuranceCertificatesContent - the contents of the keystore (PKCS12) with the
+   *     health insurance company certificates
+   * @param healthInsuranceCertificatesPassword - the password of the keystore with the health
+   *     insurance company certificates
+   * @return
+   * @throws IOException if a keystore could not be read, f.e because of a wrong password
+   * @throws GeneralSecurityException if a keystore could not be loaded or a private key could not
+   *     be decrypted
+   */
+  public static DigaKeyMaterial load(
+      @NonNull byte[] privateKeyStoreContent,
+      @NonNull String privateKeyStorePassword,
+      @NonNull byte[] healthInsuranceCertificatesContent,
+      @NonNull String healthInsuranceCertificatesPassword)
+      throws IOException, GeneralSecurityException {
+    return new DigaKeyMaterial(
+        loadKeyStore(privateKeyStoreContent, privateKeyStorePassword),
+        privateKeyStorePassword,
+        loadKeyStore(healthInsuranceCertificatesContent, healthInsuranceCertificatesPassword));
+  }
+
+  /**
+   * Create key material from keystores which are already loaded.
+   *
+   * @param privateKeyStore - the keystore with your private key
+   * @param privateKeyStorePassword - the password of the keystore with your private key
+   * @param healthInsuranceCertificates - the keystore with the health insurance company
+   *     certificates
+   * @return
+   * @throws GeneralSecurityException if a private key could not be decrypted
+   */
+  public static DigaKeyMaterial of(
+      KeyStore privateKeyStore,
+      String privateKeyStorePassword,
+      KeyStore healthInsuranceCertificates)
+      throws GeneralSecurityException {
+    return new DigaKeyMaterial(
+        privateKeyStore, privateKeyStorePassword, healthInsuranceCertificates);
+  }
+
+  private static Map<String, KeyStore.PrivateKeyEntry> decryptPrivateKeys(
+      KeyStore keyStore, String password) throws GeneralSecurityException {
+    var privateKeys = new HashMap<String, KeyStore.PrivateKeyEntry>();
+    var protection = new KeyStore.PasswordProtection(password.toCharArray());
+    for (var alias : Collections.list(keyStore.aliases())) {
+      if (keyStore.entryInstanceOf(alias, KeyStore.PrivateKeyEntry.class)) {
+        privateKeys.put(alias, (KeyStore.PrivateKeyEntry) keyStore.getEntry(alias, protection));
+      }
+    }
+    return Map.copyOf(privateKeys);
+  }
+
+  private static KeyStore loadKeyStore(byte[] content, String password)
+      throws IOException, GeneralSecurityException {
+    var keyStore = KeyStore.getInstance("PKCS12");
+    keyStore.load(new ByteArrayInputStream(content), password.toCharArray());
+    return keyStore;
+  }
+}
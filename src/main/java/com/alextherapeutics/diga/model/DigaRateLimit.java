@@ -0,0 +1,36 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/** A rate limit of requests, f.e to a single clearing center (Abrechnungsstelle). */
+@Builder
+@Getter
+public class DigaRateLimit {
+  /** The average number of requests allowed per second. */
+  private final double requestsPerSecond;
+
+  /**
+   * The number of requests which can be sent at once after a period without requests. Defaults to
+   * 1, meaning requests are evenly spaced.
+   */
+  @Builder.Default private final int burst = 1;
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * An already encrypted request to send again, f.e after the endpoint of an insurance company was
+ * down. Sending it again skips creating and encrypting the XML request.
+ *
+ * <p>Create it from a failed response with {@link #fromResponse(AbstractDigaApiResponse)}, or from
+ * an encrypted request body and routing information you persisted yourself. Only requests which
+ * failed to be sent can be sent again. Once the API answered a request, f.e with an error or a
+ * response which could not be decrypted, sending it again would f.e bill the same invoice twice.
+ */
+@Builder
+@Getter
+public class DigaResendRequest {
+  /**
+   * The encrypted XML request body, see {@link
+   * AbstractDigaApiResponse#getRawXmlRequestBodyEncrypted()}
+   */
+  @NonNull private final byte[] encryptedContent;
+
+  /** The process code the request was sent with. */
+  @NonNull private final DigaProcessCode processCode;
+
+  /** The API endpoint (host) of the insurance company, f.e diga.bitmarck-daten.de */
+  @NonNull private final String endpoint;
+
+  /** The IK of the clearing center the request is sent to. */
+  @NonNull private final String clearingCenterIk;
+
+  /** Optional. The XML request body before encryption, added to the response. */
+  private final byte[] rawXmlRequestBody;
+
+  /** Optional. The IK of the insurance company, added to the response. */
+  private final String insuranceCompanyIk;
+
+  /** Optional. The name of the insurance company, added to the response. */
+  private final String insuranceCompanyName;
+
+  /**
+   * Whether the request of a response can be sent again with {@link
+   * #fromResponse(AbstractDigaApiResponse)}: it failed to be sent after it was encrypted, f.e
+   * because the endpoint was down, and the encrypted request and routing information were kept.
+   *
+   * @param response - the response to a request
+   * @return
+   */
+  public static boolean isResendable(@NonNull AbstractDigaApiResponse response) {
+    return response.isHasError()
+        && response.getHttpStatusCode() == 0
+        && response.getRawXmlRequestBodyEncrypted() != null
+        && response.getProcessCode() != null
+        && response.getReceivingInsuranceCompanyEndpoint() != null
+        && response.getReceivingClearingCenterIk() != null;
+  }
+
+  /**
+   * Create a resend request from the response to a request which failed to be sent after it was
+   * encrypted.
+   *
+   * @param response - f.e a response with a {@link
+   *     com.alextherapeutics.diga.DigaHttpClientException} error
+   * @return
+   * @throws IllegalArgumentException if the response is not {@link
+   *     #isResendable(AbstractDigaApiResponse)}, f.e because the API answered the request, the
+   *     request failed before it was encrypted or the request body was not retained when using
+   *     streaming encryption
+   */
+  public static DigaResendRequest fromResponse(@NonNull AbstractDigaApiResponse response) {
+    if (!isResendable(response)) {
+      throw new IllegalArgumentException(
+          "The response is not a failure to send an encrypted request, so it can not be resent");
+    }
+    return DigaResendRequest.builder()
+        .encryptedContent(response.getRawXmlRequestBodyEncrypted())
+        .processCode(response.getProcessCode())
+        .endpoint(response.getReceivingInsuranceCompanyEndpoint())
+        .clearingCenterIk(response.getReceivingClearingCenterIk())
+        .rawXmlRequestBody(response.getRawXmlRequestBody())
+        .insuranceCompanyIk(response.getReceivingInsuranceCompanyIk())
+        .insuranceCompanyName(response.getReceivingInsuranceCompanyName())
+        .build();
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+import java.time.Duration;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * The time a security provider took for one operation of signing, encrypting, decrypting and
+ * verifying SECON messages, measured by {@link
+ * com.alextherapeutics.diga.implementation.DigaSecurityProviderBenchmark}.
+ */
+@Builder
+@Getter
+public class DigaSecurityProviderBenchmarkResult {
+  /** The operation the provider was used for. The other operations use BouncyCastle. */
+  @NonNull private final Operation operation;
+
+  /** The name of the provider, f.e SunJCE */
+  @NonNull private final String provider;
+
+  /** The average time to sign and encrypt a message, or null if the provider failed. */
+  private final Duration averageSignAndEncryptTime;
+
+  /** The average time to decrypt and verify a message, or null if the provider failed. */
+  private final Duration averageDecryptAndVerifyTime;
+
+  /** Why the provider could not be used for the operation, or null if it could. */
+  private final String failure;
+
+  /**
+   * Whether the provider could be used for the operation.
+   *
+   * @return
+   */
+  public boolean isSupported() {
+    return failure == null;
+  }
+
+  /**
+   * The average time of a whole round trip, or null if the provider failed.
+   *
+   * @return
+   */
+  public Duration getAverageTotalTime() {
+    return isSupported() ? averageSignAndEncryptTime.plus(averageDecryptAndVerifyTime) : null;
+  }
+
+  /** The operations which can use a different provider, see {@link DigaSecurityProviders}. */
+  public enum Operation {
+    SIGNATURE,
+    KEY_TRANSPORT,
+    CONTENT_ENCRYPTION
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+import java.security.Provider;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * The JCA security providers used for the cryptographic operations of SECON requests and responses,
+ * f.e {@link
+ * com.alextherapeutics.diga.implementation.DigaSeconEncryptionFactory.DigaSeconEncryptionFactoryBuilder#securityProviders(DigaSecurityProviders)}.
+ *
+ * <p>Each provider which is not set defaults to BouncyCastle, like in SECON. Use {@link
+ * com.alextherapeutics.diga.implementation.DigaSecurityProviderBenchmark} to find the fastest
+ * providers for your hardware.
+ */
+@Builder
+@Getter
+public class DigaSecurityProviders {
+  /** The provider signing requests with your private key, f.e SunRsaSign. */
+  private final Provider signature;
+
+  /**
+   * The provider encrypting the content encryption key for the recipient, and decrypting it with
+   * your private key, f.e SunJCE.
+   */
+  private final Provider keyTransport;
+
+  /** The provider encrypting and decrypting the content with AES, f.e SunJCE. */
+  private final Provider contentEncryption;
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+/** How the XML request bodies are written by a client created from settings. */
+public enum DigaXmlRequestWriterType {
+  /**
+   * Build and marshal a JAXB object graph for each request, see {@link
+   * com.alextherapeutics.diga.implementation.DigaXmlJaxbRequestWriter}
+   */
+  JAXB,
+  /**
+   * Write invoices from a template compiled once from the output of the JAXB writer, see {@link
+   * com.alextherapeutics.diga.implementation.DigaXmlTemplateRequestWriter}
+   */
+  TEMPLATE,
+  /**
+   * Stream each request with a XMLStreamWriter, see {@link
+   * com.alextherapeutics.diga.implementation.DigaXmlStaxRequestWriter}
+   */
+  STAX
+}
@@ -19,11 +19,26 @@
 package com.alextherapeutics.diga;
 
 import com.alextherapeutics.diga.model.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 class DigaApiClientTest {
@@ -150,6 +165,134 @@ class DigaApiClientTest {
     Assertions.assertArrayEquals(xmlRequest, resp.getRawXmlRequestBody());
   }
 
+  @Test
+  void testResendInvoiceSendsSameEncryptedInvoiceAgain() throws Exception {
+    var invoice =
+        DigaInvoice.builder().invoiceId("1").validatedDigaCode("code").digavEid("12345000").build();
+    var info = Mockito.mock(DigaBillingInformation.class);
+    Mockito.when(codeParser.parseCodeForBilling(Mockito.anyString())).thenReturn(info);
+    Mockito.when(info.getInsuranceCompanyIKNumber()).thenReturn("IK111111111");
+    Mockito.when(info.getClearingCenterIKNumber()).thenReturn("IK123456789");
+    Mockito.when(info.getEndpoint()).thenReturn("diga.example.de");
+    Mockito.when(info.getBuyerInvoicingMethod()).thenReturn(DigaInvoiceMethod.API);
+    var xmlRequest = "<invoice></invoice>".getBytes(StandardCharsets.UTF_8);
+    Mockito.when(xmlRequestWriter.createBillingRequest(invoice, info)).thenReturn(xmlRequest);
+    var encrBuild = Mockito.mock(DigaEncryption.DigaEncryptionBuilder.class, Mockito.RETURNS_SELF);
+    var encr = Mockito.mock(DigaEncryption.class);
+    Mockito.when(encryptionFactory.newEncryption()).thenReturn(encrBuild);
+    Mockito.when(encrBuild.build()).thenReturn(encr);
+    var encrypted = new ByteArrayOutputStream();
+    encrypted.write(new byte[] {1, 2, 3});
+    Mockito.when(encr.encrypt()).thenReturn(encrypted);
+    var decrBuild = Mockito.mock(DigaDecryption.DigaDecryptionBuilder.class, Mockito.RETURNS_SELF);
+    var decr = Mockito.mock(DigaDecryption.class);
+    Mockito.when(encryptionFactory.newDecryption()).thenReturn(decrBuild);
+    Mockito.when(decrBuild.build()).thenReturn(decr);
+    Mockito.when(decr.decrypt()).thenReturn(new ByteArrayOutputStream());
+    Mockito.when(xmlRequestReader.readBillingReport(Mockito.any()))
+        .thenAnswer(invocation -> DigaInvoiceResponse.builder().generatedInvoice("").build());
+    var requests = new ArrayList<DigaApiHttpRequest>();
+    Mockito.when(httpClient.post(Mockito.any()))
+        .thenAnswer(
+            invocation -> {
+              requests.add(invocation.getArgument(0));
+              throw new DigaHttpClientException(new Exception("endpoint is down"));
+            })
+        .thenAnswer(
+            invocation -> {
+              requests.add(invocation.getArgument(0));
+              return DigaApiHttpResponse.builder()
+                  .statusCode(200)
+                  .senderIK("IK123456789")
+                  .recipientIK("IK123456789")
+                  .verfahren("EDRE0")
+                  .encryptedBody(new byte[] {4})
+                  .build();
+            });
+
+    var failed = client.invoiceDiga(invoice);
+    Assertions.assertTrue(failed.isHasError());
+    Assertions.assertArrayEquals(new byte[] {1, 2, 3}, failed.getRawXmlRequestBodyEncrypted());
+    Assertions.assertEquals(DigaProcessCode.BILLING, failed.getProcessCode());
+
+    var resent = client.resendInvoice(failed);
+    Assertions.assertFalse(resent.isHasError());
+    Assertions.assertEquals(200, resent.getHttpStatusCode());
+    Assertions.assertEquals("<invoice></invoice>", resent.getGeneratedInvoice());
+    Assertions.assertEquals("IK111111111", resent.getReceivingInsuranceCompanyIk());
+    Assertions.assertEquals(2, requests.size());
+    Assertions.assertArrayEquals(new byte[] {1, 2, 3}, requests.get(1).getEncryptedContent());
+    Assertions.assertEquals("IK123456789", requests.get(1).getRecipientIK());
+    Assertions.assertEquals(DigaProcessCode.BILLING, requests.get(1).getProcessCode());
+    // the invoice was only created and encrypted once
+    Mockito.verify(xmlRequestWriter, Mockito.times(1)).createBillingRequest(invoice, info);
+    Mockito.verify(encr, Mockito.times(1)).encrypt();
+
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () -> client.resendCodeValidation(DigaResendRequest.fromResponse(failed)));
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () -> client.resendInvoice(DigaInvoiceResponse.builder().generatedInvoice("").build()));
+  }
+
+  @Test
+  void testInvoiceAnsweredByApiCanNotBeResent() throws Exception {
+    var invoice =
+        DigaInvoice.builder().invoiceId("1").validatedDigaCode("code").digavEid("12345000").build();
+    var info = Mockito.mock(DigaBillingInformation.class);
+    Mockito.when(codeParser.parseCodeForBilling(Mockito.anyString())).thenReturn(info);
+    Mockito.when(info.getClearingCenterIKNumber()).thenReturn("IK123456789");
+    Mockito.when(info.getEndpoint()).thenReturn("diga.example.de");
+    Mockito.when(info.getBuyerInvoicingMethod()).thenReturn(DigaInvoiceMethod.API);
+    Mockito.when(xmlRequestWriter.createBillingRequest(invoice, info))
+        .thenReturn("<invoice></invoice>".getBytes(StandardCharsets.UTF_8));
+    var encrBuild = Mockito.mock(DigaEncryption.DigaEncryptionBuilder.class, Mockito.RETURNS_SELF);
+    var encr = Mockito.mock(DigaEncryption.class);
+    Mockito.when(encryptionFactory.newEncryption()).thenReturn(encrBuild);
+    Mockito.when(encrBuild.build()).thenReturn(encr);
+    var encrypted = new ByteArrayOutputStream();
+    encrypted.write(new byte[] {1, 2, 3});
+    Mockito.when(encr.encrypt()).thenReturn(encrypted);
+    var decrBuild = Mockito.mock(DigaDecryption.DigaDecryptionBuilder.class, Mockito.RETURNS_SELF);
+    var decr = Mockito.mock(DigaDecryption.class);
+    Mockito.when(encryptionFactory.newDecryption()).thenReturn(decrBuild);
+    Mockito.when(decrBuild.build()).thenReturn(decr);
+    Mockito.when(decr.decrypt())
+        .thenThrow(new DigaDecryptionException(new Exception("bad signature")));
+    Mockito.when(httpClient.post(Mockito.any()))
+        .thenReturn(
+            DigaApiHttpResponse.builder()
+                .statusCode(200)
+                .senderIK("IK123456789")
+                .recipientIK("IK123456789")
+                .verfahren("EDRE0")
+                .encryptedBody(new byte[] {4})
+                .build());
+
+    // the insurance company received the invoice, so sending it again would bill it twice
+    var response = client.invoiceDiga(invoice);
+    Assertions.assertTrue(response.isHasError());
+    Assertions.assertNull(response.getRawXmlRequestBodyEncrypted());
+    Assertions.assertFalse(DigaResendRequest.isResendable(response));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> client.resendInvoice(response));
+
+    // a response with an HTTP status was answered by the API
+    var answered =
+        DigaInvoiceResponse.builder()
+            .generatedInvoice("")
+            .hasError(true)
+            .httpStatusCode(200)
+            .rawXmlRequestBodyEncrypted(new byte[] {1, 2, 3})
+            .processCode(DigaProcessCode.BILLING)
+            .receivingInsuranceCompanyEndpoint("diga.example.de")
+            .receivingClearingCenterIk("IK123456789")
+            .build();
+    Assertions.assertThrows(
+        IllegalArgumentException.class, () -> DigaResendRequest.fromResponse(answered));
+    Mockito.verify(httpClient, Mockito.times(1)).post(Mockito.any());
+  }
+
   @Test
   void testNonApiEndpointsReturnManualActionResponse()
       throws DigaXmlWriterException, DigaCodeValidationException {
@@ -173,4 +316,402 @@ class DigaApiClientTest {
     Assertions.assertEquals(generatedInvoice, resp.getGeneratedInvoice());
     Mockito.verifyNoInteractions(httpClient, encryptionFactory, xmlRequestReader);
   }
+
+  @Test
+  void testValidateDigaCodeAsyncCompletesExceptionallyForTestCodes() {
+    var future = client.validateDigaCodeAsync(DigaApiTestCode.ERROR_CODE_NOT_FOUND.getCode());
+    var thrown = Assertions.assertThrows(ExecutionException.class, future::get);
+    Assertions.assertTrue(thrown.getCause() instanceof DigaCodeValidationException);
+  }
+
+  @Test
+  void testInvoiceDigaAsyncRunsOnConfiguredExecutor()
+      throws DigaXmlWriterException,
+          DigaCodeValidationException,
+          ExecutionException,
+          InterruptedException {
+    var executions = new AtomicInteger();
+    var asyncClient =
+        DigaApiClient.builder()
+            .httpClient(httpClient)
+            .xmlRequestReader(xmlRequestReader)
+            .encryptionFactory(encryptionFactory)
+            .healthInsuranceDirectory(healthInsuranceDirectory)
+            .codeParser(codeParser)
+            .digaInformation(digaInformation)
+            .xmlRequestWriter(xmlRequestWriter)
+            .executor(
+                task -> {
+                  executions.incrementAndGet();
+                  task.run();
+                })
+            .build();
+    var invoice =
+        DigaInvoice.builder().invoiceId("1").validatedDigaCode("code").digavEid("12345000").build();
+    var info = Mockito.mock(DigaBillingInformation.class);
+    Mockito.when(codeParser.parseCodeForBilling(Mockito.anyString())).thenReturn(info);
+    Mockito.when(xmlRequestWriter.createBillingRequest(invoice, info))
+        .thenReturn("<invoice></invoice>".getBytes(StandardCharsets.UTF_8));
+    Mockito.when(info.getBuyerInvoicingMethod()).thenReturn(DigaInvoiceMethod.POST);
+
+    var resp = asyncClient.invoiceDigaAsync(invoice).get();
+    Assertions.assertEquals(1, executions.get());
+    Assertions.assertTrue(resp.isRequiresManualAction());
+    Assertions.assertEquals(DigaInvoiceMethod.POST, resp.getInvoiceMethod());
+  }
+
+  @Test
+  void testValidateDigaCodesLimitsConcurrentRequestsPerEndpoint() throws Exception {
+    var executor = Executors.newFixedThreadPool(8);
+    try {
+      var batchClient =
+          DigaApiClient.builder()
+              .httpClient(httpClient)
+              .xmlRequestReader(xmlRequestReader)
+              .encryptionFactory(encryptionFactory)
+              .healthInsuranceDirectory(healthInsuranceDirectory)
+              .codeParser(codeParser)
+              .digaInformation(digaInformation)
+              .xmlRequestWriter(xmlRequestWriter)
+              .executor(executor)
+              .maxConcurrentRequestsPerEndpoint(2)
+              .build();
+      var codesPerEndpoint = List.of("A1", "A2", "A3", "A4", "B1", "B2", "B3");
+      for (var code : codesPerEndpoint) {
+        var codeInfo = Mockito.mock(DigaCodeInformation.class);
+        Mockito.when(codeInfo.getEndpoint()).thenReturn(code.substring(0, 1));
+        Mockito.when(codeInfo.getClearingCenterIKNumber()).thenReturn("IK123456789");
+        Mockito.when(codeInfo.getFullDigaCode()).thenReturn(code);
+        Mockito.when(codeParser.parseCodeForValidation(code)).thenReturn(codeInfo);
+      }
+      Mockito.when(codeParser.parseCodeForValidation("invalid"))
+          .thenThrow(DigaCodeValidationException.class);
+
+      var inFlight = new ConcurrentHashMap<String, AtomicInteger>();
+      var maxInFlight = new ConcurrentHashMap<String, Integer>();
+      Mockito.when(xmlRequestWriter.createCodeValidationRequest(Mockito.any()))
+          .thenAnswer(
+              invocation -> {
+                var endpoint = ((DigaCodeInformation) invocation.getArgument(0)).getEndpoint();
+                var current =
+                    inFlight.computeIfAbsent(endpoint, e -> new AtomicInteger()).incrementAndGet();
+                maxInFlight.merge(endpoint, current, Math::max);
+                Thread.sleep(50);
+                inFlight.get(endpoint).decrementAndGet();
+                return new byte[] {1};
+              });
+      var encrBuild =
+          Mockito.mock(DigaEncryption.DigaEncryptionBuilder.class, Mockito.RETURNS_SELF);
+      var encr = Mockito.mock(DigaEncryption.class);
+      Mockito.when(encryptionFactory.newEncryption()).thenReturn(encrBuild);
+      Mockito.when(encrBuild.build()).thenReturn(encr);
+      Mockito.when(encr.encrypt()).thenThrow(DigaEncryptionException.class);
+
+      var codes = new ArrayList<>(codesPerEndpoint);
+      codes.add("invalid");
+      codes.add("A1");
+      var responses = batchClient.validateDigaCodes(codes);
+
+      Assertions.assertEquals(
+          List.of("A1", "A2", "A3", "A4", "B1", "B2", "B3", "invalid"),
+          List.copyOf(responses.keySet()));
+      Assertions.assertTrue(responses.values().stream().allMatch(r -> r.isHasError()));
+      Assertions.assertTrue(
+          responses.get("invalid").getErrors().get(0).asApiExceptionError().getException()
+              instanceof DigaCodeValidationException);
+      Assertions.assertTrue(maxInFlight.get("A") <= 2);
+      Assertions.assertTrue(maxInFlight.get("B") <= 2);
+      Mockito.verify(xmlRequestWriter, Mockito.times(7)).createCodeValidationRequest(Mockito.any());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testConcurrentValidationsOfSameCodeShareOneRequest() throws Exception {
+    var codeInfo = Mockito.mock(DigaCodeInformation.class);
+    Mockito.when(codeInfo.getEndpoint()).thenReturn("diga.example.de");
+    Mockito.when(codeInfo.getClearingCenterIKNumber()).thenReturn("IK123456789");
+    Mockito.when(codeParser.parseCodeForValidation("ABCDEFGHIJKLMNOP")).thenReturn(codeInfo);
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    Mockito.when(xmlRequestWriter.createCodeValidationRequest(Mockito.any()))
+        .thenAnswer(
+            invocation -> {
+              started.countDown();
+              release.await(10, TimeUnit.SECONDS);
+              return new byte[] {1};
+            });
+    var encrBuild = Mockito.mock(DigaEncryption.DigaEncryptionBuilder.class, Mockito.RETURNS_SELF);
+    var encr = Mockito.mock(DigaEncryption.class);
+    Mockito.when(encryptionFactory.newEncryption()).thenReturn(encrBuild);
+    Mockito.when(encrBuild.build()).thenReturn(encr);
+    Mockito.when(encr.encrypt()).thenThrow(DigaEncryptionException.class);
+
+    var executor = Executors.newFixedThreadPool(3);
+    try {
+      var first = executor.submit(() -> client.validateDigaCode("ABCDEFGHIJKLMNOP"));
+      Assertions.assertTrue(started.await(10, TimeUnit.SECONDS));
+      var second = executor.submit(() -> client.validateDigaCode("ABCDEFGHIJKLMNOP"));
+      var third = executor.submit(() -> client.validateDigaCode("ABCDEFGHIJKLMNOP"));
+      Thread.sleep(100);
+      release.countDown();
+      var response = first.get(10, TimeUnit.SECONDS);
+      var secondResponse = second.get(10, TimeUnit.SECONDS);
+      var thirdResponse = third.get(10, TimeUnit.SECONDS);
+      Assertions.assertEquals(response, secondResponse);
+      Assertions.assertEquals(response, thirdResponse);
+      // every caller gets its own copy of the shared response
+      Assertions.assertNotSame(response, secondResponse);
+      Assertions.assertNotSame(secondResponse, thirdResponse);
+      Assertions.assertNotSame(response.getErrors(), secondResponse.getErrors());
+      Mockito.verify(xmlRequestWriter, Mockito.times(1)).createCodeValidationRequest(Mockito.any());
+
+      // once the request is done, the next validation sends a new one
+      Assertions.assertNotSame(response, client.validateDigaCode("ABCDEFGHIJKLMNOP"));
+      Mockito.verify(xmlRequestWriter, Mockito.times(2)).createCodeValidationRequest(Mockito.any());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testCachedCodeValidationIsNotSentAgain() throws Exception {
+    var cache = Mockito.mock(DigaCodeValidationCache.class);
+    var cachedResponse = DigaCodeValidationResponse.builder().build();
+    Mockito.when(cache.get("ABCDEFGHIJKLMNOP")).thenReturn(cachedResponse);
+    var cachingClient =
+        DigaApiClient.builder()
+            .httpClient(httpClient)
+            .xmlRequestReader(xmlRequestReader)
+            .encryptionFactory(encryptionFactory)
+            .healthInsuranceDirectory(healthInsuranceDirectory)
+            .codeParser(codeParser)
+            .digaInformation(digaInformation)
+            .xmlRequestWriter(xmlRequestWriter)
+            .codeValidationCache(cache)
+            .build();
+    var codeInfo = Mockito.mock(DigaCodeInformation.class);
+    Mockito.when(codeInfo.getClearingCenterIKNumber()).thenReturn("IK123456789");
+    Mockito.when(codeInfo.getFullDigaCode()).thenReturn("QRSTUVWXYZABCDEF");
+    Mockito.when(codeInfo.getEndpoint()).thenReturn("diga.example.de");
+    Mockito.when(codeParser.parseCodeForValidation(Mockito.any())).thenReturn(codeInfo);
+    Mockito.when(xmlRequestWriter.createCodeValidationRequest(Mockito.any()))
+        .thenReturn(new byte[] {1});
+    var encrBuild = Mockito.mock(DigaEncryption.DigaEncryptionBuilder.class, Mockito.RETURNS_SELF);
+    var encr = Mockito.mock(DigaEncryption.class);
+    Mockito.when(encryptionFactory.newEncryption()).thenReturn(encrBuild);
+    Mockito.when(encrBuild.build()).thenReturn(encr);
+    var encrypted = new ByteArrayOutputStream();
+    encrypted.write(new byte[] {2});
+    Mockito.when(encr.encrypt()).thenThrow(DigaEncryptionException.class).thenReturn(encrypted);
+    Mockito.when(httpClient.post(Mockito.any()))
+        .thenReturn(
+            DigaApiHttpResponse.builder()
+                .statusCode(200)
+                .senderIK("IK123456789")
+                .recipientIK("IK987654321")
+                .verfahren("TDFC0")
+                .encryptedBody(new byte[] {3})
+                .build());
+    var decrBuild = Mockito.mock(DigaDecryption.DigaDecryptionBuilder.class, Mockito.RETURNS_SELF);
+    var decr = Mockito.mock(DigaDecryption.class);
+    Mockito.when(encryptionFactory.newDecryption()).thenReturn(decrBuild);
+    Mockito.when(decrBuild.build()).thenReturn(decr);
+    Mockito.when(decr.decrypt()).thenReturn(new ByteArrayOutputStream());
+    Mockito.when(xmlRequestReader.readCodeValidationResponse(Mockito.any(InputStream.class)))
+        .thenReturn(
+            DigaCodeValidationResponse.builder()
+                .validatedDigaveid("12345")
+                .dayOfServiceProvision(new Date())
+                .build());
+
+    var cacheHit = cachingClient.validateDigaCode("ABCDEFGHIJKLMNOP");
+    Assertions.assertEquals(cachedResponse, cacheHit);
+    Assertions.assertNotSame(cachedResponse, cacheHit);
+    Mockito.verifyNoInteractions(xmlRequestWriter);
+
+    // a failed validation has to be sent again
+    var failed = cachingClient.validateDigaCode("QRSTUVWXYZABCDEF");
+    Assertions.assertTrue(failed.isHasError());
+    Mockito.verify(cache, Mockito.never()).put(Mockito.any(), Mockito.any());
+
+    var response = cachingClient.validateDigaCode("QRSTUVWXYZABCDEF");
+    Assertions.assertFalse(response.isHasError());
+    var cached = ArgumentCaptor.forClass(DigaCodeValidationResponse.class);
+    Mockito.verify(cache).put(Mockito.eq("QRSTUVWXYZABCDEF"), cached.capture());
+    Assertions.assertEquals(response, cached.getValue());
+    Assertions.assertNotSame(response, cached.getValue());
+  }
+
+  @Test
+  void testStreamingEncryptionWritesIntoRequestAndRetainsEncryptedBody() throws Exception {
+    var streamingClient =
+        DigaApiClient.builder()
+            .httpClient(httpClient)
+            .xmlRequestReader(xmlRequestReader)
+            .encryptionFactory(encryptionFactory)
+            .healthInsuranceDirectory(healthInsuranceDirectory)
+            .codeParser(codeParser)
+            .digaInformation(digaInformation)
+            .xmlRequestWriter(xmlRequestWriter)
+            .streamingEncryption(true)
+            .build();
+    var billingInfo = Mockito.mock(DigaBillingInformation.class);
+    Mockito.when(billingInfo.getClearingCenterIKNumber()).thenReturn("IK123456789");
+    Mockito.when(billingInfo.getEndpoint()).thenReturn("diga.example.de");
+    Mockito.when(billingInfo.getBuyerInvoicingMethod()).thenReturn(DigaInvoiceMethod.API);
+    Mockito.when(codeParser.parseCodeForBilling(Mockito.any())).thenReturn(billingInfo);
+    Mockito.when(xmlRequestWriter.createBillingRequest(Mockito.any(), Mockito.any()))
+        .thenReturn(new byte[] {1});
+    var encrBuild = Mockito.mock(DigaEncryption.DigaEncryptionBuilder.class, Mockito.RETURNS_SELF);
+    var encr = Mockito.mock(DigaEncryption.class);
+    Mockito.when(encryptionFactory.newEncryption()).thenReturn(encrBuild);
+    Mockito.when(encrBuild.build()).thenReturn(encr);
+    Mockito.doAnswer(
+            invocation -> {
+              invocation.getArgument(0, OutputStream.class).write(new byte[] {4, 2});
+              return null;
+            })
+        .when(encr)
+        .encryptTo(Mockito.any());
+    var sent = new ByteArrayOutputStream();
+    Mockito.when(httpClient.post(Mockito.any()))
+        .thenAnswer(
+            invocation -> {
+              var request = invocation.getArgument(0, DigaApiHttpRequest.class);
+              Assertions.assertNotNull(request.getEncryptedContentWriter());
+              request.writeEncryptedContentTo(sent);
+              return DigaApiHttpResponse.builder()
+                  .statusCode(200)
+                  .senderIK("IK123456789")
+                  .recipientIK("IK987654321")
+                  .verfahren("EDRE0")
+                  .encryptedBody(new byte[] {1})
+                  .build();
+            });
+    var decrBuild = Mockito.mock(DigaDecryption.DigaDecryptionBuilder.class, Mockito.RETURNS_SELF);
+    var decr = Mockito.mock(DigaDecryption.class);
+    Mockito.when(encryptionFactory.newDecryption()).thenReturn(decrBuild);
+    Mockito.when(decrBuild.build()).thenReturn(decr);
+    Mockito.when(decr.decrypt()).thenReturn(new ByteArrayOutputStream());
+    Mockito.when(xmlRequestReader.readBillingReport(Mockito.any()))
+        .thenReturn(DigaInvoiceResponse.builder().generatedInvoice("").build());
+
+    var response =
+        streamingClient.invoiceDiga(
+            DigaInvoice.builder().invoiceId("1").validatedDigaCode("ABCDEFGHIJKLMNOP").build());
+
+    Assertions.assertArrayEquals(new byte[] {4, 2}, sent.toByteArray());
+    Assertions.assertArrayEquals(new byte[] {4, 2}, response.getRawXmlRequestBodyEncrypted());
+    Mockito.verify(encr, Mockito.never()).encrypt();
+  }
+
+  @Test
+  void testStreamingDecryptionReadsResponseWhileItIsReceived() throws Exception {
+    var streamingClient =
+        DigaApiClient.builder()
+            .httpClient(httpClient)
+            .xmlRequestReader(xmlRequestReader)
+            .encryptionFactory(encryptionFactory)
+            .healthInsuranceDirectory(healthInsuranceDirectory)
+            .codeParser(codeParser)
+            .digaInformation(digaInformation)
+            .xmlRequestWriter(xmlRequestWriter)
+            .streamingDecryption(true)
+            .build();
+    var codeInfo = Mockito.mock(DigaCodeInformation.class);
+    Mockito.when(codeInfo.getClearingCenterIKNumber()).thenReturn("IK123456789");
+    Mockito.when(codeInfo.getEndpoint()).thenReturn("diga.example.de");
+    Mockito.when(codeInfo.getFullDigaCode()).thenReturn("ABCDEFGHIJKLMNOP");
+    Mockito.when(codeParser.parseCodeForValidation(Mockito.any())).thenReturn(codeInfo);
+    Mockito.when(xmlRequestWriter.createCodeValidationRequest(Mockito.any()))
+        .thenReturn(new byte[] {1});
+    var encrBuild = Mockito.mock(DigaEncryption.DigaEncryptionBuilder.class, Mockito.RETURNS_SELF);
+    var encr = Mockito.mock(DigaEncryption.class);
+    Mockito.when(encryptionFactory.newEncryption()).thenReturn(encrBuild);
+    Mockito.when(encrBuild.build()).thenReturn(encr);
+    Mockito.when(encr.encrypt()).thenReturn(new ByteArrayOutputStream());
+    var encryptedBody = new ByteArrayInputStream(new byte[] {4, 2});
+    Mockito.when(httpClient.post(Mockito.any(), Mockito.any()))
+        .thenAnswer(
+            invocation ->
+                invocation
+                    .getArgument(1, DigaApiHttpResponseHandler.class)
+                    .handle(
+                        DigaApiHttpResponse.builder()
+                            .statusCode(200)
+                            .senderIK("IK123456789")
+                            .recipientIK("IK987654321")
+                            .verfahren("TDFC0")
+                            .build(),
+                        encryptedBody));
+    var decrBuild = Mockito.mock(DigaDecryption.DigaDecryptionBuilder.class, Mockito.RETURNS_SELF);
+    var decr = Mockito.mock(DigaDecryption.class);
+    Mockito.when(encryptionFactory.newDecryption()).thenReturn(decrBuild);
+    Mockito.when(decrBuild.build()).thenReturn(decr);
+    var decrypted = Mockito.spy(new ByteArrayInputStream(new byte[] {1}));
+    Mockito.when(decr.decryptAsStream()).thenReturn(decrypted);
+    Mockito.when(xmlRequestReader.readCodeValidationResponse(Mockito.any(InputStream.class)))
+        .thenReturn(DigaCodeValidationResponse.builder().build());
+
+    var response = streamingClient.validateDigaCode("ABCDEFGHIJKLMNOP");
+
+    Assertions.assertFalse(response.isHasError());
+    Assertions.assertEquals(200, response.getHttpStatusCode());
+    Mockito.verify(decrBuild).decryptionSource(encryptedBody);
+    Mockito.verify(xmlRequestReader).readCodeValidationResponse(decrypted);
+    // closing the decrypted stream verifies the signature of the response
+    Mockito.verify(decrypted).close();
+    Mockito.verify(httpClient, Mockito.never()).post(Mockito.any());
+    Mockito.verify(decr, Mockito.never()).decrypt();
+  }
+
+  @Test
+  void testFailedReloadKeepsThePreviousCertificatesEverywhere() throws Exception {
+    var keyStore = KeyStore.getInstance("PKCS12");
+    keyStore.load(null, null);
+    var keyStoreBytes = new ByteArrayOutputStream();
+    keyStore.store(keyStoreBytes, "secret".toCharArray());
+    var reloadEncryption = Mockito.mock(Runnable.class);
+    Mockito.when(encryptionFactory.prepareHealthInsuranceCertificatesReload(Mockito.any()))
+        .thenReturn(reloadEncryption);
+    Mockito.when(httpClient.prepareHealthInsuranceCertificatesReload(Mockito.any()))
+        .thenThrow(new DigaHttpClientException(new Exception("bad certificates")))
+        .thenThrow(new UnsupportedOperationException("not supported"));
+
+    Assertions.assertThrows(
+        DigaApiException.class,
+        () ->
+            client.reloadHealthInsuranceCertificates(
+                new ByteArrayInputStream(keyStoreBytes.toByteArray()), "secret"));
+    Assertions.assertThrows(
+        DigaApiException.class,
+        () ->
+            client.reloadHealthInsuranceCertificates(
+                new ByteArrayInputStream(keyStoreBytes.toByteArray()), "secret"));
+    Mockito.verify(reloadEncryption, Mockito.never()).run();
+  }
+
+  @Test
+  void testCloseDoesNotShutDownProvidedExecutor() {
+    var executor = Executors.newSingleThreadExecutor();
+    try {
+      var executorClient =
+          DigaApiClient.builder()
+              .httpClient(httpClient)
+              .xmlRequestReader(xmlRequestReader)
+              .encryptionFactory(encryptionFactory)
+              .healthInsuranceDirectory(healthInsuranceDirectory)
+              .codeParser(codeParser)
+              .digaInformation(digaInformation)
+              .xmlRequestWriter(xmlRequestWriter)
+              .executor(executor)
+              .build();
+      executorClient.close();
+      Assertions.assertFalse(executor.isShutdown());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 }
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class DigaApiFlowProcessorTest {
+  @Test
+  void testResponsesArePublishedInOrderWithLimitedRequestsPerEndpoint() throws Exception {
+    var executor = Executors.newFixedThreadPool(8);
+    try {
+      var inFlight = new ConcurrentHashMap<String, AtomicInteger>();
+      var maxInFlight = new ConcurrentHashMap<String, Integer>();
+      var processor =
+          new DigaApiFlowProcessor<String, String>(
+              item -> {
+                if (item.equals("invalid")) {
+                  throw new DigaCodeValidationException("invalid");
+                }
+                return item.substring(0, 1);
+              },
+              item -> {
+                var endpoint = item.substring(0, 1);
+                var current =
+                    inFlight.computeIfAbsent(endpoint, e -> new AtomicInteger()).incrementAndGet();
+                maxInFlight.merge(endpoint, current, Math::max);
+                Thread.sleep(item.equals("A1") ? 100 : 10);
+                inFlight.get(endpoint).decrementAndGet();
+                return "response " + item;
+              },
+              error -> "error " + error.getClass().getSimpleName(),
+              executor,
+              2,
+              8);
+      var items = List.of("A1", "A2", "B1", "A3", "invalid", "B2", "A4", "B3", "A5", "B4");
+      var subscriber = new CollectingSubscriber(1);
+      processor.subscribe(subscriber);
+      try (var publisher = new SubmissionPublisher<String>()) {
+        publisher.subscribe(processor);
+        items.forEach(publisher::submit);
+      }
+      Assertions.assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+
+      var expected = new ArrayList<String>();
+      for (var item : items) {
+        expected.add(
+            item.equals("invalid") ? "error DigaCodeValidationException" : "response " + item);
+      }
+      Assertions.assertEquals(expected, subscriber.received);
+      Assertions.assertNull(subscriber.error);
+      Assertions.assertTrue(maxInFlight.get("A") <= 2);
+      Assertions.assertTrue(maxInFlight.get("B") <= 2);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testPublisherIsOnlyAskedForItemsWhenThereIsRoom() throws Exception {
+    var requested = new AtomicLong();
+    var counter = new AtomicInteger();
+    Flow.Publisher<String> publisher =
+        subscriber ->
+            subscriber.onSubscribe(
+                new Flow.Subscription() {
+                  @Override
+                  public void request(long n) {
+                    requested.addAndGet(n);
+                    for (long i = 0; i < n; i++) {
+                      subscriber.onNext("A" + counter.getAndIncrement());
+                    }
+                  }
+
+                  @Override
+                  public void cancel() {}
+                });
+    var processor =
+        new DigaApiFlowProcessor<String, String>(
+            item -> "A", item -> item, error -> "error", Runnable::run, 2, 4);
+    var subscriber = new CollectingSubscriber(0);
+    processor.subscribe(subscriber);
+    publisher.subscribe(processor);
+    Assertions.assertEquals(4, requested.get());
+    Assertions.assertTrue(subscriber.received.isEmpty());
+
+    subscriber.subscription.request(2);
+    Assertions.assertEquals(List.of("A0", "A1"), subscriber.received);
+    Assertions.assertEquals(6, requested.get());
+  }
+
+  @Test
+  void testInvalidRequestFailsRightAwayAndCancelsPublisher() {
+    var cancelled = new AtomicInteger();
+    Flow.Publisher<String> publisher =
+        subscriber ->
+            subscriber.onSubscribe(
+                new Flow.Subscription() {
+                  @Override
+                  public void request(long n) {
+                    subscriber.onNext("A");
+                  }
+
+                  @Override
+                  public void cancel() {
+                    cancelled.incrementAndGet();
+                  }
+                });
+    var processor =
+        new DigaApiFlowProcessor<String, String>(
+            item -> "A", item -> item, error -> "error", Runnable::run, 1, 2);
+    var subscriber = new CollectingSubscriber(0);
+    processor.subscribe(subscriber);
+    publisher.subscribe(processor);
+
+    subscriber.subscription.request(0);
+    Assertions.assertTrue(subscriber.error instanceof IllegalArgumentException);
+    Assertions.assertEquals(1, cancelled.get());
+    subscriber.subscription.request(1);
+    Assertions.assertTrue(subscriber.received.isEmpty());
+  }
+
+  @Test
+  void testInvalidRequestDoesNotWaitForUndeliveredResponses() {
+    Flow.Publisher<String> publisher =
+        subscriber ->
+            subscriber.onSubscribe(
+                new Flow.Subscription() {
+                  @Override
+                  public void request(long n) {
+                    subscriber.onNext("A");
+                    subscriber.onComplete();
+                  }
+
+                  @Override
+                  public void cancel() {}
+                });
+    var processor =
+        new DigaApiFlowProcessor<String, String>(
+            item -> "A", item -> item, error -> "error", Runnable::run, 1, 2);
+    var subscriber = new CollectingSubscriber(0);
+    processor.subscribe(subscriber);
+    publisher.subscribe(processor);
+
+    // the publisher is done, but the response has not been requested yet
+    subscriber.subscription.request(-1);
+    Assertions.assertTrue(subscriber.error instanceof IllegalArgumentException);
+    Assertions.assertTrue(subscriber.received.isEmpty());
+  }
+
+  @Test
+  void testSecondSubscriberIsRejected() {
+    var processor =
+        new DigaApiFlowProcessor<String, String>(
+            item -> "A", item -> item, error -> "error", Runnable::run, 1, 1);
+    processor.subscribe(new CollectingSubscriber(1));
+    var second = new CollectingSubscriber(1);
+    processor.subscribe(second);
+    Assertions.assertTrue(second.error instanceof IllegalStateException);
+  }
+
+  private static class CollectingSubscriber implements Flow.Subscriber<String> {
+    private final long requestAtOnce;
+    private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch done = new CountDownLatch(1);
+    private Flow.Subscription subscription;
+    private Throwable error;
+
+    private CollectingSubscriber(long requestAtOnce) {
+      this.requestAtOnce = requestAtOnce;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      if (requestAtOnce > 0) {
+        subscription.request(requestAtOnce);
+      }
+    }
+
+    @Override
+    public void onNext(String item) {
+      received.add(item);
+      if (requestAtOnce > 0) {
+        subscription.request(requestAtOnce);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+      done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      done.countDown();
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga;
+
+import com.alextherapeutics.diga.model.*;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class DigaBulkInvoicerTest {
+  private DigaApiClient client;
+  private DigaEncryptionFactory encryptionFactory;
+  private DigaHttpClient httpClient;
+  private DigaCodeParser codeParser;
+  private DigaXmlRequestWriter xmlRequestWriter;
+  private DigaXmlRequestReader xmlRequestReader;
+  private DigaEncryption encr;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    var digaInformation =
+        DigaInformation.builder()
+            .digaId("12345")
+            .digaName("MyDiga")
+            .manufacturingCompanyName("My Diga Company")
+            .manufacturingCompanyIk("123456789")
+            .netPricePerPrescription(new BigDecimal(100))
+            .manufacturingCompanyVATRegistration("DE 123 456")
+            .contactPersonForBilling(
+                DigaInformation.ContactPersonForBilling.builder()
+                    .fullName("Sven Svensson")
+                    .phoneNumber("+46 70 123 45 67")
+                    .emailAddress("diga@diga.de")
+                    .build())
+            .companyTradeAddress(
+                DigaInformation.CompanyTradeAddress.builder()
+                    .adressLine("Test Street 1")
+                    .postalCode("123 45")
+                    .city("Stockholm")
+                    .countryCode("SE")
+                    .build())
+            .build();
+    encryptionFactory = Mockito.mock(DigaEncryptionFactory.class);
+    httpClient = Mockito.mock(DigaHttpClient.class);
+    codeParser = Mockito.mock(DigaCodeParser.class);
+    xmlRequestWriter = Mockito.mock(DigaXmlRequestWriter.class);
+    xmlRequestReader = Mockito.mock(DigaXmlRequestReader.class);
+    client =
+        DigaApiClient.builder()
+            .httpClient(httpClient)
+            .xmlRequestReader(xmlRequestReader)
+            .encryptionFactory(encryptionFactory)
+            .healthInsuranceDirectory(Mockito.mock(DigaHealthInsuranceDirectory.class))
+            .codeParser(codeParser)
+            .digaInformation(digaInformation)
+            .xmlRequestWriter(xmlRequestWriter)
+            .build();
+
+    var encrBuild = Mockito.mock(DigaEncryption.DigaEncryptionBuilder.class, Mockito.RETURNS_SELF);
+    encr = Mockito.mock(DigaEncryption.class);
+    Mockito.when(encryptionFactory.newEncryption()).thenReturn(encrBuild);
+    Mockito.when(encrBuild.build()).thenReturn(encr);
+    Mockito.when(encr.encrypt()).thenAnswer(invocation -> bytes("encrypted"));
+    var decrBuild = Mockito.mock(DigaDecryption.DigaDecryptionBuilder.class, Mockito.RETURNS_SELF);
+    var decr = Mockito.mock(DigaDecryption.class);
+    Mockito.when(encryptionFactory.newDecryption()).thenReturn(decrBuild);
+    Mockito.when(decrBuild.build()).thenReturn(decr);
+    Mockito.when(decr.decrypt()).thenAnswer(invocation -> bytes("decrypted"));
+    Mockito.when(httpClient.post(Mockito.any()))
+        .thenAnswer(
+            invocation -> {
+              Thread.sleep(5);
+              return DigaApiHttpResponse.builder()
+                  .statusCode(200)
+                  .senderIK("IK123456789")
+                  .recipientIK("IK987654321")
+                  .verfahren("EDRE0")
+                  .encryptedBody(new byte[] {1})
+                  .build();
+            });
+    Mockito.when(xmlRequestReader.readBillingReport(Mockito.any()))
+        .thenAnswer(invocation -> DigaInvoiceResponse.builder().generatedInvoice("").build());
+    Mockito.when(xmlRequestWriter.createBillingRequest(Mockito.any(), Mockito.any()))
+        .thenAnswer(
+            invocation ->
+                ("<invoice>"
+                        + ((DigaInvoice) invocation.getArgument(0)).getInvoiceId()
+                        + "</invoice>")
+                    .getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void testBulkInvoicingReturnsResponsesInOrderWithSummary() throws Exception {
+    var invoices = new ArrayList<DigaInvoice>();
+    for (int i = 0; i < 50; i++) {
+      var code = "code" + i;
+      invoices.add(
+          DigaInvoice.builder().invoiceId(Integer.toString(i)).validatedDigaCode(code).build());
+      var info = Mockito.mock(DigaBillingInformation.class);
+      Mockito.when(info.getClearingCenterIKNumber()).thenReturn("IK123456789");
+      Mockito.when(info.getEndpoint()).thenReturn("diga.example.de");
+      Mockito.when(info.getBuyerInvoicingMethod())
+          .thenReturn(i == 10 ? DigaInvoiceMethod.EMAIL : DigaInvoiceMethod.API);
+      Mockito.when(codeParser.parseCodeForBilling(code)).thenReturn(info);
+    }
+    Mockito.when(codeParser.parseCodeForBilling("code20"))
+        .thenThrow(DigaCodeValidationException.class);
+
+    var result =
+        DigaBulkInvoicer.builder()
+            .apiClient(client)
+            .preparingThreads(2)
+            .sendingThreads(4)
+            .readingThreads(2)
+            .queueCapacity(2)
+            .build()
+            .invoice(invoices);
+
+    Assertions.assertEquals(50, result.getTotalInvoices());
+    Assertions.assertEquals(48, result.getSuccessfulInvoices());
+    Assertions.assertEquals(1, result.getManualActionInvoices());
+    Assertions.assertEquals(1, result.getFailedInvoices());
+    Assertions.assertEquals(
+        "<invoice>5</invoice>", result.getResponses().get(5).getGeneratedInvoice());
+    Assertions.assertTrue(result.getResponses().get(10).isRequiresManualAction());
+    Assertions.assertTrue(
+        result.getResponses().get(20).getErrors().get(0).asApiExceptionError().getException()
+            instanceof DigaCodeValidationException);
+    Mockito.verify(httpClient, Mockito.times(48)).post(Mockito.any());
+  }
+
+  @Test
+  void testEncryptAheadWindowIsBoundedByBudget() throws Exception {
+    var invoices = new ArrayList<DigaInvoice>();
+    for (int i = 0; i < 20; i++) {
+      invoices.add(
+          DigaInvoice.builder().invoiceId(Integer.toString(i)).validatedDigaCode("code").build());
+    }
+    var info = Mockito.mock(DigaBillingInformation.class);
+    Mockito.when(info.getClearingCenterIKNumber()).thenReturn("IK123456789");
+    Mockito.when(info.getEndpoint()).thenReturn("diga.example.de");
+    Mockito.when(info.getBuyerInvoicingMethod()).thenReturn(DigaInvoiceMethod.API);
+    Mockito.when(codeParser.parseCodeForBilling("code")).thenReturn(info);
+
+    // each encrypted invoice is 9 bytes, so at most two fit into the window
+    var result =
+        DigaBulkInvoicer.builder()
+            .apiClient(client)
+            .preparingThreads(4)
+            .sendingThreads(1)
+            .encryptAheadBytes(20)
+            .build()
+            .invoice(invoices);
+    Assertions.assertEquals(20, result.getSuccessfulInvoices());
+    Assertions.assertTrue(result.getMaxEncryptedAheadBytes() <= 18);
+
+    // an invoice larger than the budget is still sent
+    result =
+        DigaBulkInvoicer.builder().apiClient(client).encryptAheadBytes(5).build().invoice(invoices);
+    Assertions.assertEquals(20, result.getSuccessfulInvoices());
+    Assertions.assertEquals(9, result.getMaxEncryptedAheadBytes());
+  }
+
+  @Test
+  void testEstimatedSizeIsReservedBeforeEncrypting() throws Exception {
+    var invoices = new ArrayList<DigaInvoice>();
+    for (int i = 0; i < 20; i++) {
+      invoices.add(
+          DigaInvoice.builder().invoiceId(Integer.toString(i)).validatedDigaCode("code").build());
+    }
+    var info = Mockito.mock(DigaBillingInformation.class);
+    Mockito.when(info.getClearingCenterIKNumber()).thenReturn("IK123456789");
+    Mockito.when(info.getEndpoint()).thenReturn("diga.example.de");
+    Mockito.when(info.getBuyerInvoicingMethod()).thenReturn(DigaInvoiceMethod.API);
+    Mockito.when(codeParser.parseCodeForBilling("code")).thenReturn(info);
+    var encrypting = new AtomicInteger();
+    var maxEncrypting = new AtomicInteger();
+    Mockito.when(encr.encrypt())
+        .thenAnswer(
+            invocation -> {
+              maxEncrypting.accumulateAndGet(encrypting.incrementAndGet(), Math::max);
+              Thread.sleep(5);
+              encrypting.decrementAndGet();
+              return bytes("encrypted");
+            });
+
+    // the estimate of each invoice is above half of the budget, so only one is encrypted at a time
+    var result =
+        DigaBulkInvoicer.builder()
+            .apiClient(client)
+            .preparingThreads(4)
+            .encryptAheadBytes(6000)
+            .build()
+            .invoice(invoices);
+    Assertions.assertEquals(20, result.getSuccessfulInvoices());
+    Assertions.assertEquals(1, maxEncrypting.get());
+  }
+
+  @Test
+  void testBulkInvoicingWithoutInvoices() throws Exception {
+    var result = DigaBulkInvoicer.builder().apiClient(client).build().invoice(List.of());
+    Assertions.assertEquals(0, result.getTotalInvoices());
+    Mockito.verifyNoInteractions(httpClient);
+  }
+
+  private static ByteArrayOutputStream bytes(String content) throws Exception {
+    var out = new ByteArrayOutputStream();
+    out.write(content.getBytes(StandardCharsets.UTF_8));
+    return out;
+  }
+}
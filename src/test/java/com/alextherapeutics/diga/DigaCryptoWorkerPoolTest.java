@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class DigaCryptoWorkerPoolTest {
+  @Test
+  void testRunsTasksOnWorkersAndRecordsStatistics() throws Exception {
+    try (var pool = DigaCryptoWorkerPool.builder().threads(2).build()) {
+      Assertions.assertTrue(
+          pool.run(() -> Thread.currentThread().getName()).startsWith("diga-crypto-"));
+      // nested tasks run on the worker itself instead of waiting for a free worker
+      Assertions.assertEquals("nested", pool.run(() -> pool.run(() -> "nested")));
+      var failure =
+          Assertions.assertThrows(
+              ExecutionException.class,
+              () ->
+                  pool.run(
+                      () -> {
+                        throw new IllegalStateException("failed");
+                      }));
+      Assertions.assertEquals("failed", failure.getCause().getMessage());
+
+      var statistics = pool.getStatistics();
+      Assertions.assertEquals(2, statistics.getThreads());
+      Assertions.assertEquals(3, statistics.getCompletedTasks());
+      Assertions.assertEquals(1, statistics.getFailedTasks());
+      Assertions.assertEquals(0, statistics.getQueuedTasks());
+      Assertions.assertTrue(
+          statistics.getMaxServiceTime().compareTo(statistics.getAverageServiceTime()) >= 0);
+    }
+  }
+
+  @Test
+  void testRejectsTasksWhenQueueIsFull() throws Exception {
+    var blocked = new CountDownLatch(1);
+    var started = new CountDownLatch(1);
+    var callers = Executors.newFixedThreadPool(2);
+    try (var pool = DigaCryptoWorkerPool.builder().threads(1).queueCapacity(1).build()) {
+      callers.submit(
+          () ->
+              pool.run(
+                  () -> {
+                    started.countDown();
+                    blocked.await();
+                    return null;
+                  }));
+      started.await();
+      callers.submit(() -> pool.run(() -> null));
+      while (pool.getStatistics().getQueuedTasks() == 0) {
+        Thread.sleep(1);
+      }
+      Assertions.assertThrows(RejectedExecutionException.class, () -> pool.run(() -> null));
+      var statistics = pool.getStatistics();
+      Assertions.assertEquals(1, statistics.getActiveTasks());
+      Assertions.assertEquals(1, statistics.getMaxQueuedTasks());
+      Assertions.assertEquals(1, statistics.getRejectedTasks());
+      blocked.countDown();
+    } finally {
+      callers.shutdownNow();
+    }
+  }
+}
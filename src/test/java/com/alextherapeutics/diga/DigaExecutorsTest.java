@@ -0,0 +1,46 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class DigaExecutorsTest {
+  @Test
+  void testVirtualThreadExecutorRunsTasksOnVirtualThreads() throws Exception {
+    if (!DigaExecutors.isVirtualThreadSupported()) {
+      Assertions.assertThrows(
+          UnsupportedOperationException.class, DigaExecutors::newVirtualThreadPerTaskExecutor);
+      return;
+    }
+    var executor = DigaExecutors.newVirtualThreadPerTaskExecutor();
+    try {
+      var isVirtual =
+          executor
+              .submit(
+                  () ->
+                      (Boolean) Thread.class.getMethod("isVirtual").invoke(Thread.currentThread()))
+              .get(10, TimeUnit.SECONDS);
+      Assertions.assertTrue(isVirtual);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.DigaApiHttpResponseHandler;
+import com.alextherapeutics.diga.DigaHttpClient;
+import com.alextherapeutics.diga.DigaHttpClientException;
+import com.alextherapeutics.diga.DigaXmlReaderException;
+import com.alextherapeutics.diga.model.DigaApiHttpRequest;
+import com.alextherapeutics.diga.model.DigaApiHttpResponse;
+import com.alextherapeutics.diga.model.DigaProcessCode;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class DigaAdaptiveConcurrencyHttpClientTest {
+  private DigaHttpClient httpClient;
+
+  @BeforeEach
+  void init() {
+    httpClient = Mockito.mock(DigaHttpClient.class);
+  }
+
+  @Test
+  void testLimitGrowsWhenRequestsSucceed() throws Exception {
+    Mockito.when(httpClient.post(Mockito.any()))
+        .thenAnswer(
+            invocation -> {
+              Thread.sleep(20);
+              return Mockito.mock(DigaApiHttpResponse.class);
+            });
+    var client =
+        DigaAdaptiveConcurrencyHttpClient.builder().httpClient(httpClient).initialLimit(1).build();
+    client.post(request("fast.example.de"));
+    client.post(request("fast.example.de"));
+    var statistics = client.getLimitStatistics().get("fast.example.de");
+    Assertions.assertEquals(2, statistics.getLimit());
+    Assertions.assertEquals(2, statistics.getSuccessfulRequests());
+    Assertions.assertNotNull(statistics.getMinLatency());
+  }
+
+  @Test
+  void testLimitShrinksWhenRequestsFailWithoutAffectingOtherEndpoints() throws Exception {
+    Mockito.when(httpClient.post(Mockito.any()))
+        .thenAnswer(
+            invocation -> {
+              if (invocation
+                  .getArgument(0, DigaApiHttpRequest.class)
+                  .getUrl()
+                  .contains("fragile")) {
+                throw new DigaHttpClientException(new Exception("fragile endpoint failed"));
+              }
+              return Mockito.mock(DigaApiHttpResponse.class);
+            });
+    var client =
+        DigaAdaptiveConcurrencyHttpClient.builder()
+            .httpClient(httpClient)
+            .initialLimit(10)
+            .minLimit(2)
+            .build();
+    for (int i = 0; i < 5; i++) {
+      Assertions.assertThrows(
+          DigaHttpClientException.class, () -> client.post(request("fragile.example.de")));
+    }
+    client.post(request("other.example.de"));
+    Assertions.assertEquals(5, client.getLimitStatistics().get("fragile.example.de").getLimit());
+    Assertions.assertEquals(
+        5, client.getLimitStatistics().get("fragile.example.de").getFailedRequests());
+    Assertions.assertEquals(10, client.getLimitStatistics().get("other.example.de").getLimit());
+
+    for (int i = 0; i < 20; i++) {
+      Assertions.assertThrows(
+          DigaHttpClientException.class, () -> client.post(request("fragile.example.de")));
+    }
+    Assertions.assertEquals(2, client.getLimitStatistics().get("fragile.example.de").getLimit());
+  }
+
+  @Test
+  void testLatencyBaselineRecoversFromSingleFastResponse() throws Exception {
+    var first = new AtomicBoolean(true);
+    Mockito.when(httpClient.post(Mockito.any()))
+        .thenAnswer(
+            invocation -> {
+              if (!first.getAndSet(false)) {
+                Thread.sleep(20);
+              }
+              return Mockito.mock(DigaApiHttpResponse.class);
+            });
+    var client =
+        DigaAdaptiveConcurrencyHttpClient.builder()
+            .httpClient(httpClient)
+            .initialLimit(2)
+            .latencyWindow(5)
+            .build();
+    for (int i = 0; i < 15; i++) {
+      client.post(request("warm.example.de"));
+    }
+    var statistics = client.getLimitStatistics().get("warm.example.de");
+    Assertions.assertTrue(statistics.getMinLatency().toMillis() >= 15);
+    Assertions.assertEquals(2, statistics.getLimit());
+  }
+
+  @Test
+  void testOnlyHttpExchangeIsTimedAndCounted() throws Exception {
+    var httpResponse = Mockito.mock(DigaApiHttpResponse.class);
+    Mockito.when(httpClient.post(Mockito.any(), Mockito.any()))
+        .thenAnswer(
+            invocation ->
+                invocation
+                    .getArgument(1, DigaApiHttpResponseHandler.class)
+                    .handle(httpResponse, InputStream.nullInputStream()));
+    var client = DigaAdaptiveConcurrencyHttpClient.builder().httpClient(httpClient).build();
+    Assertions.assertThrows(
+        DigaXmlReaderException.class,
+        () ->
+            client.post(
+                request("local.example.de"),
+                (response, body) -> {
+                  try {
+                    Thread.sleep(100);
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  }
+                  throw new DigaXmlReaderException(new Exception("invalid xml"));
+                }));
+    var statistics = client.getLimitStatistics().get("local.example.de");
+    Assertions.assertEquals(0, statistics.getFailedRequests());
+    Assertions.assertEquals(1, statistics.getSuccessfulRequests());
+    Assertions.assertTrue(statistics.getMinLatency().toMillis() < 50);
+  }
+
+  @Test
+  void testRequestsAboveLimitWaitAndAreRejectedAfterMaxWaitTime() throws Exception {
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    Mockito.when(httpClient.post(Mockito.any()))
+        .thenAnswer(
+            invocation -> {
+              started.countDown();
+              release.await(10, TimeUnit.SECONDS);
+              return Mockito.mock(DigaApiHttpResponse.class);
+            });
+    var client =
+        DigaAdaptiveConcurrencyHttpClient.builder()
+            .httpClient(httpClient)
+            .initialLimit(1)
+            .maxWaitTime(Duration.ofMillis(50))
+            .build();
+    var executor = Executors.newSingleThreadExecutor();
+    try {
+      var first = executor.submit(() -> client.post(request("slow.example.de")));
+      Assertions.assertTrue(started.await(10, TimeUnit.SECONDS));
+      Assertions.assertThrows(
+          DigaHttpClientException.class, () -> client.post(request("slow.example.de")));
+      Assertions.assertEquals(
+          1, client.getLimitStatistics().get("slow.example.de").getRejectedRequests());
+      release.countDown();
+      Assertions.assertNotNull(first.get(10, TimeUnit.SECONDS));
+      Mockito.verify(httpClient, Mockito.times(1)).post(Mockito.any());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private DigaApiHttpRequest request(String host) {
+    return DigaApiHttpRequest.builder()
+        .url("https://" + host + "/diga")
+        .processCode(DigaProcessCode.CODE_VALIDATION)
+        .senderIK("IK123456789")
+        .recipientIK("IK987654321")
+        .encryptedContent(new byte[] {1})
+        .build();
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import de.tk.opensource.secon.CertificateVerificationException;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DigaCertificateChainVerifierTest {
+  private KeyPair caKeys;
+  private X509Certificate ca;
+
+  @BeforeEach
+  void init() throws Exception {
+    caKeys = TestCertificates.newKeyPair();
+    ca =
+        TestCertificates.newCertificate(
+            "ITSG CA", caKeys, "ITSG CA", caKeys, true, Instant.now().plus(Duration.ofDays(365)));
+  }
+
+  @Test
+  void testVerifiesChainOnceAndCachesIt() throws Exception {
+    var certificate =
+        TestCertificates.newCertificate(
+            "Clearing Center", TestCertificates.newKeyPair(), "ITSG CA", caKeys);
+    var verifier = DigaCertificateChainVerifier.builder().directory(directory(ca)).build();
+
+    verifier.verify(certificate);
+    verifier.verify(certificate);
+    verifier.verify(certificate);
+
+    Assertions.assertEquals(1, verifier.getCacheMisses());
+    Assertions.assertEquals(2, verifier.getCacheHits());
+  }
+
+  @Test
+  void testRejectsInvalidChains() throws Exception {
+    var verifier = DigaCertificateChainVerifier.builder().directory(directory(ca)).build();
+
+    // the issuer is not in the directory
+    var unknownIssuer =
+        TestCertificates.newCertificate(
+            "Clearing Center",
+            TestCertificates.newKeyPair(),
+            "Unknown CA",
+            TestCertificates.newKeyPair());
+    Assertions.assertThrows(
+        CertificateVerificationException.class, () -> verifier.verify(unknownIssuer));
+
+    // the issuer is in the directory, but did not sign the certificate
+    var forged =
+        TestCertificates.newCertificate(
+            "Clearing Center",
+            TestCertificates.newKeyPair(),
+            "ITSG CA",
+            TestCertificates.newKeyPair());
+    Assertions.assertThrows(CertificateVerificationException.class, () -> verifier.verify(forged));
+
+    // the certificate has expired
+    var expired =
+        TestCertificates.newCertificate(
+            "Clearing Center",
+            TestCertificates.newKeyPair(),
+            "ITSG CA",
+            caKeys,
+            false,
+            Instant.now().minus(Duration.ofHours(1)));
+    Assertions.assertThrows(CertificateVerificationException.class, () -> verifier.verify(expired));
+
+    // the issuer is not a certificate authority
+    var issuerKeys = TestCertificates.newKeyPair();
+    var issuer = TestCertificates.newCertificate("Clearing Center", issuerKeys, "ITSG CA", caKeys);
+    var issued =
+        TestCertificates.newCertificate(
+            "Data Acceptance Office", TestCertificates.newKeyPair(), "Clearing Center", issuerKeys);
+    var withIssuer =
+        DigaCertificateChainVerifier.builder().directory(directory(ca, issuer)).build();
+    Assertions.assertThrows(
+        CertificateVerificationException.class, () -> withIssuer.verify(issued));
+
+    Assertions.assertEquals(0, verifier.getCacheHits());
+  }
+
+  private static DigaIndexedCertificateDirectory directory(X509Certificate... certificates)
+      throws Exception {
+    var keyStore = TestCertificates.newKeyStore();
+    for (int i = 0; i < certificates.length; i++) {
+      keyStore.setCertificateEntry("certificate" + i, certificates[i]);
+    }
+    return DigaIndexedCertificateDirectory.fromKeyStore(keyStore);
+  }
+}
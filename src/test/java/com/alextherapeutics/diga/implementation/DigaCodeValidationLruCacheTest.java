@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.model.DigaCodeValidationResponse;
+import java.time.Duration;
+import java.util.Date;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class DigaCodeValidationLruCacheTest {
+  @Test
+  void testCachedResponsesAreReturned() {
+    var cache = DigaCodeValidationLruCache.builder().build();
+    var response = successfulResponse();
+    cache.put("AAAAAAAAAAAAAAAA", response);
+    Assertions.assertSame(response, cache.get("AAAAAAAAAAAAAAAA"));
+    Assertions.assertNull(cache.get("BBBBBBBBBBBBBBBB"));
+    var statistics = cache.getStatistics();
+    Assertions.assertEquals(1, statistics.getSize());
+    Assertions.assertEquals(1, statistics.getHits());
+    Assertions.assertEquals(1, statistics.getMisses());
+  }
+
+  @Test
+  void testLeastRecentlyUsedResponseIsEvicted() {
+    var cache = DigaCodeValidationLruCache.builder().maxSize(2).build();
+    cache.put("AAAAAAAAAAAAAAAA", successfulResponse());
+    cache.put("BBBBBBBBBBBBBBBB", successfulResponse());
+    cache.get("AAAAAAAAAAAAAAAA");
+    cache.put("CCCCCCCCCCCCCCCC", successfulResponse());
+    Assertions.assertNotNull(cache.get("AAAAAAAAAAAAAAAA"));
+    Assertions.assertNull(cache.get("BBBBBBBBBBBBBBBB"));
+    Assertions.assertNotNull(cache.get("CCCCCCCCCCCCCCCC"));
+    Assertions.assertEquals(1, cache.getStatistics().getEvictions());
+    Assertions.assertEquals(2, cache.getStatistics().getSize());
+  }
+
+  @Test
+  void testExpiredResponsesAreNotReturned() throws InterruptedException {
+    var cache = DigaCodeValidationLruCache.builder().timeToLive(Duration.ofMillis(20)).build();
+    cache.put("AAAAAAAAAAAAAAAA", successfulResponse());
+    Thread.sleep(50);
+    Assertions.assertNull(cache.get("AAAAAAAAAAAAAAAA"));
+    Assertions.assertEquals(1, cache.getStatistics().getExpirations());
+    Assertions.assertEquals(0, cache.getStatistics().getSize());
+  }
+
+  private DigaCodeValidationResponse successfulResponse() {
+    return DigaCodeValidationResponse.builder()
+        .validatedDigaCode("AAAAAAAAAAAAAAAA")
+        .validatedDigaveid("12345000")
+        .dayOfServiceProvision(new Date())
+        .build();
+  }
+}
@@ -19,6 +19,8 @@
 package com.alextherapeutics.diga.implementation;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.ByteArrayInputStream;
 import java.nio.charset.StandardCharsets;
@@ -57,4 +59,16 @@ class DigaHealthInsuranceDirectoryFromXmlTest {
                 new ByteArrayInputStream(
                     sampleInsuranceCompanyMappingXml.getBytes(StandardCharsets.UTF_8))));
   }
+
+  @Test
+  void allInformationCanNotBeModified() throws Exception {
+    var directory =
+        DigaHealthInsuranceDirectoryFromXml.getInstance(
+            new ByteArrayInputStream(
+                sampleInsuranceCompanyMappingXml.getBytes(StandardCharsets.UTF_8)));
+    var allInformation = directory.getAllInformation();
+    assertEquals(1, allInformation.size());
+    assertThrows(UnsupportedOperationException.class, allInformation::clear);
+    assertEquals(1, directory.getAllInformation().size());
+  }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import java.security.cert.X509CertSelector;
+import java.util.Set;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class DigaIndexedCertificateDirectoryTest {
+  @Test
+  void testFindsCertificatesByIkWithOrWithoutPrefix() throws Exception {
+    var keys = TestCertificates.newKeyPair();
+    var certificate = TestCertificates.newSelfSignedCertificate("Clearing Center", keys);
+    var keyStore = TestCertificates.newKeyStore();
+    keyStore.setCertificateEntry("IK123456789", certificate);
+
+    var directory = DigaIndexedCertificateDirectory.fromKeyStore(keyStore);
+
+    Assertions.assertEquals(1, directory.size());
+    Assertions.assertSame(certificate, directory.certificate("IK123456789").orElseThrow());
+    Assertions.assertSame(certificate, directory.certificate("ik123456789").orElseThrow());
+    Assertions.assertSame(certificate, directory.certificate("123456789").orElseThrow());
+    Assertions.assertTrue(directory.contains("123456789"));
+    Assertions.assertEquals(0, directory.getLookupMisses());
+
+    Assertions.assertTrue(directory.certificate("IK987654321").isEmpty());
+    Assertions.assertFalse(directory.contains("IK111111111"));
+    Assertions.assertEquals(1, directory.getLookupMisses());
+    Assertions.assertEquals(Set.of("987654321"), directory.getMissedIks());
+  }
+
+  @Test
+  void testFindsCertificatesBySelectorAndIssuer() throws Exception {
+    var caKeys = TestCertificates.newKeyPair();
+    var ca = TestCertificates.newSelfSignedCertificate("ITSG CA", caKeys);
+    var otherCa =
+        TestCertificates.newSelfSignedCertificate("ITSG CA", TestCertificates.newKeyPair());
+    var keys = TestCertificates.newKeyPair();
+    var certificate = TestCertificates.newCertificate("Clearing Center", keys, "ITSG CA", caKeys);
+    var keyStore = TestCertificates.newKeyStore();
+    keyStore.setCertificateEntry("ca", ca);
+    keyStore.setCertificateEntry("otherca", otherCa);
+    keyStore.setCertificateEntry("IK123456789", certificate);
+
+    var directory = DigaIndexedCertificateDirectory.fromKeyStore(keyStore);
+
+    var selector = new X509CertSelector();
+    selector.setIssuer(certificate.getIssuerX500Principal());
+    selector.setSerialNumber(certificate.getSerialNumber());
+    Assertions.assertEquals(certificate, directory.certificate(selector).orElseThrow());
+    var subjectSelector = new X509CertSelector();
+    subjectSelector.setSubject(certificate.getSubjectX500Principal());
+    Assertions.assertEquals(certificate, directory.certificate(subjectSelector).orElseThrow());
+    // both CAs have the same subject, only one of them signed the certificate
+    Assertions.assertEquals(ca, directory.issuer(certificate).orElseThrow());
+  }
+
+  @Test
+  void testFindsCertificatesBySubjectKeyIdentifier() throws Exception {
+    var keys = TestCertificates.newKeyPair();
+    var certificate = TestCertificates.newSelfSignedCertificate("Clearing Center", keys);
+    var keyStore = TestCertificates.newKeyStore();
+    keyStore.setCertificateEntry("IK123456789", certificate);
+    keyStore.setCertificateEntry(
+        "IK987654321",
+        TestCertificates.newSelfSignedCertificate(
+            "Other Clearing Center", TestCertificates.newKeyPair()));
+
+    var directory = DigaIndexedCertificateDirectory.fromKeyStore(keyStore);
+
+    var keyIdentifier =
+        new JcaX509ExtensionUtils().createSubjectKeyIdentifier(keys.getPublic()).getKeyIdentifier();
+    // with the der encoded key identifier, as the selector expects it
+    var selector = new X509CertSelector();
+    selector.setSubjectKeyIdentifier(new DEROctetString(keyIdentifier).getEncoded());
+    Assertions.assertEquals(certificate, directory.certificate(selector).orElseThrow());
+    // and with the key identifier as it is, as secon passes it
+    var rawSelector = new X509CertSelector();
+    rawSelector.setSubjectKeyIdentifier(keyIdentifier);
+    Assertions.assertEquals(certificate, directory.certificate(rawSelector).orElseThrow());
+
+    var unknownSelector = new X509CertSelector();
+    unknownSelector.setSubjectKeyIdentifier(new byte[] {1, 2, 3});
+    Assertions.assertTrue(directory.certificate(unknownSelector).isEmpty());
+  }
+}
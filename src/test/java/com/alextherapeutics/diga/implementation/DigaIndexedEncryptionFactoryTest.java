@@ -0,0 +1,208 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.DigaDecryptionException;
+import com.alextherapeutics.diga.DigaEncryptionException;
+import com.alextherapeutics.diga.DigaHealthInsuranceDirectory;
+import com.alextherapeutics.diga.model.generatedxml.codevalidation.KrankenkasseninformationCtp;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStoreException;
+import java.security.cert.Certificate;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class DigaIndexedEncryptionFactoryTest {
+  private DigaIndexedEncryptionFactory factory;
+  private Certificate certificate;
+  private byte[] privateKeyStoreBytes;
+
+  @BeforeEach
+  void init() throws Exception {
+    var keys = TestCertificates.newKeyPair();
+    certificate = TestCertificates.newSelfSignedCertificate("DiGA Manufacturer", keys);
+    var privateKeyStore = TestCertificates.newKeyStore();
+    privateKeyStore.setKeyEntry(
+        "diga", keys.getPrivate(), "secret".toCharArray(), new Certificate[] {certificate});
+    // encrypt to our own certificate, so the responses can be decrypted in the test
+    var publicKeyStore = TestCertificates.newKeyStore();
+    publicKeyStore.setCertificateEntry("ik111111111", certificate);
+    publicKeyStore.setCertificateEntry(
+        "ik222222222",
+        TestCertificates.newSelfSignedCertificate(
+            "Clearing Center", TestCertificates.newKeyPair()));
+
+    var healthInsuranceDirectory = Mockito.mock(DigaHealthInsuranceDirectory.class);
+    Mockito.when(healthInsuranceDirectory.getAllInformation())
+        .thenReturn(List.of(information("111111111"), information("333333333")));
+
+    privateKeyStoreBytes = TestCertificates.toBytes(privateKeyStore, "secret");
+    factory =
+        DigaIndexedEncryptionFactory.builder()
+            .privateKeyBytes(privateKeyStoreBytes)
+            .privateKeyAlias("diga")
+            .privateKeyPassword("secret")
+            .publicKeysBytes(TestCertificates.toBytes(publicKeyStore, "public"))
+            .publicKeyDirectoryPassword("public")
+            .healthInsuranceDirectory(healthInsuranceDirectory)
+            .build();
+  }
+
+  @Test
+  void testReportsClearingCentersWithoutCertificatesAtStartup() {
+    var report = factory.getCoverageReport();
+    Assertions.assertEquals(2, report.getCertificates());
+    Assertions.assertEquals(Set.of("111111111"), report.getCoveredClearingCenters());
+    Assertions.assertEquals(Set.of("333333333"), report.getMissingClearingCenters());
+    Assertions.assertEquals(0.5, report.getCoverage());
+    Assertions.assertEquals(0, report.getLookupMisses());
+  }
+
+  @Test
+  void testEncryptsWithIndexedCertificates() throws Exception {
+    var content = "<xml>content</xml>".getBytes(StandardCharsets.UTF_8);
+    var encrypted =
+        factory
+            .newEncryption()
+            .encryptionTarget(content)
+            .recipientAlias("IK111111111")
+            .build()
+            .encrypt()
+            .toByteArray();
+
+    var decrypted = factory.newDecryption().decryptionTarget(encrypted).build().decrypt();
+    Assertions.assertArrayEquals(content, decrypted.toByteArray());
+    try (var stream =
+        factory
+            .newDecryption()
+            .decryptionSource(new ByteArrayInputStream(encrypted))
+            .build()
+            .decryptAsStream()) {
+      Assertions.assertArrayEquals(content, stream.readAllBytes());
+    }
+
+    var missing =
+        factory.newEncryption().encryptionTarget(content).recipientAlias("IK333333333").build();
+    Assertions.assertThrows(DigaEncryptionException.class, missing::encrypt);
+    var report = factory.getCoverageReport();
+    Assertions.assertEquals(1, report.getLookupMisses());
+    Assertions.assertEquals(Set.of("333333333"), report.getMissedIks());
+  }
+
+  @Test
+  void testReloadRejectsEmptyKeyStore() throws Exception {
+    Assertions.assertThrows(
+        KeyStoreException.class,
+        () -> factory.reloadHealthInsuranceCertificates(TestCertificates.newKeyStore()));
+    Assertions.assertEquals(2, factory.getCoverageReport().getCertificates());
+  }
+
+  @Test
+  void testReloadReplacesCertificatesForNewEncryptionsOnly() throws Exception {
+    var content = "<xml>content</xml>".getBytes(StandardCharsets.UTF_8);
+    var inFlight =
+        factory.newEncryption().encryptionTarget(content).recipientAlias("IK111111111").build();
+
+    var publicKeyStore = TestCertificates.newKeyStore();
+    publicKeyStore.setCertificateEntry("ik333333333", certificate);
+    factory.reloadHealthInsuranceCertificates(publicKeyStore);
+
+    var report = factory.getCoverageReport();
+    Assertions.assertEquals(1, report.getCertificates());
+    Assertions.assertEquals(Set.of("333333333"), report.getCoveredClearingCenters());
+    Assertions.assertEquals(Set.of("111111111"), report.getMissingClearingCenters());
+
+    // an encryption created before the reload keeps the previous certificates
+    var encrypted = inFlight.encrypt().toByteArray();
+    Assertions.assertArrayEquals(
+        content,
+        factory.newDecryption().decryptionTarget(encrypted).build().decrypt().toByteArray());
+    var removed =
+        factory.newEncryption().encryptionTarget(content).recipientAlias("IK111111111").build();
+    Assertions.assertThrows(DigaEncryptionException.class, removed::encrypt);
+    var added =
+        factory.newEncryption().encryptionTarget(content).recipientAlias("IK333333333").build();
+    Assertions.assertDoesNotThrow(added::encrypt);
+  }
+
+  @Test
+  void testVerifiesResponseSignersIfEnabled() throws Exception {
+    var content = "<xml>content</xml>".getBytes(StandardCharsets.UTF_8);
+    // signed with our own certificate, which is in the key list of the factory
+    var encrypted =
+        factory
+            .newEncryption()
+            .encryptionTarget(content)
+            .recipientAlias("IK111111111")
+            .build()
+            .encrypt()
+            .toByteArray();
+
+    var verifying = factoryWithKeyList("ik111111111", certificate, true);
+    Assertions.assertArrayEquals(
+        content,
+        verifying.newDecryption().decryptionTarget(encrypted).build().decrypt().toByteArray());
+    try (var stream =
+        verifying
+            .newDecryption()
+            .decryptionSource(new ByteArrayInputStream(encrypted))
+            .build()
+            .decryptAsStream()) {
+      Assertions.assertArrayEquals(content, stream.readAllBytes());
+    }
+
+    // the signer is not in the key list, which is only an error if signers are verified
+    var otherCertificate =
+        TestCertificates.newSelfSignedCertificate("Clearing Center", TestCertificates.newKeyPair());
+    var lenient = factoryWithKeyList("ik222222222", otherCertificate, false);
+    Assertions.assertArrayEquals(
+        content,
+        lenient.newDecryption().decryptionTarget(encrypted).build().decrypt().toByteArray());
+    var strict = factoryWithKeyList("ik222222222", otherCertificate, true);
+    Assertions.assertThrows(
+        DigaDecryptionException.class,
+        () -> strict.newDecryption().decryptionTarget(encrypted).build().decrypt());
+  }
+
+  private DigaIndexedEncryptionFactory factoryWithKeyList(
+      String alias, Certificate keyListCertificate, boolean verifyResponseSignatures)
+      throws Exception {
+    var publicKeyStore = TestCertificates.newKeyStore();
+    publicKeyStore.setCertificateEntry(alias, keyListCertificate);
+    return DigaIndexedEncryptionFactory.builder()
+        .privateKeyBytes(privateKeyStoreBytes)
+        .privateKeyAlias("diga")
+        .privateKeyPassword("secret")
+        .publicKeysBytes(TestCertificates.toBytes(publicKeyStore, "public"))
+        .publicKeyDirectoryPassword("public")
+        .verifyResponseSignatures(verifyResponseSignatures)
+        .build();
+  }
+
+  private static KrankenkasseninformationCtp information(String clearingCenterIk) {
+    var information = new KrankenkasseninformationCtp();
+    information.setIKAbrechnungsstelle(clearingCenterIk);
+    return information;
+  }
+}
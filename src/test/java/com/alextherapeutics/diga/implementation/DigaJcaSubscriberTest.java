@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.model.DigaKeyMaterial;
+import com.alextherapeutics.diga.model.DigaSecurityProviderBenchmarkResult;
+import com.alextherapeutics.diga.model.DigaSecurityProviders;
+import de.tk.opensource.secon.Identity;
+import de.tk.opensource.secon.InvalidSignatureException;
+import de.tk.opensource.secon.SECON;
+import de.tk.opensource.secon.Subscriber;
+import de.tk.opensource.secon.Verifier;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class DigaJcaSubscriberTest {
+  private static final byte[] CONTENT = "<xml>content</xml>".getBytes(StandardCharsets.UTF_8);
+  private static KeyStore privateKeyStore;
+  private static Identity identity;
+  private static de.tk.opensource.secon.Directory directory;
+
+  @BeforeAll
+  static void init() throws Exception {
+    // 4096 bit keys use RSAES-OAEP for the key transport, like the keys of the health insurances
+    var keys = TestCertificates.newKeyPair(4096);
+    var certificate = TestCertificates.newSelfSignedCertificate("DiGA Manufacturer", keys);
+    privateKeyStore = TestCertificates.newKeyStore();
+    privateKeyStore.setKeyEntry(
+        "diga", keys.getPrivate(), "secret".toCharArray(), new Certificate[] {certificate});
+    var publicKeyStore = TestCertificates.newKeyStore();
+    publicKeyStore.setCertificateEntry("ik111111111", certificate);
+    identity = SECON.identity(privateKeyStore, "diga", "secret"::toCharArray);
+    directory = SECON.directory(publicKeyStore);
+  }
+
+  @Test
+  void testMessagesAreCompatibleWithSecon() throws Exception {
+    var secon = SECON.subscriber(identity, directory);
+    var jdkProviders =
+        DigaSecurityProviders.builder()
+            .signature(Security.getProvider("SunRsaSign"))
+            .keyTransport(Security.getProvider("SunJCE"))
+            .contentEncryption(Security.getProvider("SunJCE"))
+            .build();
+    var subscriber = new DigaJcaSubscriber(identity, directory, jdkProviders);
+
+    Assertions.assertArrayEquals(CONTENT, decrypt(subscriber, encrypt(secon)));
+    Assertions.assertArrayEquals(CONTENT, decrypt(secon, encrypt(subscriber)));
+    var defaultProviders =
+        new DigaJcaSubscriber(identity, directory, DigaSecurityProviders.builder().build());
+    Assertions.assertArrayEquals(CONTENT, decrypt(secon, encrypt(defaultProviders)));
+  }
+
+  @Test
+  void testTamperedSignatureIsRejected() throws Exception {
+    // signs with another key than the one of the certificate the signature claims to be from
+    var otherKeys = TestCertificates.newKeyPair();
+    var forger =
+        new Identity() {
+          @Override
+          public PrivateKey privateKey() {
+            return otherKeys.getPrivate();
+          }
+
+          @Override
+          public X509Certificate certificate() throws Exception {
+            return identity.certificate();
+          }
+        };
+    var providers = DigaSecurityProviders.builder().build();
+    var encrypted = encrypt(new DigaJcaSubscriber(forger, directory, providers));
+
+    var subscriber = new DigaJcaSubscriber(identity, directory, providers);
+    var error = Assertions.assertThrows(Exception.class, () -> decrypt(subscriber, encrypted));
+    Throwable cause = error;
+    while (cause != null && !(cause instanceof InvalidSignatureException)) {
+      cause = cause.getCause();
+    }
+    Assertions.assertNotNull(cause, "Expected an InvalidSignatureException, got " + error);
+  }
+
+  @Test
+  void testBenchmarkMeasuresEachProviderAndOperation() throws Exception {
+    var results =
+        DigaSecurityProviderBenchmark.builder()
+            .keyMaterial(DigaKeyMaterial.of(privateKeyStore, "secret", privateKeyStore))
+            .privateKeyAlias("diga")
+            .contentSize(1024)
+            .warmupIterations(1)
+            .iterations(2)
+            .providers(List.of(Security.getProvider("BC"), Security.getProvider("SUN")))
+            .build()
+            .run();
+
+    Assertions.assertEquals(6, results.size());
+    Assertions.assertTrue(
+        results.stream()
+            .filter(result -> result.getProvider().equals("BC"))
+            .allMatch(DigaSecurityProviderBenchmarkResult::isSupported));
+    // the SUN provider has no RSA signatures or ciphers
+    Assertions.assertTrue(
+        results.stream()
+            .filter(result -> result.getProvider().equals("SUN"))
+            .noneMatch(DigaSecurityProviderBenchmarkResult::isSupported));
+    var fastest = DigaSecurityProviderBenchmark.fastest(results);
+    Assertions.assertEquals("BC", fastest.getSignature().getName());
+    Assertions.assertEquals("BC", fastest.getKeyTransport().getName());
+    Assertions.assertEquals("BC", fastest.getContentEncryption().getName());
+  }
+
+  private static byte[] encrypt(Subscriber subscriber) throws Exception {
+    var output = new ByteArrayOutputStream();
+    SECON.copy(
+        () -> new ByteArrayInputStream(CONTENT),
+        subscriber.signAndEncryptTo(() -> output, "IK111111111"));
+    return output.toByteArray();
+  }
+
+  private static byte[] decrypt(Subscriber subscriber, byte[] encrypted) throws Exception {
+    var output = new ByteArrayOutputStream();
+    SECON.copy(
+        subscriber.decryptAndVerifyFrom(() -> new ByteArrayInputStream(encrypted), Verifier.NULL),
+        () -> output);
+    return output.toByteArray();
+  }
+}
@@ -19,24 +19,48 @@
 package com.alextherapeutics.diga.implementation;
 
 import com.alextherapeutics.diga.DigaHttpClientException;
+import com.alextherapeutics.diga.model.DigaApiHttpRequest;
+import com.alextherapeutics.diga.model.DigaEndpointBulkheadSettings;
+import com.alextherapeutics.diga.model.DigaProcessCode;
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.KeyStore;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.X509ExtendedTrustManager;
 import nl.altindag.ssl.SSLFactory;
+import nl.altindag.ssl.util.SSLFactoryUtils;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
 class DigaOkHttpClientTest {
   private OkHttpClient okHttpClient;
+  private SSLFactory mockSslFactory;
   private DigaOkHttpClient client;
 
   @BeforeEach
-  void init() throws DigaHttpClientException {
+  void init() throws Exception {
     // setup so you can check the okhttpclient mock for interactions
     try (var keystore = Mockito.mockStatic(KeyStore.class)) {
       var mockStore = Mockito.mock(KeyStore.class);
+      Mockito.when(mockStore.aliases()).thenReturn(Collections.emptyEnumeration());
       keystore
           .when(
               () -> {
@@ -54,7 +78,9 @@ class DigaOkHttpClientTest {
                 mockSslBuilder.withIdentityMaterial(
                     Mockito.any(KeyStore.class), Mockito.any(char[].class)))
             .thenReturn(mockSslBuilder);
-        var mockSslFactory = Mockito.mock(SSLFactory.class);
+        Mockito.when(mockSslBuilder.withSwappableIdentityMaterial()).thenReturn(mockSslBuilder);
+        Mockito.when(mockSslBuilder.withSwappableTrustMaterial()).thenReturn(mockSslBuilder);
+        mockSslFactory = Mockito.mock(SSLFactory.class);
         Mockito.when(mockSslBuilder.build()).thenReturn(mockSslFactory);
         Mockito.when(mockSslFactory.getTrustManager())
             .thenReturn(Optional.of(Mockito.mock(X509ExtendedTrustManager.class)));
@@ -74,13 +100,161 @@ class DigaOkHttpClientTest {
                   .certificatesPassword("dummy")
                   .keyStoreFileContent(new byte[] {})
                   .keyStorePassword("dummy")
+                  .endpointSettings(
+                      Map.of(
+                          "slow.example.de",
+                          DigaEndpointBulkheadSettings.builder()
+                              .maxConcurrentRequests(1)
+                              .maxQueuedRequests(1)
+                              .maxQueueWaitTime(Duration.ofSeconds(10))
+                              .build()))
                   .build();
         }
       }
     }
   }
 
-  // not sure what to test here.. but the class is set up for later
   @Test
-  void test() {}
+  void testSlowEndpointRejectsRequestsAboveItsLimitsWithoutAffectingOthers() throws Exception {
+    var endpointBuilder = Mockito.mock(OkHttpClient.Builder.class, Mockito.RETURNS_SELF);
+    Mockito.when(okHttpClient.newBuilder()).thenReturn(endpointBuilder);
+    Mockito.when(endpointBuilder.build()).thenReturn(okHttpClient);
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var slowCall = Mockito.mock(Call.class);
+    Mockito.when(slowCall.execute())
+        .thenAnswer(
+            invocation -> {
+              started.countDown();
+              release.await(10, TimeUnit.SECONDS);
+              throw new IOException("slow endpoint failed");
+            });
+    var fastCall = Mockito.mock(Call.class);
+    Mockito.when(fastCall.execute()).thenThrow(new IOException("fast endpoint failed"));
+    Mockito.when(okHttpClient.newCall(Mockito.any()))
+        .thenAnswer(
+            invocation ->
+                invocation.getArgument(0, okhttp3.Request.class).url().host().startsWith("slow")
+                    ? slowCall
+                    : fastCall);
+
+    var executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<?> active = executor.submit(() -> client.post(request("slow.example.de")));
+      Assertions.assertTrue(started.await(10, TimeUnit.SECONDS));
+      Future<?> queued = executor.submit(() -> client.post(request("slow.example.de")));
+      while (client.getEndpointStatistics().get("slow.example.de").getQueuedRequests() == 0) {
+        Thread.sleep(5);
+      }
+      Assertions.assertThrows(
+          DigaHttpClientException.class, () -> client.post(request("slow.example.de")));
+      // other endpoints are not held up by the slow one
+      Assertions.assertThrows(
+          DigaHttpClientException.class, () -> client.post(request("fast.example.de")));
+
+      var slowStatistics = client.getEndpointStatistics().get("slow.example.de");
+      Assertions.assertEquals(1, slowStatistics.getActiveRequests());
+      Assertions.assertEquals(1, slowStatistics.getQueuedRequests());
+      Assertions.assertEquals(1, slowStatistics.getRejectedRequests());
+      var fastStatistics = client.getEndpointStatistics().get("fast.example.de");
+      Assertions.assertEquals(1, fastStatistics.getCompletedRequests());
+      Assertions.assertEquals(1, fastStatistics.getFailedRequests());
+      Assertions.assertEquals(4, fastStatistics.getSettings().getMaxConcurrentRequests());
+
+      release.countDown();
+      Assertions.assertThrows(Exception.class, () -> active.get(10, TimeUnit.SECONDS));
+      Assertions.assertThrows(Exception.class, () -> queued.get(10, TimeUnit.SECONDS));
+      slowStatistics = client.getEndpointStatistics().get("slow.example.de");
+      Assertions.assertEquals(0, slowStatistics.getActiveRequests());
+      Assertions.assertEquals(2, slowStatistics.getCompletedRequests());
+      Assertions.assertEquals(2, slowStatistics.getFailedRequests());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testReloadSwapsTrustMaterialOfTheExistingSslFactory() throws Exception {
+    var certificates = Mockito.mock(KeyStore.class);
+    try (var sslFactory = Mockito.mockStatic(SSLFactory.class);
+        var sslFactoryUtils = Mockito.mockStatic(SSLFactoryUtils.class)) {
+      var updatedBuilder = Mockito.mock(SSLFactory.Builder.class, Mockito.RETURNS_SELF);
+      sslFactory.when(SSLFactory::builder).thenReturn(updatedBuilder);
+      var updatedFactory = Mockito.mock(SSLFactory.class);
+      Mockito.when(updatedBuilder.build()).thenReturn(updatedFactory);
+
+      client.reloadHealthInsuranceCertificates(certificates);
+
+      Mockito.verify(updatedBuilder).withTrustMaterial(certificates);
+      Mockito.verify(updatedBuilder, Mockito.never()).withSwappableTrustMaterial();
+      sslFactoryUtils.verify(() -> SSLFactoryUtils.reload(mockSslFactory, updatedFactory, false));
+      Mockito.verifyNoInteractions(okHttpClient);
+    }
+  }
+
+  @Test
+  void testResponseHandlerReadsEncryptedBodyFromResponse() throws Exception {
+    var endpointBuilder = Mockito.mock(OkHttpClient.Builder.class, Mockito.RETURNS_SELF);
+    Mockito.when(okHttpClient.newBuilder()).thenReturn(endpointBuilder);
+    Mockito.when(endpointBuilder.build()).thenReturn(okHttpClient);
+    var multipart =
+        new MultipartBody.Builder("boundary")
+            .setType(MultipartBody.FORM)
+            .addFormDataPart("iksender", "987654321")
+            .addFormDataPart("ikempfaenger", "123456789")
+            .addFormDataPart("verfahren", "TDFC0")
+            .addFormDataPart(
+                "nutzdaten",
+                "antwort.cms",
+                RequestBody.create(new byte[] {4, 2}, MediaType.parse("application/octet-stream")))
+            .build();
+    var content = new Buffer();
+    multipart.writeTo(content);
+    var call = Mockito.mock(Call.class);
+    Mockito.when(call.execute())
+        .thenAnswer(
+            invocation ->
+                new Response.Builder()
+                    .request(new okhttp3.Request.Builder().url("https://diga.example.de").build())
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(200)
+                    .message("OK")
+                    .body(ResponseBody.create(content, multipart.contentType(), content.size()))
+                    .build());
+    Mockito.when(okHttpClient.newCall(Mockito.any())).thenReturn(call);
+
+    var result =
+        client.post(
+            request("diga.example.de"),
+            (response, encryptedBody) -> {
+              Assertions.assertEquals("987654321", response.getSenderIK());
+              Assertions.assertEquals("123456789", response.getRecipientIK());
+              Assertions.assertEquals("TDFC0", response.getVerfahren());
+              // streamed from the response instead of being read into memory
+              Assertions.assertNull(response.getEncryptedBody());
+              return readAll(encryptedBody);
+            });
+
+    Assertions.assertArrayEquals(new byte[] {4, 2}, result);
+    Assertions.assertEquals(
+        0, client.getEndpointStatistics().get("diga.example.de").getFailedRequests());
+  }
+
+  private static byte[] readAll(InputStream inputStream) {
+    try {
+      return inputStream.readAllBytes();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private DigaApiHttpRequest request(String host) {
+    return DigaApiHttpRequest.builder()
+        .url("https://" + host + "/diga")
+        .processCode(DigaProcessCode.CODE_VALIDATION)
+        .senderIK("IK123456789")
+        .recipientIK("IK987654321")
+        .encryptedContent(new byte[] {1})
+        .build();
+  }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.DigaHttpClient;
+import com.alextherapeutics.diga.DigaHttpClientException;
+import com.alextherapeutics.diga.model.DigaApiHttpRequest;
+import com.alextherapeutics.diga.model.DigaApiHttpResponse;
+import com.alextherapeutics.diga.model.DigaProcessCode;
+import com.alextherapeutics.diga.model.DigaRateLimit;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class DigaRateLimitedHttpClientTest {
+  private DigaHttpClient httpClient;
+
+  @BeforeEach
+  void init() throws Exception {
+    httpClient = Mockito.mock(DigaHttpClient.class);
+    Mockito.when(httpClient.post(Mockito.any()))
+        .thenAnswer(invocation -> Mockito.mock(DigaApiHttpResponse.class));
+  }
+
+  @Test
+  void testNonBlockingRejectsRequestsAboveRecipientBurst() throws Exception {
+    var client =
+        DigaRateLimitedHttpClient.builder()
+            .httpClient(httpClient)
+            .defaultRecipientRateLimit(
+                DigaRateLimit.builder().requestsPerSecond(0.01).burst(2).build())
+            .recipientRateLimits(
+                Map.of("IK111111111", DigaRateLimit.builder().requestsPerSecond(0.01).build()))
+            .nonBlocking(true)
+            .build();
+    client.post(request("IK987654321"));
+    client.post(request("987654321"));
+    Assertions.assertThrows(
+        DigaHttpClientException.class, () -> client.post(request("IK987654321")));
+    client.post(request("IK111111111"));
+    Assertions.assertThrows(
+        DigaHttpClientException.class, () -> client.post(request("IK111111111")));
+    // other recipients have their own bucket
+    client.post(request("IK222222222"));
+    Assertions.assertEquals(2, client.getRejectedRequests());
+    Mockito.verify(httpClient, Mockito.times(4)).post(Mockito.any());
+  }
+
+  @Test
+  void testInvalidRecipientRateLimitIsRejectedAtConstruction() {
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            DigaRateLimitedHttpClient.builder()
+                .httpClient(httpClient)
+                .recipientRateLimits(
+                    Map.of("IK111111111", DigaRateLimit.builder().requestsPerSecond(0).build()))
+                .build());
+  }
+
+  @Test
+  void testGlobalRateLimitAppliesToAllRecipients() throws Exception {
+    var client =
+        DigaRateLimitedHttpClient.builder()
+            .httpClient(httpClient)
+            .globalRateLimit(DigaRateLimit.builder().requestsPerSecond(0.01).burst(3).build())
+            .nonBlocking(true)
+            .build();
+    client.post(request("IK111111111"));
+    client.post(request("IK222222222"));
+    client.post(request("IK333333333"));
+    Assertions.assertThrows(
+        DigaHttpClientException.class, () -> client.post(request("IK444444444")));
+  }
+
+  @Test
+  void testBlockingSpacesRequestsByRate() throws Exception {
+    var client =
+        DigaRateLimitedHttpClient.builder()
+            .httpClient(httpClient)
+            .defaultRecipientRateLimit(DigaRateLimit.builder().requestsPerSecond(20).build())
+            .build();
+    var start = System.nanoTime();
+    for (int i = 0; i < 5; i++) {
+      client.post(request("IK987654321"));
+    }
+    // the first request is sent right away, the others 50 ms apart
+    Assertions.assertTrue(System.nanoTime() - start >= 190_000_000L);
+    Assertions.assertEquals(0, client.getRejectedRequests());
+  }
+
+  @Test
+  void testConcurrentRequestsNeverExceedBurst() throws Exception {
+    var client =
+        DigaRateLimitedHttpClient.builder()
+            .httpClient(httpClient)
+            .defaultRecipientRateLimit(
+                DigaRateLimit.builder().requestsPerSecond(0.01).burst(100).build())
+            .nonBlocking(true)
+            .build();
+    var sent = new AtomicInteger();
+    var executor = Executors.newFixedThreadPool(8);
+    try {
+      var tasks = new ArrayList<Callable<Void>>();
+      for (int i = 0; i < 8; i++) {
+        tasks.add(
+            () -> {
+              for (int j = 0; j < 50; j++) {
+                try {
+                  client.post(request("IK987654321"));
+                  sent.incrementAndGet();
+                } catch (DigaHttpClientException e) {
+                  // rejected
+                }
+              }
+              return null;
+            });
+      }
+      for (var future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Assertions.assertEquals(100, sent.get());
+    Assertions.assertEquals(300, client.getRejectedRequests());
+  }
+
+  private DigaApiHttpRequest request(String recipientIK) {
+    return DigaApiHttpRequest.builder()
+        .url("https://diga.example.de/diga")
+        .processCode(DigaProcessCode.BILLING)
+        .senderIK("IK123456789")
+        .recipientIK(recipientIK)
+        .encryptedContent(new byte[] {1})
+        .build();
+  }
+}
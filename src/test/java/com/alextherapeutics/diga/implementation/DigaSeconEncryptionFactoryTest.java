@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.model.DigaKeyMaterial;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.Certificate;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class DigaSeconEncryptionFactoryTest {
+  @Test
+  void testEncryptsWithSharedKeyMaterial() throws Exception {
+    var keys = TestCertificates.newKeyPair();
+    var certificate = TestCertificates.newSelfSignedCertificate("DiGA Manufacturer", keys);
+    var privateKeyStore = TestCertificates.newKeyStore();
+    privateKeyStore.setKeyEntry(
+        "diga", keys.getPrivate(), "secret".toCharArray(), new Certificate[] {certificate});
+    // encrypt to our own certificate, so the result can be decrypted in the test
+    var publicKeyStore = TestCertificates.newKeyStore();
+    publicKeyStore.setCertificateEntry("ik111111111", certificate);
+    var keyMaterial =
+        DigaKeyMaterial.load(
+            TestCertificates.toBytes(privateKeyStore, "secret"),
+            "secret",
+            TestCertificates.toBytes(publicKeyStore, "public"),
+            "public");
+    // the private key is decrypted once and not again for every request
+    Assertions.assertSame(
+        keyMaterial.identity("diga").privateKey(), keyMaterial.identity("diga").privateKey());
+
+    var factory =
+        DigaSeconEncryptionFactory.builder()
+            .privateKeyAlias("diga")
+            .keyMaterial(keyMaterial)
+            .build();
+    var content = "<xml>content</xml>".getBytes(StandardCharsets.UTF_8);
+    var encrypted =
+        factory
+            .newEncryption()
+            .encryptionTarget(content)
+            .recipientAlias("IK111111111")
+            .build()
+            .encrypt()
+            .toByteArray();
+
+    Assertions.assertArrayEquals(
+        content,
+        factory.newDecryption().decryptionTarget(encrypted).build().decrypt().toByteArray());
+  }
+
+  @Test
+  void testRequiresKeyStoresWithoutKeyMaterial() {
+    Assertions.assertThrows(
+        NullPointerException.class,
+        () ->
+            DigaSeconEncryptionFactory.builder()
+                .privateKeyAlias("diga")
+                .privateKeyPassword("secret")
+                .build());
+  }
+}
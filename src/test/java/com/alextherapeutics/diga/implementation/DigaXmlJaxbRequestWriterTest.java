@@ -28,6 +28,16 @@ import jakarta.xml.bind.JAXBException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -37,31 +47,7 @@ class DigaXmlJaxbRequestWriterTest {
 
   @BeforeEach
   void init() throws JAXBException {
-    writer =
-        new DigaXmlJaxbRequestWriter(
-            DigaInformation.builder()
-                .companyTradeAddress(
-                    DigaInformation.CompanyTradeAddress.builder()
-                        .countryCode("DE")
-                        .city("dum")
-                        .postalCode("dum")
-                        .adressLine("dum")
-                        .build())
-                .contactPersonForBilling(
-                    DigaInformation.ContactPersonForBilling.builder()
-                        .emailAddress("dum")
-                        .phoneNumber("dum")
-                        .fullName("dum")
-                        .build())
-                .manufacturingCompanyVATRegistration("dum")
-                .applicableVATpercent(new BigDecimal(10))
-                .netPricePerPrescription(new BigDecimal(5000))
-                .manufacturingCompanyIk("dum")
-                .digaName("dum")
-                .digaId("dum")
-                .manufacturingCompanyName("dum")
-                .digaDescription("dum")
-                .build());
+    writer = new DigaXmlJaxbRequestWriter(digaInformation());
   }
 
   @Test
@@ -100,6 +86,113 @@ class DigaXmlJaxbRequestWriterTest {
     Assertions.assertNotNull(res);
   }
 
+  @Test
+  void testConcurrentRequestsAreIdenticalToSequentialOnes() throws Exception {
+    writer =
+        DigaXmlJaxbRequestWriter.builder()
+            .digaInformation(digaInformation())
+            .marshallerPoolSize(2)
+            .build();
+    var invoice = DigaInvoice.builder().validatedDigaCode("dum").invoiceId("ID1").build();
+    var billingInformation =
+        DigaBillingInformation.builder()
+            .insuranceCompanyName("dum")
+            .insuranceCompanyIKNumber("dum")
+            .clearingCenterIKNumber("dum")
+            .endpoint("dum")
+            .buyerCompanyCity("dum")
+            .buyerCompanyPostalCode("dum")
+            .buyerCompanyAddressLine("dum")
+            .buyerCompanyCreditorIk("dum")
+            .buyerInvoicingMethod(DigaInvoiceMethod.API)
+            .build();
+    var expected = writer.createBillingRequest(invoice, billingInformation);
+
+    var threads = 8;
+    var executor = Executors.newFixedThreadPool(threads);
+    try {
+      var start = new CountDownLatch(1);
+      var results = new ArrayList<Future<List<byte[]>>>();
+      for (int i = 0; i < threads; i++) {
+        results.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  var written = new ArrayList<byte[]>();
+                  for (int j = 0; j < 50; j++) {
+                    written.add(writer.createBillingRequest(invoice, billingInformation));
+                  }
+                  return written;
+                }));
+      }
+      start.countDown();
+      for (var result : results) {
+        for (var written : result.get(1, TimeUnit.MINUTES)) {
+          Assertions.assertArrayEquals(expected, written);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    var statistics = writer.getBillingMarshallerPoolStatistics();
+    Assertions.assertEquals(2, statistics.getMaxSize());
+    Assertions.assertTrue(statistics.getCreated() <= 2);
+    Assertions.assertEquals(0, statistics.getInUse());
+    Assertions.assertEquals(threads * 50 + 1, statistics.getAcquisitions());
+  }
+
+  @Test
+  void testWritesDatesOfEachDay() throws Exception {
+    var ctxt = JAXBContext.newInstance(ObjectFactory.class);
+    var unmarshaller = ctxt.createUnmarshaller();
+    var zone = ZoneId.systemDefault();
+    var dates =
+        List.of(
+            LocalDateTime.of(2021, 3, 1, 0, 0),
+            LocalDateTime.of(2021, 3, 1, 23, 59),
+            LocalDateTime.of(2021, 3, 2, 0, 0),
+            LocalDateTime.of(2021, 3, 1, 12, 0));
+    for (var date : dates) {
+      var res =
+          writer.createBillingRequest(
+              DigaInvoice.builder()
+                  .validatedDigaCode("dum")
+                  .invoiceId("ID1")
+                  .issueDate(Date.from(date.atZone(zone).toInstant()))
+                  .dateOfServiceProvision(Date.from(date.minusDays(1).atZone(zone).toInstant()))
+                  .build(),
+              DigaBillingInformation.builder()
+                  .insuranceCompanyName("dum")
+                  .insuranceCompanyIKNumber("dum")
+                  .clearingCenterIKNumber("dum")
+                  .endpoint("dum")
+                  .buyerCompanyCity("dum")
+                  .buyerCompanyPostalCode("dum")
+                  .buyerCompanyAddressLine("dum")
+                  .buyerCompanyCreditorIk("dum")
+                  .buyerInvoicingMethod(DigaInvoiceMethod.API)
+                  .build());
+      var invoice =
+          ((JAXBElement<CrossIndustryInvoiceType>)
+                  unmarshaller.unmarshal(new ByteArrayInputStream(res)))
+              .getValue();
+      var format = DateTimeFormatter.ofPattern("yyyyMMdd");
+      Assertions.assertEquals(
+          format.format(date),
+          invoice.getExchangedDocument().getIssueDateTime().getDateTimeString().getValue());
+      Assertions.assertEquals(
+          format.format(date.minusDays(1)),
+          invoice
+              .getSupplyChainTradeTransaction()
+              .getApplicableHeaderTradeDelivery()
+              .getActualDeliverySupplyChainEvent()
+              .getOccurrenceDateTime()
+              .getDateTimeString()
+              .getValue());
+    }
+  }
+
   @Test
   void testStandardVat() throws DigaXmlWriterException, JAXBException {
     var ctxt = JAXBContext.newInstance(ObjectFactory.class);
@@ -284,4 +377,30 @@ class DigaXmlJaxbRequestWriterTest {
             .getRateApplicablePercent()
             .getValue());
   }
+
+  static DigaInformation digaInformation() {
+    return DigaInformation.builder()
+        .companyTradeAddress(
+            DigaInformation.CompanyTradeAddress.builder()
+                .countryCode("DE")
+                .city("dum")
+                .postalCode("dum")
+                .adressLine("dum")
+                .build())
+        .contactPersonForBilling(
+            DigaInformation.ContactPersonForBilling.builder()
+                .emailAddress("dum")
+                .phoneNumber("dum")
+                .fullName("dum")
+                .build())
+        .manufacturingCompanyVATRegistration("dum")
+        .applicableVATpercent(new BigDecimal(10))
+        .netPricePerPrescription(new BigDecimal(5000))
+        .manufacturingCompanyIk("dum")
+        .digaName("dum")
+        .digaId("dum")
+        .manufacturingCompanyName("dum")
+        .digaDescription("dum")
+        .build();
+  }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import com.alextherapeutics.diga.model.*;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class DigaXmlTemplateRequestWriterTest {
+
+  @Test
+  void testWritesSameInvoicesAsJaxbWriter() throws Exception {
+    for (var reverseChargeVat : List.of(false, true)) {
+      var digaInformation = digaInformation(reverseChargeVat);
+      var jaxbWriter = new DigaXmlJaxbRequestWriter(digaInformation);
+      var templateWriter = new DigaXmlTemplateRequestWriter(digaInformation);
+      Assertions.assertTrue(templateWriter.isUsingTemplate());
+
+      for (var invoice :
+          List.of(
+              invoice("ID1", "12345000", "EUR"),
+              invoice("<Rechnung & \"Gutschrift\">", "1234'5000", "E\"U<R"),
+              DigaInvoice.builder()
+                  .invoiceId("ID2")
+                  .validatedDigaCode("ABCDEFGHIJKLMNOP")
+                  .digavEid("12345000")
+                  .issueDate(new Date(0))
+                  .dateOfServiceProvision(new Date(1600000000000L))
+                  .build())) {
+        for (var buyer :
+            List.of(
+                buyer("IK123456789", "Krankenkasse", "Berlin"),
+                buyer("123456789", "  Krankenkasse & Söhne >  ", "Köln 🏥"),
+                buyer("IK1IK2", "\tKasse\n", "Berlin"))) {
+          Assertions.assertArrayEquals(
+              jaxbWriter.createBillingRequest(invoice, buyer),
+              templateWriter.createBillingRequest(invoice, buyer));
+        }
+      }
+    }
+  }
+
+  @Test
+  void testWritesInvoicesWithoutTemplateValuesWithJaxbWriter() throws Exception {
+    var digaInformation = digaInformation(false);
+    var jaxbWriter = new DigaXmlJaxbRequestWriter(digaInformation);
+    var templateWriter = new DigaXmlTemplateRequestWriter(digaInformation);
+    var invoice = invoice("ID1", null, "EUR");
+    var buyer = buyer("IK123456789", "Krankenkasse", "Berlin");
+    Assertions.assertArrayEquals(
+        jaxbWriter.createBillingRequest(invoice, buyer),
+        templateWriter.createBillingRequest(invoice, buyer));
+  }
+
+  private static DigaInvoice invoice(String invoiceId, String digavEid, String currency) {
+    return DigaInvoice.builder()
+        .invoiceId(invoiceId)
+        .validatedDigaCode("ABCDEFGHIJKLMNOP")
+        .digavEid(digavEid)
+        .invoiceCurrencyCode(currency)
+        .build();
+  }
+
+  private static DigaBillingInformation buyer(String ik, String name, String city) {
+    return DigaBillingInformation.builder()
+        .insuranceCompanyName(name)
+        .insuranceCompanyIKNumber(ik)
+        .clearingCenterIKNumber("IK987654321")
+        .endpoint("diga.example.de")
+        .buyerCompanyCity(city)
+        .buyerCompanyPostalCode("12345")
+        .buyerCompanyAddressLine("Straße 1")
+        .buyerCompanyCreditorIk("IK123456789")
+        .buyerInvoicingMethod(DigaInvoiceMethod.API)
+        .build();
+  }
+
+  private static DigaInformation digaInformation(boolean reverseChargeVat) {
+    return DigaInformation.builder()
+        .companyTradeAddress(
+            DigaInformation.CompanyTradeAddress.builder()
+                .countryCode("DE")
+                .city("Stockholm")
+                .postalCode("123 45")
+                .adressLine("Test Street 1 & 2")
+                .build())
+        .contactPersonForBilling(
+            DigaInformation.ContactPersonForBilling.builder()
+                .emailAddress("diga@diga.de")
+                .phoneNumber("+46 70 123 45 67")
+                .fullName("Sven Svensson")
+                .build())
+        .manufacturingCompanyVATRegistration("DE 123 456")
+        .applicableVATpercent(new BigDecimal(19))
+        .reverseChargeVAT(reverseChargeVat)
+        .netPricePerPrescription(new BigDecimal("499.99"))
+        .manufacturingCompanyIk("IK123456789")
+        .digaName("MyDiga")
+        .digaId("12345")
+        .manufacturingCompanyName("My <Diga> Company")
+        .build();
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.implementation;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+// creates keys, certificates and keystores for tests of the encryption classes
+final class TestCertificates {
+  private static final AtomicLong serialNumbers = new AtomicLong(1);
+
+  private TestCertificates() {}
+
+  static KeyPair newKeyPair() throws Exception {
+    return newKeyPair(2048);
+  }
+
+  static KeyPair newKeyPair(int bits) throws Exception {
+    var generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(bits);
+    return generator.generateKeyPair();
+  }
+
+  static X509Certificate newCertificate(
+      String subject, KeyPair subjectKeys, String issuer, KeyPair issuerKeys) throws Exception {
+    return newCertificate(
+        subject, subjectKeys, issuer, issuerKeys, false, Instant.now().plus(Duration.ofDays(365)));
+  }
+
+  static X509Certificate newCertificate(
+      String subject,
+      KeyPair subjectKeys,
+      String issuer,
+      KeyPair issuerKeys,
+      boolean certificateAuthority,
+      Instant notAfter)
+      throws Exception {
+    var builder =
+        new JcaX509v3CertificateBuilder(
+            new X500Name("CN=" + issuer),
+            BigInteger.valueOf(serialNumbers.getAndIncrement()),
+            Date.from(Instant.now().minus(Duration.ofDays(1))),
+            Date.from(notAfter),
+            new X500Name("CN=" + subject),
+            subjectKeys.getPublic());
+    builder.addExtension(
+        Extension.subjectKeyIdentifier,
+        false,
+        new JcaX509ExtensionUtils().createSubjectKeyIdentifier(subjectKeys.getPublic()));
+    if (certificateAuthority) {
+      builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+    }
+    var signer = new JcaContentSignerBuilder("SHA256withRSA").build(issuerKeys.getPrivate());
+    return new JcaX509CertificateConverter().getCertificate(builder.build(signer));
+  }
+
+  static X509Certificate newSelfSignedCertificate(String subject, KeyPair keys) throws Exception {
+    return newCertificate(subject, keys, subject, keys);
+  }
+
+  static KeyStore newKeyStore() throws Exception {
+    var keyStore = KeyStore.getInstance("PKCS12");
+    keyStore.load(null, null);
+    return keyStore;
+  }
+
+  static byte[] toBytes(KeyStore keyStore, String password) throws Exception {
+    var output = new ByteArrayOutputStream();
+    keyStore.store(output, password.toCharArray());
+    return output.toByteArray();
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import org.junit.jupiter.api.Test;
+
+class DigaApiHttpRequestTest {
+
+  @Test
+  void testExactlyOneEncryptedContentIsRequired() {
+    assertThrows(IllegalArgumentException.class, () -> request().build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            request()
+                .encryptedContent(new byte[] {1})
+                .encryptedContentWriter(output -> output.write(1))
+                .build());
+  }
+
+  @Test
+  void testWritesEitherEncryptedContent() throws Exception {
+    var buffered = request().encryptedContent(new byte[] {1, 2}).build();
+    var streamed =
+        request().encryptedContentWriter(output -> output.write(new byte[] {1, 2})).build();
+    for (var request : new DigaApiHttpRequest[] {buffered, streamed}) {
+      var output = new ByteArrayOutputStream();
+      request.writeEncryptedContentTo(output);
+      assertArrayEquals(new byte[] {1, 2}, output.toByteArray());
+      assertArrayEquals(new byte[] {1, 2}, request.getEncryptedContent());
+    }
+  }
+
+  private static DigaApiHttpRequest.DigaApiHttpRequestBuilder request() {
+    return DigaApiHttpRequest.builder()
+        .processCode(DigaProcessCode.CODE_VALIDATION)
+        .url("https://diga.example.de")
+        .senderIK("IK123456789")
+        .recipientIK("IK987654321");
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2021-2021 Alex Therapeutics AB and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ */
+
+package com.alextherapeutics.diga.model;
+
+import com.alextherapeutics.diga.DigaCryptoWorkerPool;
+import com.alextherapeutics.diga.DigaEncryptionException;
+import de.tk.opensource.secon.SeconCallable;
+import de.tk.opensource.secon.SeconException;
+import de.tk.opensource.secon.Subscriber;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class DigaEncryptionTest {
+  @Test
+  void testEncryptToWritesIntoStreamWithoutClosingIt() throws Exception {
+    // a subscriber which "encrypts" by writing the plain content
+    var subscriber = Mockito.mock(Subscriber.class);
+    Mockito.when(subscriber.signAndEncryptTo(Mockito.any(), Mockito.eq("IK123456789")))
+        .thenAnswer(
+            invocation -> {
+              Callable<OutputStream> output = invocation.getArgument(0);
+              return (SeconCallable<OutputStream>)
+                  () -> {
+                    try {
+                      return output.call();
+                    } catch (Exception e) {
+                      throw new IllegalStateException(e);
+                    }
+                  };
+            });
+    var encryption =
+        DigaEncryption.builder()
+            .subscriber(subscriber)
+            .encryptionTarget("<xml/>".getBytes(StandardCharsets.UTF_8))
+            .recipientAlias("IK123456789")
+            .build();
+    var closed = new AtomicBoolean();
+    var output =
+        new ByteArrayOutputStream() {
+          @Override
+          public void close() {
+            closed.set(true);
+          }
+        };
+
+    encryption.encryptTo(output);
+    Assertions.assertEquals("<xml/>", output.toString(StandardCharsets.UTF_8));
+    Assertions.assertFalse(closed.get());
+    Assertions.assertEquals("<xml/>", encryption.encrypt().toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void testEncryptOnCryptoWorkerPool() throws Exception {
+    var subscriber = Mockito.mock(Subscriber.class);
+    var encryptingThread = new AtomicReference<String>();
+    Mockito.when(subscriber.signAndEncryptTo(Mockito.any(), Mockito.eq("IK123456789")))
+        .thenAnswer(
+            invocation -> {
+              encryptingThread.set(Thread.currentThread().getName());
+              throw new SeconException("failed");
+            });
+    try (var pool = DigaCryptoWorkerPool.builder().threads(1).build()) {
+      var encryption =
+          DigaEncryption.builder()
+              .subscriber(subscriber)
+              .encryptionTarget(new byte[] {1})
+              .recipientAlias("IK123456789")
+              .cryptoWorkerPool(pool)
+              .build();
+      var exception = Assertions.assertThrows(DigaEncryptionException.class, encryption::encrypt);
+      Assertions.assertTrue(exception.getCause() instanceof SeconException);
+      Assertions.assertEquals("diga-crypto-0", encryptingThread.get());
+      Assertions.assertEquals(1, pool.getStatistics().getFailedTasks());
+    }
+  }
+
+  @Test
+  void testInterruptedStreamingEncryptionDoesNotWriteFromPool() throws Exception {
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var writingThread = new AtomicReference<String>();
+    var subscriber = Mockito.mock(Subscriber.class);
+    Mockito.when(subscriber.signAndEncryptTo(Mockito.any(), Mockito.eq("IK123456789")))
+        .thenAnswer(
+            invocation -> {
+              Callable<OutputStream> output = invocation.getArgument(0);
+              return (SeconCallable<OutputStream>)
+                  () -> {
+                    started.countDown();
+                    try {
+                      release.await(10, TimeUnit.SECONDS);
+                      return output.call();
+                    } catch (Exception e) {
+                      throw new IllegalStateException(e);
+                    }
+                  };
+            });
+    var output =
+        new ByteArrayOutputStream() {
+          @Override
+          public synchronized void write(byte[] b, int off, int len) {
+            writingThread.set(Thread.currentThread().getName());
+            super.write(b, off, len);
+          }
+        };
+    try (var pool = DigaCryptoWorkerPool.builder().threads(1).build()) {
+      var encryption =
+          DigaEncryption.builder()
+              .subscriber(subscriber)
+              .encryptionTarget("<xml/>".getBytes(StandardCharsets.UTF_8))
+              .recipientAlias("IK123456789")
+              .cryptoWorkerPool(pool)
+              .build();
+
+      var result = new CompletableFuture<Throwable>();
+      var caller =
+          new Thread(
+              () -> {
+                try {
+                  encryption.encryptTo(output);
+                  result.complete(null);
+                } catch (Throwable e) {
+                  result.complete(e);
+                }
+              });
+      caller.start();
+      Assertions.assertTrue(started.await(10, TimeUnit.SECONDS));
+      caller.interrupt();
+      var error = result.get(10, TimeUnit.SECONDS);
+      Assertions.assertTrue(error instanceof DigaEncryptionException);
+      Assertions.assertTrue(error.getCause() instanceof InterruptedException);
+
+      // the worker finishes the abandoned encryption without touching the caller's output
+      release.countDown();
+      while (pool.getStatistics().getCompletedTasks() < 1) {
+        Thread.sleep(10);
+      }
+      Assertions.assertEquals(0, output.size());
+      Assertions.assertNull(writingThread.get());
+
+      // without interruption, the caller writes the output itself
+      encryption.encryptTo(output);
+      Assertions.assertEquals("<xml/>", output.toString(StandardCharsets.UTF_8));
+      Assertions.assertEquals(Thread.currentThread().getName(), writingThread.get());
+    }
+  }
+}